@@ -3,12 +3,12 @@ package net.jmecn;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.jmecn.asset.AssetManager;
 import net.jmecn.geom.Drawable;
 import net.jmecn.light.Light;
 import net.jmecn.math.ColorRGBA;
 import net.jmecn.renderer.Camera;
 import net.jmecn.renderer.Renderer;
-import net.jmecn.scene.Geometry;
 import net.jmecn.scene.Node;
 
 /**
@@ -32,6 +32,9 @@ public abstract class Application {
     // 摄像机
     private Camera camera;
     
+    // 资源管理器
+    private AssetManager assetManager;
+    
     // 渲染队列
     protected List<Drawable> scene;
     
@@ -69,6 +72,9 @@ public abstract class Application {
         // 光源
         lights = new ArrayList<Light>();
         
+        // 资源管理器
+        assetManager = new AssetManager();
+        
         // 改变运行状态
         isRunning = true;
         
@@ -151,9 +157,8 @@ public abstract class Application {
         // 清空场景
         renderer.clear();
 
-        // 获取所有物体，绘制3D场景
-        List<Geometry> geomList = rootNode.getGeometryList(null);
-        renderer.render(geomList, camera);
+        // 遍历场景图，绘制3D场景
+        renderer.render(rootNode, camera);
         
         // 绘制2D场景
         int len = scene.size();
@@ -222,6 +227,14 @@ public abstract class Application {
         return camera;
     }
 
+    public AssetManager getAssetManager() {
+        return assetManager;
+    }
+
+    public Renderer getRenderer() {
+        return renderer;
+    }
+
     /**
      * 更新FPS
      */
@@ -8,6 +8,10 @@ import java.awt.Toolkit;
 import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 import javax.swing.JFrame;
 
@@ -33,6 +37,10 @@ public class Screen {
     private BufferedImage displayImage;
     private byte[] displayComponents;
     
+    // 直接使用INT_ARGB格式的渲染图像数据创建的显示图像
+    private BufferedImage sharedImage;
+    private int[] sharedPixels;
+    
     // 用户输入
     private Input input;
     
@@ -93,18 +101,26 @@ public class Screen {
      * @param fps
      */
     public void swapBuffer(Image image, int fps) {
-        // 把渲染好的图像拷贝到BufferedImage中。
-        int width = image.getWidth();
-        int height = image.getHeight();
-        byte[] components = image.getComponents();
-        int length = width * height;
-        for (int i = 0; i < length; i++) {
-            // blue
-            displayComponents[i * 3] = components[i * 4 + 2];
-            // green
-            displayComponents[i * 3 + 1] = components[i * 4 + 1];
-            // red
-            displayComponents[i * 3 + 2] = components[i * 4];
+        BufferedImage displayImage;
+        if (image.getFormat() == Image.Format.INT_ARGB) {
+            // 渲染图像的像素格式与显示图像一致，直接共享像素数据，不需要拷贝。
+            displayImage = getSharedImage(image);
+        } else {
+            // 把渲染好的图像拷贝到BufferedImage中。
+            displayImage = this.displayImage;
+            
+            int width = image.getWidth();
+            int height = image.getHeight();
+            byte[] components = image.getComponents();
+            int length = width * height;
+            for (int i = 0; i < length; i++) {
+                // blue
+                displayComponents[i * 3] = components[i * 4 + 2];
+                // green
+                displayComponents[i * 3 + 1] = components[i * 4 + 1];
+                // red
+                displayComponents[i * 3 + 2] = components[i * 4];
+            }
         }
         
         Graphics graphics = bufferStrategy.getDrawGraphics();
@@ -122,6 +138,29 @@ public class Screen {
         bufferStrategy.show();
     }
 
+    /**
+     * 使用图像的像素数组创建BufferedImage，两者共享同一个数组。
+     * 像素格式与TYPE_INT_RGB相同，忽略alpha通道。
+     * @param image
+     * @return
+     */
+    private BufferedImage getSharedImage(Image image) {
+        int[] pixels = image.getPixels();
+        if (sharedImage == null || sharedPixels != pixels) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            
+            DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+            DataBufferInt dataBuffer = new DataBufferInt(pixels, pixels.length);
+            WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width,
+                    colorModel.getMasks(), null);
+            
+            sharedImage = new BufferedImage(colorModel, raster, false, null);
+            sharedPixels = pixels;
+        }
+        return sharedImage;
+    }
+    
     /**
      * 获得用户输入
      * @return
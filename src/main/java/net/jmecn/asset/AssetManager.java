@@ -0,0 +1,317 @@
+package net.jmecn.asset;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.jmecn.material.Texture;
+import net.jmecn.renderer.Image;
+
+/**
+ * 资源管理器
+ *
+ * 按路径缓存解码后的图像，按 TextureKey 缓存纹理。同一个资源被多个材质引用时，只会加载一次。
+ *
+ * 缓存的资源按最近使用的顺序排列，占用的内存超过预算时，淘汰最久没有使用的资源。
+ * 开启软引用后，被淘汰的资源不会立即丢弃，而是改为软引用持有，直到JVM内存不足时才被回收；
+ * 在回收之前再次加载，可以直接取回，不需要重新解码。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class AssetManager {
+
+    // 默认的内存预算：256MB
+    public final static long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    /**
+     * 缓存项
+     */
+    private static class Entry {
+        final Object asset;
+        final long size;
+
+        Entry(Object asset, long size) {
+            this.asset = asset;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 被淘汰的缓存项的软引用，记住自己的键，被回收后可以从softCache中移除。
+     */
+    private static class SoftEntry extends SoftReference<Entry> {
+        final Object key;
+
+        SoftEntry(Object key, Entry entry, ReferenceQueue<Entry> queue) {
+            super(entry, queue);
+            this.key = key;
+        }
+    }
+
+    // 按访问顺序排列的缓存，最久没有使用的资源排在最前面。
+    private final LinkedHashMap<Object, Entry> cache = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    // 被淘汰后，使用软引用持有的资源。
+    private final Map<Object, SoftEntry> softCache = new HashMap<Object, SoftEntry>();
+    // 软引用被回收后，由JVM放入这个队列。
+    private final ReferenceQueue<Entry> queue = new ReferenceQueue<Entry>();
+
+    private long budget;
+    private long usage;
+    private boolean useSoftReferences;
+
+    // 统计
+    private long hits;
+    private long softHits;
+    private long misses;
+    private long evictions;
+
+    public AssetManager() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * 初始化资源管理器
+     * @param budget 内存预算（字节）
+     */
+    public AssetManager(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 加载图像
+     * @param path 图片路径
+     * @return
+     * @throws IOException
+     */
+    public synchronized Image loadImage(String path) throws IOException {
+        Image image = (Image) get(path);
+        if (image == null) {
+            image = new Image(path);
+            put(path, image, image.getSize());
+        }
+        return image;
+    }
+
+    /**
+     * 使用默认的采样参数加载纹理
+     * @param path 图片路径
+     * @return
+     * @throws IOException
+     */
+    public Texture loadTexture(String path) throws IOException {
+        return loadTexture(new TextureKey(path));
+    }
+
+    /**
+     * 加载纹理
+     *
+     * 纹理会把图像转换为自己的格式保存，因此不会同时缓存图像。如果图像已经在缓存中，就直接使用它。
+     *
+     * @param key 图片路径和采样参数
+     * @return
+     * @throws IOException
+     */
+    public synchronized Texture loadTexture(TextureKey key) throws IOException {
+        Texture texture = (Texture) get(key);
+        if (texture == null) {
+            Image image = (Image) peek(key.getPath());
+            if (image == null) {
+                image = new Image(key.getPath());
+            }
+
+            texture = new Texture(image);
+            key.apply(texture);
+            put(key, texture, texture.getSize());
+        }
+        return texture;
+    }
+
+    /**
+     * 从缓存中取出资源，并更新统计。
+     * @param key
+     * @return 不在缓存中时返回null
+     */
+    private Object get(Object key) {
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            hits++;
+            return entry.asset;
+        }
+
+        SoftEntry ref = softCache.remove(key);
+        if (ref != null) {
+            entry = ref.get();
+            if (entry != null) {
+                // 软引用还没有被回收，重新放回缓存。
+                softHits++;
+                cache.put(key, entry);
+                usage += entry.size;
+                evict();
+                return entry.asset;
+            }
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * 查看缓存中的资源，不更新统计和使用顺序。
+     * @param key
+     * @return
+     */
+    private Object peek(Object key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            SoftEntry ref = softCache.get(key);
+            if (ref != null) {
+                entry = ref.get();
+            }
+        }
+        return entry != null ? entry.asset : null;
+    }
+
+    /**
+     * 把资源放入缓存
+     * @param key
+     * @param asset
+     * @param size 资源占用的字节数
+     */
+    private void put(Object key, Object asset, long size) {
+        cache.put(key, new Entry(asset, size));
+        usage += size;
+        evict();
+    }
+
+    /**
+     * 淘汰最久没有使用的资源，直到内存占用不超过预算。最近放入的资源总是保留。
+     */
+    private void evict() {
+        Iterator<Map.Entry<Object, Entry>> it = cache.entrySet().iterator();
+        while (usage > budget && cache.size() > 1) {
+            Map.Entry<Object, Entry> eldest = it.next();
+            Entry entry = eldest.getValue();
+            it.remove();
+            usage -= entry.size;
+            evictions++;
+
+            if (useSoftReferences) {
+                softCache.put(eldest.getKey(), new SoftEntry(eldest.getKey(), entry, queue));
+            }
+        }
+
+        expungeStaleEntries();
+    }
+
+    /**
+     * 清理已经被回收的软引用，只处理队列中的引用，不需要遍历softCache。
+     */
+    private void expungeStaleEntries() {
+        SoftEntry ref;
+        while ((ref = (SoftEntry) queue.poll()) != null) {
+            // 同一个键可能已经被重新淘汰，对应了新的软引用。
+            if (softCache.get(ref.key) == ref) {
+                softCache.remove(ref.key);
+            }
+        }
+    }
+
+    /**
+     * 清空缓存，已经加载的资源仍然可以继续使用。
+     */
+    public synchronized void clear() {
+        cache.clear();
+        softCache.clear();
+        usage = 0;
+    }
+
+    /**
+     * 重置统计
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        softHits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    // getter/setters
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * 设置内存预算，超出预算的资源会立即被淘汰。
+     * @param budget 字节数
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * 获得缓存的资源占用的字节数，不包括软引用持有的资源。
+     * @return
+     */
+    public synchronized long getUsage() {
+        return usage;
+    }
+
+    public synchronized boolean isUseSoftReferences() {
+        return useSoftReferences;
+    }
+
+    /**
+     * 设置被淘汰的资源是否改为软引用持有
+     * @param useSoftReferences
+     */
+    public synchronized void setUseSoftReferences(boolean useSoftReferences) {
+        this.useSoftReferences = useSoftReferences;
+        if (!useSoftReferences) {
+            softCache.clear();
+        }
+    }
+
+    /**
+     * 获得在缓存中找到资源的次数
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * 获得从软引用中取回资源的次数
+     * @return
+     */
+    public synchronized long getSoftHits() {
+        return softHits;
+    }
+
+    /**
+     * 获得需要重新加载资源的次数
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * 获得因为超出预算而淘汰资源的次数
+     * @return
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AssetManager[assets=%d, usage=%d/%d bytes, hits=%d, softHits=%d, misses=%d, evictions=%d]",
+                cache.size(), usage, budget, hits, softHits, misses, evictions);
+    }
+}
@@ -0,0 +1,227 @@
+package net.jmecn.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.jmecn.material.Texture;
+import net.jmecn.material.Texture.Layout;
+import net.jmecn.renderer.Image;
+
+/**
+ * 未压缩的纹理文件
+ *
+ * 文件中保存了纹理的所有Mipmap，纹素按0xAARRGGBB格式、小端字节序保存，可以预先排列为 Texture.Layout 中的任意布局。
+ * 加载时把整个文件映射到内存，纹理直接从映射的内存中采样，不需要解码，也不需要复制；
+ * 操作系统只在纹素第一次被访问时才读取对应的页面。
+ *
+ * 文件格式（所有整数都是小端字节序的int）：
+ * <pre>
+ * magic, version, width, height, layout, levels
+ * 每一层：width, height, offset(字节), length(纹素数量)
+ * 每一层的数据，起始位置按64字节对齐
+ * </pre>
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class RawTextureFile {
+
+    // 文件扩展名
+    public final static String EXTENSION = ".rtex";
+
+    // 文件开头的"RTEX"
+    private final static int MAGIC = 'R' | 'T' << 8 | 'E' << 16 | 'X' << 24;
+    private final static int VERSION = 1;
+
+    // 每一层数据的对齐字节数
+    private final static int ALIGNMENT = 64;
+
+    private final static int HEADER_SIZE = 24;
+    private final static int LEVEL_HEADER_SIZE = 16;
+
+    // 宽高不超过int的范围时，Mipmap最多有32层。
+    private final static int MAX_LEVELS = 32;
+
+    private RawTextureFile() {
+    }
+
+    /**
+     * 把纹理保存为文件，纹素按纹理当前的布局排列。
+     *
+     * @param texture
+     * @param file
+     * @throws IOException
+     */
+    public static void write(Texture texture, File file) throws IOException {
+        int levels = texture.getMipLevels();
+
+        // 计算每一层数据的位置
+        int[] offsets = new int[levels];
+        int[] lengths = new int[levels];
+        long size = align(HEADER_SIZE + LEVEL_HEADER_SIZE * levels);
+        for (int level = 0; level < levels; level++) {
+            offsets[level] = (int) size;
+            lengths[level] = texture.getMipData(level).remaining();
+            size = align(size + lengths[level] * 4L);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Texture is too large: " + size + " bytes");
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(texture.getMipWidth(0));
+            buffer.putInt(texture.getMipHeight(0));
+            buffer.putInt(texture.getLayout().ordinal());
+            buffer.putInt(levels);
+            for (int level = 0; level < levels; level++) {
+                buffer.putInt(texture.getMipWidth(level));
+                buffer.putInt(texture.getMipHeight(level));
+                buffer.putInt(offsets[level]);
+                buffer.putInt(lengths[level]);
+            }
+
+            for (int level = 0; level < levels; level++) {
+                buffer.position(offsets[level]);
+                buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(texture.getMipData(level));
+            }
+            buffer.force();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 把文件映射到内存，创建纹理。
+     *
+     * 文件头中的尺寸、层数和每一层的位置都会被检查，文件损坏或不完整时抛出IOException。
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Texture load(File file) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long size = raf.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Texture file is too large: " + file);
+            }
+            // 映射建立之后，关闭文件不会影响映射的内存。
+            buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a texture file: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported texture file version " + version + ": " + file);
+        }
+
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int layout = buffer.getInt();
+        int levels = buffer.getInt();
+        if (width <= 0 || height <= 0 || layout < 0 || layout >= Layout.values().length
+                || levels <= 0 || levels > MAX_LEVELS || buffer.remaining() < levels * LEVEL_HEADER_SIZE) {
+            throw new IOException("Corrupted texture file: " + file);
+        }
+
+        // 每一层的数据都在所有的头之后
+        int dataStart = HEADER_SIZE + LEVEL_HEADER_SIZE * levels;
+
+        int[] widths = new int[levels];
+        int[] heights = new int[levels];
+        IntBuffer[] data = new IntBuffer[levels];
+        for (int level = 0; level < levels; level++) {
+            int levelWidth = buffer.getInt();
+            int levelHeight = buffer.getInt();
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+
+            // 尺寸必须与第0层逐层减半的结果一致，1x1的层只能是最后一层。
+            if (levelWidth != width || levelHeight != height
+                    || (level < levels - 1 && width == 1 && height == 1)) {
+                throw new IOException("Corrupted texture file: " + file);
+            }
+            // 数据必须在文件之内并且对齐，纹素的数量不能少于尺寸的要求。
+            if (offset < dataStart || offset % ALIGNMENT != 0 || length < 0
+                    || (long) offset + length * 4L > buffer.limit() || (long) width * height > length) {
+                throw new IOException("Truncated or corrupted texture file: " + file);
+            }
+            widths[level] = width;
+            heights[level] = height;
+            width = Math.max(1, width >> 1);
+            height = Math.max(1, height >> 1);
+
+            // 切出这一层的数据，不复制。
+            int position = buffer.position();
+            buffer.position(offset);
+            IntBuffer texels = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            texels.limit(length);
+            data[level] = texels;
+            buffer.position(position);
+        }
+
+        try {
+            return new Texture(Layout.values()[layout], widths, heights, data);
+        } catch (IllegalArgumentException e) {
+            // 数据不足以容纳按布局排列的纹素
+            throw new IOException("Truncated or corrupted texture file: " + file, e);
+        }
+    }
+
+    /**
+     * 把图片转换为纹理文件
+     *
+     * @param input 图片路径，支持ImageIO能够读取的格式，例如PNG、JPG。
+     * @param output 纹理文件路径
+     * @param layout 纹素的内存布局
+     * @throws IOException
+     */
+    public static void convert(String input, String output, Layout layout) throws IOException {
+        Texture texture = new Texture(new Image(input));
+        texture.setLayout(layout);
+        write(texture, new File(output));
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * 转换工具
+     * <pre>
+     * RawTextureFile input.png output.rtex [LINEAR|TILED]
+     * </pre>
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: RawTextureFile <input image> <output" + EXTENSION + "> [LINEAR|TILED]");
+            return;
+        }
+
+        Layout layout = args.length > 2 ? Layout.valueOf(args[2].toUpperCase()) : Layout.LINEAR;
+        convert(args[0], args[1], layout);
+    }
+}
@@ -0,0 +1,143 @@
+package net.jmecn.asset;
+
+import net.jmecn.material.Texture;
+import net.jmecn.material.Texture.Compression;
+import net.jmecn.material.Texture.Layout;
+import net.jmecn.material.Texture.MagFilter;
+import net.jmecn.material.Texture.MinFilter;
+import net.jmecn.material.Texture.WarpAxis;
+import net.jmecn.material.Texture.WarpMode;
+
+/**
+ * 纹理资源的索引
+ *
+ * 由图片路径和采样参数组成。路径相同、采样参数不同的纹理是不同的资源，会分别缓存。
+ * 默认的采样参数与 Texture 的默认值一致。作为缓存的键使用后，不要再修改它的参数。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TextureKey {
+
+    private final String path;
+
+    private MagFilter magFilter = MagFilter.BILINEAR;
+    private MinFilter minFilter = MinFilter.TRILINEAR;
+    private WarpMode warpS = WarpMode.REPEAT;
+    private WarpMode warpT = WarpMode.REPEAT;
+    private Layout layout = Layout.LINEAR;
+    private Compression compression = Compression.NONE;
+
+    public TextureKey(String path) {
+        this.path = path;
+    }
+
+    /**
+     * 把采样参数应用到纹理上
+     * @param texture
+     */
+    public void apply(Texture texture) {
+        texture.setMagFilter(magFilter);
+        texture.setMinFilter(minFilter);
+        texture.setWarpMode(WarpAxis.S, warpS);
+        texture.setWarpMode(WarpAxis.T, warpT);
+        texture.setLayout(layout);
+        texture.setCompression(compression);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = path.hashCode();
+        hash = 31 * hash + magFilter.ordinal();
+        hash = 31 * hash + minFilter.ordinal();
+        hash = 31 * hash + warpS.ordinal();
+        hash = 31 * hash + warpT.ordinal();
+        hash = 31 * hash + layout.ordinal();
+        hash = 31 * hash + compression.ordinal();
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TextureKey)) {
+            return false;
+        }
+        TextureKey other = (TextureKey) obj;
+        return path.equals(other.path)
+                && magFilter == other.magFilter
+                && minFilter == other.minFilter
+                && warpS == other.warpS
+                && warpT == other.warpT
+                && layout == other.layout
+                && compression == other.compression;
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + magFilter + ", " + minFilter + ", " + warpS + ", " + warpT + ", " + layout + ", " + compression + ")";
+    }
+
+    // getter/setters
+    public String getPath() {
+        return path;
+    }
+
+    public MagFilter getMagFilter() {
+        return magFilter;
+    }
+
+    public void setMagFilter(MagFilter magFilter) {
+        this.magFilter = magFilter;
+    }
+
+    public MinFilter getMinFilter() {
+        return minFilter;
+    }
+
+    public void setMinFilter(MinFilter minFilter) {
+        this.minFilter = minFilter;
+    }
+
+    public WarpMode getWarpS() {
+        return warpS;
+    }
+
+    public WarpMode getWarpT() {
+        return warpT;
+    }
+
+    public void setWarpMode(WarpMode mode) {
+        this.warpS = mode;
+        this.warpT = mode;
+    }
+
+    public void setWarpMode(WarpAxis axis, WarpMode mode) {
+        switch (axis) {
+        case S:
+            warpS = mode;
+            break;
+        case T:
+            warpT = mode;
+        }
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(Layout layout) {
+        this.layout = layout;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+}
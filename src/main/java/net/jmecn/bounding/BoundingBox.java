@@ -0,0 +1,218 @@
+package net.jmecn.bounding;
+
+import net.jmecn.math.Plane;
+import net.jmecn.math.Plane.Side;
+import net.jmecn.math.Quaternion;
+import net.jmecn.math.Transform;
+import net.jmecn.math.Vector3f;
+import net.jmecn.scene.Vertex;
+
+/**
+ * 轴对齐包围盒(AABB)
+ * 
+ * 由中心和三个方向上的半长表示。
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public class BoundingBox extends BoundingVolume {
+
+    // 三个方向上的半长
+    private float xExtent;
+    private float yExtent;
+    private float zExtent;
+    
+    public BoundingBox() {
+    }
+    
+    public BoundingBox(Vector3f center, float xExtent, float yExtent, float zExtent) {
+        this.center.set(center);
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.zExtent = zExtent;
+    }
+    
+    /**
+     * 使用最小点和最大点初始化包围盒
+     * @param min
+     * @param max
+     */
+    public BoundingBox(Vector3f min, Vector3f max) {
+        setMinMax(min, max);
+    }
+    
+    /**
+     * 使用最小点和最大点设置包围盒
+     * @param min
+     * @param max
+     */
+    public void setMinMax(Vector3f min, Vector3f max) {
+        center.set(max).addLocal(min).multLocal(0.5f);
+        xExtent = Math.abs(max.x - center.x);
+        yExtent = Math.abs(max.y - center.y);
+        zExtent = Math.abs(max.z - center.z);
+    }
+    
+    /**
+     * 复制另一个包围盒
+     * @param box
+     */
+    public void set(BoundingBox box) {
+        center.set(box.center);
+        xExtent = box.xExtent;
+        yExtent = box.yExtent;
+        zExtent = box.zExtent;
+    }
+    
+    /**
+     * 扩大包围盒，使它同时包住另一个包围盒。
+     * @param box
+     * @return
+     */
+    public BoundingBox mergeLocal(BoundingBox box) {
+        float minX = Math.min(center.x - xExtent, box.center.x - box.xExtent);
+        float minY = Math.min(center.y - yExtent, box.center.y - box.yExtent);
+        float minZ = Math.min(center.z - zExtent, box.center.z - box.zExtent);
+        float maxX = Math.max(center.x + xExtent, box.center.x + box.xExtent);
+        float maxY = Math.max(center.y + yExtent, box.center.y + box.yExtent);
+        float maxZ = Math.max(center.z + zExtent, box.center.z + box.zExtent);
+        
+        center.set((minX + maxX) * 0.5f, (minY + maxY) * 0.5f, (minZ + maxZ) * 0.5f);
+        xExtent = maxX - center.x;
+        yExtent = maxY - center.y;
+        zExtent = maxZ - center.z;
+        return this;
+    }
+    
+    @Override
+    public void computeFromPoints(Vertex[] vertexes) {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        
+        for (int i = 0; i < vertexes.length; i++) {
+            if (vertexes[i] == null) {
+                continue;
+            }
+            Vector3f p = vertexes[i].position;
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            minZ = Math.min(minZ, p.z);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+            maxZ = Math.max(maxZ, p.z);
+        }
+        
+        if (minX > maxX) {
+            // 没有顶点
+            center.set(0, 0, 0);
+            xExtent = yExtent = zExtent = 0;
+            return;
+        }
+        
+        center.set((minX + maxX) * 0.5f, (minY + maxY) * 0.5f, (minZ + maxZ) * 0.5f);
+        xExtent = maxX - center.x;
+        yExtent = maxY - center.y;
+        zExtent = maxZ - center.z;
+    }
+    
+    /**
+     * 变换后的包围盒仍然与坐标轴对齐，包住旋转后的原包围盒。
+     * 新的半长等于原包围盒的三条半轴经过缩放、旋转之后，在各个坐标轴上投影长度之和，
+     * 即旋转矩阵各元素的绝对值乘以缩放后的半长。旋转使用单位四元数。
+     */
+    @Override
+    public BoundingVolume transform(Transform trans, BoundingVolume store) {
+        BoundingBox box;
+        if (store instanceof BoundingBox) {
+            box = (BoundingBox) store;
+        } else {
+            box = new BoundingBox();
+        }
+        
+        // 缩放后的半长
+        Vector3f scale = trans.getScale();
+        float ex = xExtent * Math.abs(scale.x);
+        float ey = yExtent * Math.abs(scale.y);
+        float ez = zExtent * Math.abs(scale.z);
+        
+        // 旋转矩阵各元素的绝对值
+        Quaternion q = trans.getRotation();
+        float xx = q.x * q.x, yy = q.y * q.y, zz = q.z * q.z;
+        float xy = q.x * q.y, xz = q.x * q.z, yz = q.y * q.z;
+        float xw = q.x * q.w, yw = q.y * q.w, zw = q.z * q.w;
+        
+        float m00 = Math.abs(1 - 2 * (yy + zz)), m01 = Math.abs(2 * (xy - zw)), m02 = Math.abs(2 * (xz + yw));
+        float m10 = Math.abs(2 * (xy + zw)), m11 = Math.abs(1 - 2 * (xx + zz)), m12 = Math.abs(2 * (yz - xw));
+        float m20 = Math.abs(2 * (xz - yw)), m21 = Math.abs(2 * (yz + xw)), m22 = Math.abs(1 - 2 * (xx + yy));
+        
+        // 先变换中心，store与this相同时也不会影响半长的计算。
+        trans.transformVector(center, box.center);
+        box.xExtent = m00 * ex + m01 * ey + m02 * ez;
+        box.yExtent = m10 * ex + m11 * ey + m12 * ez;
+        box.zExtent = m20 * ex + m21 * ey + m22 * ez;
+        return box;
+    }
+    
+    @Override
+    public Side whichSide(Plane plane) {
+        Vector3f normal = plane.getNormal();
+        float radius = Math.abs(xExtent * normal.x) + Math.abs(yExtent * normal.y) + Math.abs(zExtent * normal.z);
+        
+        float distance = plane.determine(center);
+        if (distance < -radius) {
+            return Side.NEGATIVE;
+        } else if (distance > radius) {
+            return Side.POSITIVE;
+        }
+        return Side.NONE;
+    }
+    
+    @Override
+    public boolean contains(Vector3f point) {
+        return Math.abs(center.x - point.x) <= xExtent
+                && Math.abs(center.y - point.y) <= yExtent
+                && Math.abs(center.z - point.z) <= zExtent;
+    }
+    
+    /**
+     * 获得最小点
+     * @param store
+     * @return
+     */
+    public Vector3f getMin(Vector3f store) {
+        if (store == null) {
+            store = new Vector3f();
+        }
+        return store.set(center.x - xExtent, center.y - yExtent, center.z - zExtent);
+    }
+    
+    /**
+     * 获得最大点
+     * @param store
+     * @return
+     */
+    public Vector3f getMax(Vector3f store) {
+        if (store == null) {
+            store = new Vector3f();
+        }
+        return store.set(center.x + xExtent, center.y + yExtent, center.z + zExtent);
+    }
+    
+    public float getXExtent() {
+        return xExtent;
+    }
+    
+    public float getYExtent() {
+        return yExtent;
+    }
+    
+    public float getZExtent() {
+        return zExtent;
+    }
+    
+    @Override
+    public String toString() {
+        return "BoundingBox[center=(" + center.x + ", " + center.y + ", " + center.z
+                + "), extent=(" + xExtent + ", " + yExtent + ", " + zExtent + ")]";
+    }
+}
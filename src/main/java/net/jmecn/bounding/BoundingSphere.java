@@ -0,0 +1,95 @@
+package net.jmecn.bounding;
+
+import net.jmecn.math.Plane;
+import net.jmecn.math.Plane.Side;
+import net.jmecn.math.Transform;
+import net.jmecn.math.Vector3f;
+import net.jmecn.scene.Vertex;
+
+/**
+ * 包围球
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public class BoundingSphere extends BoundingVolume {
+
+    // 半径
+    private float radius;
+    
+    public BoundingSphere() {
+    }
+    
+    public BoundingSphere(Vector3f center, float radius) {
+        this.center.set(center);
+        this.radius = radius;
+    }
+    
+    /**
+     * 以所有顶点的包围盒中心为球心，到最远顶点的距离为半径。
+     */
+    @Override
+    public void computeFromPoints(Vertex[] vertexes) {
+        BoundingBox box = new BoundingBox();
+        box.computeFromPoints(vertexes);
+        center.set(box.getCenter());
+        
+        float max = 0;
+        for (int i = 0; i < vertexes.length; i++) {
+            if (vertexes[i] != null) {
+                max = Math.max(max, center.distanceSquared(vertexes[i].position));
+            }
+        }
+        radius = (float) Math.sqrt(max);
+    }
+    
+    /**
+     * 球心随物体变换，半径按三个方向中最大的缩放比例放大。
+     */
+    @Override
+    public BoundingVolume transform(Transform trans, BoundingVolume store) {
+        BoundingSphere sphere;
+        if (store instanceof BoundingSphere) {
+            sphere = (BoundingSphere) store;
+        } else {
+            sphere = new BoundingSphere();
+        }
+        
+        trans.transformVector(center, sphere.center);
+        
+        Vector3f scale = trans.getScale();
+        float maxScale = Math.max(Math.abs(scale.x), Math.max(Math.abs(scale.y), Math.abs(scale.z)));
+        sphere.radius = radius * maxScale;
+        return sphere;
+    }
+    
+    @Override
+    public Side whichSide(Plane plane) {
+        float distance = plane.determine(center);
+        if (distance < -radius) {
+            return Side.NEGATIVE;
+        } else if (distance > radius) {
+            return Side.POSITIVE;
+        }
+        return Side.NONE;
+    }
+    
+    @Override
+    public boolean contains(Vector3f point) {
+        return center.distanceSquared(point) <= radius * radius;
+    }
+    
+    public float getRadius() {
+        return radius;
+    }
+    
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
+    
+    @Override
+    public String toString() {
+        return "BoundingSphere[center=(" + center.x + ", " + center.y + ", " + center.z
+                + "), radius=" + radius + "]";
+    }
+}
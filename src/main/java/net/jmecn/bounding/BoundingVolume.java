@@ -0,0 +1,57 @@
+package net.jmecn.bounding;
+
+import net.jmecn.math.Plane;
+import net.jmecn.math.Transform;
+import net.jmecn.math.Vector3f;
+import net.jmecn.scene.Vertex;
+
+/**
+ * 包围体
+ * 
+ * 用简单的几何体包住物体，判断物体是否可见时只需要测试包围体，不必测试每个三角形。
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public abstract class BoundingVolume {
+
+    // 包围体的中心
+    protected Vector3f center = new Vector3f();
+    
+    public Vector3f getCenter() {
+        return center;
+    }
+    
+    public void setCenter(Vector3f center) {
+        this.center.set(center);
+    }
+    
+    /**
+     * 计算包住所有顶点的包围体。为null的顶点会被忽略。
+     * @param vertexes
+     */
+    public abstract void computeFromPoints(Vertex[] vertexes);
+    
+    /**
+     * 对包围体进行空间变换
+     * @param trans
+     * @param store 保存结果，为null时创建新的对象。
+     * @return
+     */
+    public abstract BoundingVolume transform(Transform trans, BoundingVolume store);
+    
+    /**
+     * 判断包围体位于平面的哪一侧
+     * @param plane
+     * @return 与平面相交时返回 Side.NONE
+     */
+    public abstract Plane.Side whichSide(Plane plane);
+    
+    /**
+     * 判断点是否在包围体内
+     * @param point
+     * @return
+     */
+    public abstract boolean contains(Vector3f point);
+    
+}
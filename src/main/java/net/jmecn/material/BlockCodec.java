@@ -0,0 +1,300 @@
+package net.jmecn.material;
+
+import net.jmecn.material.Texture.Compression;
+
+/**
+ * 纹理块压缩的编码和解码
+ *
+ * 图像被划分为4x4的图块，每个图块单独压缩。
+ * BC1：图块用一个long保存，低32位是两个RGB565格式的端点色，高32位是16个2位的索引。
+ * 两个端点色之间再插值出两个颜色，每个纹素从这4个颜色中选择一个。
+ * 如果第一个端点色不大于第二个，就只插值出一个颜色，第4个颜色表示完全透明。
+ * BC3：图块用两个long保存。第一个long保存透明度，低16位是两个8位的端点值，高48位是16个3位的索引；
+ * 第二个long与BC1相同，但总是使用4个颜色。
+ *
+ * @author yanmaoyuan
+ *
+ */
+class BlockCodec {
+
+    // 图块的尺寸
+    final static int BLOCK_SIZE = 4;
+    // 每个图块中的纹素数量
+    final static int BLOCK_TEXELS = BLOCK_SIZE * BLOCK_SIZE;
+
+    private BlockCodec() {
+    }
+
+    /**
+     * 每个图块占用的long数量
+     * @param compression
+     * @return
+     */
+    static int getBlockLength(Compression compression) {
+        return compression == Compression.BC3 ? 2 : 1;
+    }
+
+    /**
+     * 压缩图像
+     *
+     * @param pixels 逐行存储的0xAARRGGBB格式纹素
+     * @param width
+     * @param height
+     * @param compression
+     * @return 按行排列的图块
+     */
+    static long[] encode(int[] pixels, int width, int height, Compression compression) {
+        int blocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int blocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int length = getBlockLength(compression);
+        long[] blocks = new long[blocksX * blocksY * length];
+
+        int[] texels = new int[BLOCK_TEXELS];
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                // 取出图块中的纹素，超出图像的部分重复使用边缘的纹素。
+                for (int i = 0; i < BLOCK_TEXELS; i++) {
+                    int x = Math.min(bx * BLOCK_SIZE + (i & 3), width - 1);
+                    int y = Math.min(by * BLOCK_SIZE + (i >> 2), height - 1);
+                    texels[i] = pixels[x + y * width];
+                }
+
+                int index = (bx + by * blocksX) * length;
+                if (compression == Compression.BC3) {
+                    blocks[index] = encodeAlpha(texels);
+                    blocks[index + 1] = encodeColor(texels, false);
+                } else {
+                    blocks[index] = encodeColor(texels, true);
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * 解压一个图块
+     *
+     * @param blocks
+     * @param block 图块的序号
+     * @param compression
+     * @param store 保存16个0xAARRGGBB格式的纹素
+     */
+    static void decode(long[] blocks, int block, Compression compression, int[] store) {
+        if (compression == Compression.BC3) {
+            int index = block * 2;
+            decodeColor(blocks[index + 1], false, store);
+            decodeAlpha(blocks[index], store);
+        } else {
+            decodeColor(blocks[block], true, store);
+        }
+    }
+
+    /**
+     * 压缩颜色。使用所有纹素颜色的包围盒的两个角作为端点色。
+     *
+     * @param texels
+     * @param allowTransparent 是否允许使用透明色，BC1为true
+     * @return
+     */
+    private static long encodeColor(int[] texels, boolean allowTransparent) {
+        int minR = 255, minG = 255, minB = 255;
+        int maxR = 0, maxG = 0, maxB = 0;
+        boolean transparent = false;
+        for (int i = 0; i < BLOCK_TEXELS; i++) {
+            int c = texels[i];
+            if (allowTransparent && (c >>> 24) < 128) {
+                transparent = true;
+                continue;
+            }
+            int r = c >> 16 & 0xFF, g = c >> 8 & 0xFF, b = c & 0xFF;
+            minR = Math.min(minR, r); maxR = Math.max(maxR, r);
+            minG = Math.min(minG, g); maxG = Math.max(maxG, g);
+            minB = Math.min(minB, b); maxB = Math.max(maxB, b);
+        }
+
+        int max = toRGB565(maxR, maxG, maxB);
+        int min = toRGB565(minR, minG, minB);
+        if (minR > maxR) {
+            // 所有纹素都是透明的
+            max = min = 0;
+        }
+
+        int color0, color1;
+        if (transparent) {
+            // 三色模式：color0 <= color1
+            color0 = min;
+            color1 = max;
+        } else {
+            // 四色模式：color0 > color1，两个端点相同时所有索引都为0。
+            color0 = max;
+            color1 = min;
+        }
+
+        int[] palette = new int[4];
+        decodePalette(color0, color1, allowTransparent, palette);
+        int colors = color0 > color1 || !allowTransparent ? 4 : 3;
+
+        long indices = 0;
+        for (int i = 0; i < BLOCK_TEXELS; i++) {
+            int c = texels[i];
+            int best = 0;
+            if (transparent && (c >>> 24) < 128) {
+                best = 3;
+            } else {
+                int bestDistance = Integer.MAX_VALUE;
+                for (int j = 0; j < colors; j++) {
+                    int distance = distance(c, palette[j]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = j;
+                    }
+                }
+            }
+            indices |= (long) best << (i * 2);
+        }
+
+        return color0 | (long) color1 << 16 | indices << 32;
+    }
+
+    /**
+     * 解压颜色
+     * @param block
+     * @param allowTransparent
+     * @param store
+     */
+    private static void decodeColor(long block, boolean allowTransparent, int[] store) {
+        int color0 = (int) (block & 0xFFFF);
+        int color1 = (int) (block >>> 16 & 0xFFFF);
+
+        int[] palette = new int[4];
+        decodePalette(color0, color1, allowTransparent, palette);
+
+        for (int i = 0; i < BLOCK_TEXELS; i++) {
+            store[i] = palette[(int) (block >>> (32 + i * 2)) & 3];
+        }
+    }
+
+    /**
+     * 根据两个端点色计算调色板
+     * @param color0
+     * @param color1
+     * @param allowTransparent
+     * @param palette
+     */
+    private static void decodePalette(int color0, int color1, boolean allowTransparent, int[] palette) {
+        int c0 = fromRGB565(color0);
+        int c1 = fromRGB565(color1);
+        palette[0] = c0;
+        palette[1] = c1;
+        if (color0 > color1 || !allowTransparent) {
+            palette[2] = mix(c0, c1, 2, 1, 3);
+            palette[3] = mix(c0, c1, 1, 2, 3);
+        } else {
+            palette[2] = mix(c0, c1, 1, 1, 2);
+            palette[3] = 0;
+        }
+    }
+
+    /**
+     * 压缩透明度
+     * @param texels
+     * @return
+     */
+    private static long encodeAlpha(int[] texels) {
+        int min = 255, max = 0;
+        for (int i = 0; i < BLOCK_TEXELS; i++) {
+            int a = texels[i] >>> 24;
+            min = Math.min(min, a);
+            max = Math.max(max, a);
+        }
+
+        long indices = 0;
+        if (max > min) {
+            int[] palette = new int[8];
+            decodeAlphaPalette(max, min, palette);
+            for (int i = 0; i < BLOCK_TEXELS; i++) {
+                int a = texels[i] >>> 24;
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int j = 0; j < 8; j++) {
+                    int distance = Math.abs(a - palette[j]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = j;
+                    }
+                }
+                indices |= (long) best << (i * 3);
+            }
+        }
+
+        return max | min << 8 | indices << 16;
+    }
+
+    /**
+     * 解压透明度，替换store中纹素的透明度。
+     * @param block
+     * @param store
+     */
+    private static void decodeAlpha(long block, int[] store) {
+        int alpha0 = (int) (block & 0xFF);
+        int alpha1 = (int) (block >>> 8 & 0xFF);
+
+        int[] palette = new int[8];
+        decodeAlphaPalette(alpha0, alpha1, palette);
+
+        for (int i = 0; i < BLOCK_TEXELS; i++) {
+            int a = palette[(int) (block >>> (16 + i * 3)) & 7];
+            store[i] = (store[i] & 0xFFFFFF) | a << 24;
+        }
+    }
+
+    /**
+     * 根据两个端点值计算透明度的调色板
+     * @param alpha0
+     * @param alpha1
+     * @param palette
+     */
+    private static void decodeAlphaPalette(int alpha0, int alpha1, int[] palette) {
+        palette[0] = alpha0;
+        palette[1] = alpha1;
+        if (alpha0 > alpha1) {
+            for (int i = 1; i <= 6; i++) {
+                palette[i + 1] = ((7 - i) * alpha0 + i * alpha1) / 7;
+            }
+        } else {
+            for (int i = 1; i <= 4; i++) {
+                palette[i + 1] = ((5 - i) * alpha0 + i * alpha1) / 5;
+            }
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+    }
+
+    private static int toRGB565(int r, int g, int b) {
+        return (r * 31 + 127) / 255 << 11 | (g * 63 + 127) / 255 << 5 | (b * 31 + 127) / 255;
+    }
+
+    private static int fromRGB565(int color) {
+        int r = color >> 11 & 0x1F;
+        int g = color >> 5 & 0x3F;
+        int b = color & 0x1F;
+        return 0xFF000000 | (r << 3 | r >> 2) << 16 | (g << 2 | g >> 4) << 8 | (b << 3 | b >> 2);
+    }
+
+    /**
+     * 按权重混合两个不透明的颜色
+     */
+    private static int mix(int c0, int c1, int w0, int w1, int sum) {
+        int r = ((c0 >> 16 & 0xFF) * w0 + (c1 >> 16 & 0xFF) * w1) / sum;
+        int g = ((c0 >> 8 & 0xFF) * w0 + (c1 >> 8 & 0xFF) * w1) / sum;
+        int b = ((c0 & 0xFF) * w0 + (c1 & 0xFF) * w1) / sum;
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    private static int distance(int c0, int c1) {
+        int dr = (c0 >> 16 & 0xFF) - (c1 >> 16 & 0xFF);
+        int dg = (c0 >> 8 & 0xFF) - (c1 >> 8 & 0xFF);
+        int db = (c0 & 0xFF) - (c1 & 0xFF);
+        return dr * dr + dg * dg + db * db;
+    }
+}
@@ -1,5 +1,7 @@
 package net.jmecn.material;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.jmecn.math.Vector4f;
 import net.jmecn.shader.DefaultShader;
 import net.jmecn.shader.Shader;
@@ -12,6 +14,12 @@ import net.jmecn.shader.Shader;
  */
 public class Material {
 
+    // 下一个材质的编号
+    private final static AtomicInteger NEXT_ID = new AtomicInteger();
+    
+    // 材质的编号，按创建的顺序分配，渲染队列用它把相同材质的物体排在一起。
+    private final int id = NEXT_ID.getAndIncrement();
+
     // 渲染状态
     private RenderState renderState;
     
@@ -54,6 +62,10 @@ public class Material {
         shader.setMaterial(this);
     }
 
+    public int getId() {
+        return id;
+    }
+
     public RenderState getRenderState() {
         return renderState;
     }
@@ -27,6 +27,14 @@ public class RenderState {
         FACE,   // 面模式，对每个面进行填充
     }
 
+    /**
+     * 光栅化模式，仅对FillMode.FACE有效。
+     */
+    public enum RasterMode {
+        SCANLINE,   // 扫描线算法，顶点按Y排序后逐行求出扫描线与左右两边的交点，属性使用平面梯度插值
+        HALF_SPACE  // 半空间算法，顶点对齐到子像素网格，在包围盒内使用定点数边函数按块测试像素
+    }
+
     /**
      * 深度测试模式
      */
@@ -47,25 +55,33 @@ public class RenderState {
     public enum BlendMode {
         OFF,        // 实心
         ADD,        // 叠加
-        ALPHA_BLEND // ALPHA混合
+        ALPHA_BLEND,// ALPHA混合
+        PREMULTIPLIED_ALPHA // 预乘ALPHA混合，源颜色已经乘过ALPHA，参考 Image.premultiplyAlpha()
     }
     
     private CullMode cullMode;
     
     private FillMode fillMode;
     
+    private RasterMode rasterMode;
+    
     private boolean isAlphaTest;
     private float alphaFalloff;
     
     private DepthFunc depthFunc;
     private boolean isDepthTest;
     private boolean isDepthWrite;
+    private boolean isEarlyDepthTest;
     
     private BlendMode blendMode;
+    
+    // 每次修改都会增加，光栅器据此判断是否需要重新选择片段输出流程。
+    private int version;
 
     public RenderState() {
         fillMode = FillMode.FACE;
         cullMode = CullMode.BACK;
+        rasterMode = RasterMode.SCANLINE;
         
         isAlphaTest = false;
         alphaFalloff = 0f;
@@ -73,10 +89,19 @@ public class RenderState {
         depthFunc = DepthFunc.LESS;
         isDepthTest = true;
         isDepthWrite = true;
+        isEarlyDepthTest = true;
         
         blendMode = BlendMode.OFF;
     }
 
+    /**
+     * 获得版本号，任何一项状态被修改后都会改变。
+     * @return
+     */
+    public int getVersion() {
+        return version;
+    }
+
     public FillMode getFillMode() {
         return fillMode;
     }
@@ -84,6 +109,16 @@ public class RenderState {
 
     public void setFillMode(FillMode fillMode) {
         this.fillMode = fillMode;
+        version++;
+    }
+
+    public RasterMode getRasterMode() {
+        return rasterMode;
+    }
+
+    public void setRasterMode(RasterMode rasterMode) {
+        this.rasterMode = rasterMode;
+        version++;
     }
 
     public CullMode getCullMode() {
@@ -92,6 +127,7 @@ public class RenderState {
 
     public void setCullMode(CullMode faceCullMode) {
         this.cullMode = faceCullMode;
+        version++;
     }
 
     public boolean isAlphaTest() {
@@ -100,6 +136,7 @@ public class RenderState {
 
     public void setAlphaTest(boolean isAlphaTest) {
         this.isAlphaTest = isAlphaTest;
+        version++;
     }
 
     public float getAlphaFalloff() {
@@ -108,6 +145,7 @@ public class RenderState {
 
     public void setAlphaFalloff(float alphaFalloff) {
         this.alphaFalloff = alphaFalloff;
+        version++;
     }
 
     public DepthFunc getDepthFunc() {
@@ -116,6 +154,7 @@ public class RenderState {
 
     public void setDepthFunc(DepthFunc depthFunc) {
         this.depthFunc = depthFunc;
+        version++;
     }
 
     public boolean isDepthTest() {
@@ -124,6 +163,7 @@ public class RenderState {
 
     public void setDepthTest(boolean isDepthTest) {
         this.isDepthTest = isDepthTest;
+        version++;
     }
 
     public boolean isDepthWrite() {
@@ -132,6 +172,21 @@ public class RenderState {
 
     public void setDepthWrite(boolean isDepthWrite) {
         this.isDepthWrite = isDepthWrite;
+        version++;
+    }
+
+    public boolean isEarlyDepthTest() {
+        return isEarlyDepthTest;
+    }
+
+    /**
+     * 设置是否允许在片段着色器之前进行深度测试。
+     * 只有着色器不修改片段深度时才会生效。
+     * @param isEarlyDepthTest
+     */
+    public void setEarlyDepthTest(boolean isEarlyDepthTest) {
+        this.isEarlyDepthTest = isEarlyDepthTest;
+        version++;
     }
 
     public BlendMode getBlendMode() {
@@ -140,6 +195,7 @@ public class RenderState {
 
     public void setBlendMode(BlendMode blendMode) {
         this.blendMode = blendMode;
+        version++;
     }
 
 }
@@ -1,9 +1,13 @@
 package net.jmecn.material;
 
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
 import net.jmecn.math.ColorRGBA;
 import net.jmecn.math.Vector2f;
 import net.jmecn.math.Vector4f;
 import net.jmecn.renderer.Image;
+import net.jmecn.renderer.Image.Format;
 import net.jmecn.renderer.ImageRaster;
 
 /**
@@ -16,7 +20,74 @@ public class Texture {
 
     private int width;
     private int height;
-    private byte[] components;
+    
+    // Mipmap，第0层就是原始图像，之后每一层的宽高都是上一层的一半。
+    // 每个纹素按0xAARRGGBB的格式保存在一个int中，采样时只需读取一次内存。
+    private int mipLevels;
+    private int[] mipWidth;
+    private int[] mipHeight;
+    private int[][] mipPixels;
+    // 直接使用外部数据（例如映射到内存的纹理文件）的Mipmap，不为null时代替mipPixels。
+    private IntBuffer[] mipBuffers;
+    
+    // 纹素在数组中的下标等于 offsetX[x] + offsetY[y]，不同的内存布局只是这两张表不同。
+    private int[][] mipOffsetX;
+    private int[][] mipOffsetY;
+    
+    /**
+     * 纹素在内存中的布局
+     */
+    public enum Layout {
+        LINEAR,     // 逐行存储
+        TILED       // 按4x4的图块存储，一个图块正好占用64字节，即一条缓存行。
+    }
+    
+    private Layout layout = Layout.LINEAR;
+    
+    /**
+     * 纹理压缩格式
+     */
+    public enum Compression {
+        NONE,   // 不压缩，每个纹素占用4字节。
+        BC1,    // 每4x4个纹素占用8字节，只有完全透明和不透明两种透明度。
+        BC3     // 每4x4个纹素占用16字节，透明度单独压缩。
+    }
+    
+    private Compression compression = Compression.NONE;
+    
+    // 压缩的Mipmap，不为null时代替mipPixels。图块按TILED布局的顺序排列。
+    private long[][] mipBlocks;
+    
+    /**
+     * 解压后的图块
+     */
+    private static class DecodedBlock {
+        final int level;
+        final int block;
+        final int[] texels;
+        
+        DecodedBlock(int level, int block, int[] texels) {
+            this.level = level;
+            this.block = block;
+            this.texels = texels;
+        }
+    }
+    
+    // 面积累加表，第一次使用SUMMED_AREA过滤时才创建。
+    private volatile int[] summedArea;
+    // 超过这个纹素数量时，累加值可能溢出，不使用面积累加表。
+    private final static int SUMMED_AREA_MAX_TEXELS = 1 << 24;
+    
+    // 最近解压的图块。缓存项创建后不再修改，多个线程同时采样时也不需要加锁。
+    private final static int BLOCK_CACHE_BITS = 8;
+    private final static int BLOCK_CACHE_SIZE = 1 << BLOCK_CACHE_BITS;
+    private final static int BLOCK_CACHE_HASH_SHIFT = 32 - BLOCK_CACHE_BITS;
+    private final DecodedBlock[] blockCache = new DecodedBlock[BLOCK_CACHE_SIZE];
+    
+    // 图块的尺寸
+    private final static int TILE_SHIFT = 2;
+    private final static int TILE_SIZE = 1 << TILE_SHIFT;
+    private final static int TILE_MASK = TILE_SIZE - 1;
 
     /**
      * 纹理放大时，如何滤波
@@ -28,6 +99,21 @@ public class Texture {
     
     private MagFilter magFilter = MagFilter.BILINEAR;
     
+    /**
+     * 纹理缩小时，如何滤波
+     */
+    public enum MinFilter {
+        NEAREST,                    // 最邻近，不使用Mipmap
+        BILINEAR,                   // 二次线性滤波，不使用Mipmap
+        NEAREST_MIPMAP_NEAREST,     // 选择最接近的一层Mipmap，最邻近采样
+        BILINEAR_MIPMAP_NEAREST,    // 选择最接近的一层Mipmap，二次线性滤波
+        NEAREST_MIPMAP_LINEAR,      // 在相邻两层Mipmap上最邻近采样，再线性插值
+        TRILINEAR,                  // 在相邻两层Mipmap上二次线性滤波，再线性插值（三线性滤波）
+        SUMMED_AREA                 // 使用面积累加表，求出像素在纹理上覆盖的矩形区域的平均值
+    }
+    
+    private MinFilter minFilter = MinFilter.TRILINEAR;
+    
     /**
      * 纹理包围模式
      */
@@ -48,6 +134,15 @@ public class Texture {
     private WarpMode warpS = WarpMode.REPEAT;
     private WarpMode warpT = WarpMode.REPEAT;
     private Vector4f borderColor = new Vector4f(0);
+    private int borderARGB = 0;
+    
+    // 宽高都是2的幂、两个方向都是REPEAT时，采样使用定点坐标和位掩码包裹，不再调用warp。
+    // 在修改图像、包裹模式时重新选择。
+    private boolean isPowerOfTwoRepeat;
+    // 是否允许使用2的幂纹理的快速采样，测试时关闭它来和通用的采样方式比较。
+    private boolean isFastRepeat = true;
+    // 放大滤波是否为BILINEAR，避免每次采样都判断MagFilter。
+    private boolean isMagBilinear = true;
     
     /**
      * 默认纹理，生成一个网格黑白相间的网格。
@@ -79,6 +174,17 @@ public class Texture {
     public Texture(Image image) {
         setImage(image);
     }
+    
+    /**
+     * 使用已经生成好的Mipmap数据创建纹理，参数与 setMipmaps 相同。
+     * @param layout
+     * @param widths
+     * @param heights
+     * @param data
+     */
+    public Texture(Layout layout, int[] widths, int[] heights, IntBuffer[] data) {
+        setMipmaps(layout, widths, heights, data);
+    }
 
     /**
      * 设置图像
@@ -87,7 +193,432 @@ public class Texture {
     public void setImage(Image image) {
         this.width = image.getWidth();
         this.height = image.getHeight();
-        this.components = image.getComponents();
+        
+        int[] pixels;
+        if (image.getFormat() == Format.INT_ARGB) {
+            // 与图像分开保存，修改图像不影响纹理。
+            pixels = image.getPixels().clone();
+        } else {
+            // 把RGBA转换为ARGB
+            byte[] components = image.getComponents();
+            int length = width * height;
+            pixels = new int[length];
+            for (int i = 0; i < length; i++) {
+                int index = i * 4;
+                pixels[i] = (components[index + 3] & 0xFF) << 24
+                        | (components[index] & 0xFF) << 16
+                        | (components[index + 1] & 0xFF) << 8
+                        | (components[index + 2] & 0xFF);
+            }
+        }
+        
+        generateMipmaps(pixels);
+        updateSampler();
+    }
+    
+    /**
+     * 生成Mipmap
+     * 
+     * 每一层的纹素都是上一层中对应的2x2个纹素的平均值，直到宽高都为1。
+     * 宽或高为奇数时，最后一行(列)的纹素重复使用。
+     * 
+     * @param pixels 0xAARRGGBB格式的原始图像，作为第0层。
+     */
+    private void generateMipmaps(int[] pixels) {
+        int levels = 1;
+        for (int w = width, h = height; w > 1 || h > 1; w = Math.max(1, w >> 1), h = Math.max(1, h >> 1)) {
+            levels++;
+        }
+        
+        mipLevels = levels;
+        mipWidth = new int[levels];
+        mipHeight = new int[levels];
+        mipPixels = new int[levels][];
+        mipBuffers = null;
+        mipBlocks = compression != Compression.NONE ? new long[levels][] : null;
+        Arrays.fill(blockCache, null);
+        summedArea = null;
+        mipOffsetX = new int[levels][];
+        mipOffsetY = new int[levels][];
+        
+        setLevel(0, width, height, pixels);
+        
+        for (int level = 1; level < levels; level++) {
+            int srcWidth = mipWidth[level - 1];
+            int srcHeight = mipHeight[level - 1];
+            int[] src = pixels;
+            
+            int dstWidth = Math.max(1, srcWidth >> 1);
+            int dstHeight = Math.max(1, srcHeight >> 1);
+            int[] dst = new int[dstWidth * dstHeight];
+            
+            for (int y = 0; y < dstHeight; y++) {
+                int y0 = y * 2;
+                int y1 = Math.min(y0 + 1, srcHeight - 1);
+                for (int x = 0; x < dstWidth; x++) {
+                    int x0 = x * 2;
+                    int x1 = Math.min(x0 + 1, srcWidth - 1);
+                    
+                    int p00 = src[x0 + y0 * srcWidth];
+                    int p10 = src[x1 + y0 * srcWidth];
+                    int p01 = src[x0 + y1 * srcWidth];
+                    int p11 = src[x1 + y1 * srcWidth];
+                    
+                    int color = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int sum = (p00 >>> shift & 0xFF) + (p10 >>> shift & 0xFF)
+                                + (p01 >>> shift & 0xFF) + (p11 >>> shift & 0xFF);
+                        color |= ((sum + 2) >> 2) << shift;
+                    }
+                    dst[x + y * dstWidth] = color;
+                }
+            }
+            
+            setLevel(level, dstWidth, dstHeight, dst);
+            pixels = dst;
+        }
+    }
+    
+    /**
+     * 按当前的内存布局保存一层Mipmap
+     * 
+     * @param level
+     * @param width
+     * @param height
+     * @param pixels 逐行存储的纹素
+     */
+    private void setLevel(int level, int width, int height, int[] pixels) {
+        int length = setOffsets(level, width, height);
+        
+        if (compression != Compression.NONE) {
+            mipBlocks[level] = BlockCodec.encode(pixels, width, height, compression);
+            mipPixels[level] = null;
+            if (mipBuffers != null) {
+                mipBuffers[level] = null;
+            }
+            return;
+        }
+        
+        if (layout != Layout.LINEAR) {
+            int[] offsetX = mipOffsetX[level];
+            int[] offsetY = mipOffsetY[level];
+            int[] data = new int[length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    data[offsetX[x] + offsetY[y]] = pixels[x + y * width];
+                }
+            }
+            pixels = data;
+        }
+        
+        mipPixels[level] = pixels;
+        if (mipBuffers != null) {
+            mipBuffers[level] = null;
+        }
+    }
+    
+    /**
+     * 按当前的内存布局，计算一层Mipmap的纹素下标表。
+     * 
+     * @param level
+     * @param width
+     * @param height
+     * @return 这一层需要保存的纹素数量
+     */
+    private int setOffsets(int level, int width, int height) {
+        int[] offsetX = new int[width];
+        int[] offsetY = new int[height];
+        int length = 0;
+        
+        switch (layout) {
+        case LINEAR:
+            for (int x = 0; x < width; x++) {
+                offsetX[x] = x;
+            }
+            for (int y = 0; y < height; y++) {
+                offsetY[y] = y * width;
+            }
+            length = width * height;
+            break;
+        case TILED:
+            // 宽高补齐到图块尺寸的整数倍
+            int tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+            int tilesY = (height + TILE_MASK) >> TILE_SHIFT;
+            int tileLength = TILE_SIZE * TILE_SIZE;
+            for (int x = 0; x < width; x++) {
+                offsetX[x] = (x >> TILE_SHIFT) * tileLength + (x & TILE_MASK);
+            }
+            for (int y = 0; y < height; y++) {
+                offsetY[y] = (y >> TILE_SHIFT) * tilesX * tileLength + (y & TILE_MASK) * TILE_SIZE;
+            }
+            length = tilesX * tilesY * tileLength;
+            break;
+        }
+        
+        mipWidth[level] = width;
+        mipHeight[level] = height;
+        mipOffsetX[level] = offsetX;
+        mipOffsetY[level] = offsetY;
+        return length;
+    }
+    
+    /**
+     * 读取纹素
+     * @param level
+     * @param offset 纹素在这一层数据中的下标
+     * @return 0xAARRGGBB格式的颜色
+     */
+    private int texel(int level, int offset) {
+        int[] pixels = mipPixels[level];
+        if (pixels != null) {
+            return pixels[offset];
+        }
+        if (compression != Compression.NONE) {
+            return decodeBlock(level, offset >> 4)[offset & 15];
+        }
+        return mipBuffers[level].get(offset);
+    }
+    
+    /**
+     * 获得解压后的图块，先在缓存中查找。
+     * 
+     * 压缩的纹理使用TILED布局，纹素下标的高位就是图块的序号，低4位是纹素在图块中的位置。
+     * 
+     * @param level
+     * @param block 图块的序号
+     * @return 图块中的16个纹素
+     */
+    private int[] decodeBlock(int level, int block) {
+        // 乘法散列，避免上下相邻的图块（序号相差一行图块的数量）落在同一个位置。
+        int slot = ((block + level) * 0x9E3779B1) >>> BLOCK_CACHE_HASH_SHIFT;
+        DecodedBlock entry = blockCache[slot];
+        if (entry == null || entry.block != block || entry.level != level) {
+            int[] texels = new int[BlockCodec.BLOCK_TEXELS];
+            BlockCodec.decode(mipBlocks[level], block, compression, texels);
+            entry = new DecodedBlock(level, block, texels);
+            blockCache[slot] = entry;
+        }
+        return entry.texels;
+    }
+    
+    /**
+     * 把一层Mipmap的纹素按行取出
+     * @param level
+     * @return
+     */
+    private int[] getLinearTexels(int level) {
+        int width = mipWidth[level];
+        int height = mipHeight[level];
+        int[] offsetX = mipOffsetX[level];
+        int[] offsetY = mipOffsetY[level];
+        
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[x + y * width] = texel(level, offsetX[x] + offsetY[y]);
+            }
+        }
+        return pixels;
+    }
+    
+    /**
+     * 设置纹理压缩格式
+     * 
+     * 压缩的纹理总是使用TILED布局，每个4x4的图块单独压缩，采样时再解压。
+     * 最近使用的图块保存在一个小缓存中，双线性过滤的相邻纹素通常位于同一个图块。
+     * 已经设置了图像时，会立即压缩（或解压）所有Mipmap。压缩是有损的，解压后不能恢复原始图像。
+     * 
+     * @param compression
+     */
+    public void setCompression(Compression compression) {
+        if (this.compression == compression) {
+            return;
+        }
+        
+        int[][] levels = null;
+        if (mipPixels != null) {
+            levels = new int[mipLevels][];
+            for (int level = 0; level < mipLevels; level++) {
+                levels[level] = getLinearTexels(level);
+            }
+        }
+        
+        this.compression = compression;
+        if (compression != Compression.NONE) {
+            layout = Layout.TILED;
+        }
+        
+        if (levels != null) {
+            mipBuffers = null;
+            mipBlocks = compression != Compression.NONE ? new long[mipLevels][] : null;
+            Arrays.fill(blockCache, null);
+            summedArea = null;
+            for (int level = 0; level < mipLevels; level++) {
+                setLevel(level, mipWidth[level], mipHeight[level], levels[level]);
+            }
+        }
+    }
+    
+    /**
+     * 获得纹理压缩格式
+     * @return
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+    
+    /**
+     * 直接使用已经生成好的Mipmap数据
+     * 
+     * 数据按0xAARRGGBB格式保存，已经按指定的布局排列。纹理不会复制这些数据：
+     * 如果IntBuffer是基于数组的，就直接使用这个数组；否则（例如映射到内存的文件）采样时从IntBuffer中读取。
+     * 
+     * @param layout 数据的内存布局
+     * @param widths 每一层的宽度
+     * @param heights 每一层的高度
+     * @param data 每一层的数据，从position开始
+     */
+    public void setMipmaps(Layout layout, int[] widths, int[] heights, IntBuffer[] data) {
+        int levels = data.length;
+        
+        this.layout = layout;
+        this.width = widths[0];
+        this.height = heights[0];
+        
+        mipLevels = levels;
+        mipWidth = new int[levels];
+        mipHeight = new int[levels];
+        mipPixels = new int[levels][];
+        mipBuffers = new IntBuffer[levels];
+        mipBlocks = null;
+        compression = Compression.NONE;
+        Arrays.fill(blockCache, null);
+        summedArea = null;
+        mipOffsetX = new int[levels][];
+        mipOffsetY = new int[levels][];
+        
+        for (int level = 0; level < levels; level++) {
+            int length = setOffsets(level, widths[level], heights[level]);
+            IntBuffer buffer = data[level];
+            if (buffer.remaining() < length) {
+                throw new IllegalArgumentException("Mipmap level " + level + " requires " + length
+                        + " texels, but only " + buffer.remaining() + " remain.");
+            }
+            
+            if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0
+                    && buffer.array().length == length) {
+                mipPixels[level] = buffer.array();
+            } else {
+                mipBuffers[level] = buffer.slice();
+            }
+        }
+        
+        updateSampler();
+    }
+    
+    /**
+     * 获得一层Mipmap的数据，按当前的内存布局排列，只读。压缩的纹理返回解压后的数据。
+     * @param level
+     * @return
+     */
+    public IntBuffer getMipData(int level) {
+        int[] pixels = mipPixels[level];
+        if (pixels == null && compression != Compression.NONE) {
+            // 解压所有图块
+            long[] blocks = mipBlocks[level];
+            int count = blocks.length / BlockCodec.getBlockLength(compression);
+            pixels = new int[count * BlockCodec.BLOCK_TEXELS];
+            int[] texels = new int[BlockCodec.BLOCK_TEXELS];
+            for (int block = 0; block < count; block++) {
+                BlockCodec.decode(blocks, block, compression, texels);
+                System.arraycopy(texels, 0, pixels, block * BlockCodec.BLOCK_TEXELS, BlockCodec.BLOCK_TEXELS);
+            }
+        }
+        IntBuffer buffer = pixels != null ? IntBuffer.wrap(pixels) : mipBuffers[level].duplicate();
+        return buffer.asReadOnlyBuffer();
+    }
+    
+    /**
+     * 获得一层Mipmap的宽度
+     * @param level
+     * @return
+     */
+    public int getMipWidth(int level) {
+        return mipWidth[level];
+    }
+    
+    /**
+     * 获得一层Mipmap的高度
+     * @param level
+     * @return
+     */
+    public int getMipHeight(int level) {
+        return mipHeight[level];
+    }
+    
+    /**
+     * 设置纹素的内存布局
+     * 
+     * 使用TILED布局时，相邻两行的纹素也在同一条缓存行中，双线性过滤的2x2纹素、
+     * 以及倾斜的表面在纹理上沿任意方向的移动，都更少发生缓存未命中。
+     * 但是实际的收益并不稳定：渲染倾斜的大纹理地面时，只有不使用Mipmap的缩小滤波才可能更快，
+     * 使用三线性过滤时与LINEAR相差无几，有时还会更慢。因此默认使用LINEAR，需要时再测量后选择。
+     * 已经设置了图像时，会按新的布局重新排列纹素，排列后的纹素总是保存在数组中。
+     * 压缩的纹理只能使用TILED布局，改为其他布局时会先解压。
+     * 
+     * @param layout
+     */
+    public void setLayout(Layout layout) {
+        if (this.layout == layout) {
+            return;
+        }
+        if (compression != Compression.NONE) {
+            setCompression(Compression.NONE);
+        }
+        this.layout = layout;
+        
+        if (mipPixels == null) {
+            return;
+        }
+        
+        for (int level = 0; level < mipLevels; level++) {
+            setLevel(level, mipWidth[level], mipHeight[level], getLinearTexels(level));
+        }
+    }
+    
+    /**
+     * 获得纹素的内存布局
+     * @return
+     */
+    public Layout getLayout() {
+        return layout;
+    }
+    
+    /**
+     * 获得所有Mipmap占用的字节数
+     * @return
+     */
+    public long getSize() {
+        long size = 0;
+        for (int level = 0; level < mipLevels; level++) {
+            int[] pixels = mipPixels[level];
+            if (pixels != null) {
+                size += (long) pixels.length * 4;
+            } else if (compression != Compression.NONE) {
+                size += (long) mipBlocks[level].length * 8;
+            } else {
+                size += (long) mipBuffers[level].capacity() * 4;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * 获得Mipmap的层数
+     * @return
+     */
+    public int getMipLevels() {
+        return mipLevels;
     }
 
     /**
@@ -96,6 +627,15 @@ public class Texture {
      */
     public void setMagFilter(MagFilter magFilter) {
         this.magFilter = magFilter;
+        this.isMagBilinear = magFilter == MagFilter.BILINEAR;
+    }
+    
+    /**
+     * 设置缩小滤波方式
+     * @param minFilter
+     */
+    public void setMinFilter(MinFilter minFilter) {
+        this.minFilter = minFilter;
     }
 
     /**
@@ -105,6 +645,7 @@ public class Texture {
     public void setWarpMode(WarpMode mode) {
         warpS = mode;
         warpT = mode;
+        updateSampler();
     }
     
     /**
@@ -120,35 +661,355 @@ public class Texture {
         case T:
             warpT = mode;
         }
+        updateSampler();
+    }
+    
+    /**
+     * 根据纹理尺寸和包裹模式选择采样方式
+     */
+    private void updateSampler() {
+        boolean powerOfTwo = mipLevels > 0;
+        for (int level = 0; level < mipLevels; level++) {
+            if (!isPowerOfTwo(mipWidth[level]) || !isPowerOfTwo(mipHeight[level])) {
+                powerOfTwo = false;
+                break;
+            }
+        }
+        isPowerOfTwoRepeat = isFastRepeat && powerOfTwo && warpS == WarpMode.REPEAT && warpT == WarpMode.REPEAT;
+    }
+    
+    /**
+     * 设置是否允许使用2的幂纹理的快速采样。两种方式的采样结果相同。
+     * @param isFastRepeat
+     */
+    void setFastRepeat(boolean isFastRepeat) {
+        this.isFastRepeat = isFastRepeat;
+        updateSampler();
+    }
+    
+    private static boolean isPowerOfTwo(int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+    
+    /**
+     * 是否使用2的幂纹理的快速采样
+     * @return
+     */
+    public boolean isPowerOfTwoRepeat() {
+        return isPowerOfTwoRepeat;
     }
     
     /**
      * 根据UV进行采样
      * 
      * @param uv
-     * @return
+     * @return 新的Vector4f对象
      */
     public Vector4f sample2d(Vector2f uv) {
-        float s = uv.x;
-        float t = uv.y;
+        return sample2d(uv, 0f, new Vector4f());
+    }
+    
+    /**
+     * 根据UV进行采样
+     * 
+     * @param uv
+     * @param store 用于保存结果
+     * @return store
+     */
+    public Vector4f sample2d(Vector2f uv, Vector4f store) {
+        return sample2d(uv, 0f, store);
+    }
+    
+    /**
+     * 根据UV及其在屏幕空间的导数进行采样，导数决定了使用哪一层Mipmap。
+     * 
+     * @param uv
+     * @param dsdx s对屏幕x坐标的导数
+     * @param dtdx t对屏幕x坐标的导数
+     * @param dsdy s对屏幕y坐标的导数
+     * @param dtdy t对屏幕y坐标的导数
+     * @param store 用于保存结果
+     * @return store
+     */
+    public Vector4f sample2d(Vector2f uv, float dsdx, float dtdx, float dsdy, float dtdy, Vector4f store) {
+        if (minFilter == MinFilter.SUMMED_AREA) {
+            // 像素覆盖区域在纹理上的轴对齐包围盒，以纹素为单位。
+            float du = Math.max(Math.abs(dsdx), Math.abs(dsdy)) * width;
+            float dv = Math.max(Math.abs(dtdx), Math.abs(dtdy)) * height;
+            return toVector4f(sampleBox(uv.x, uv.y, du, dv), store);
+        }
+        return sample2d(uv, getLod(dsdx, dtdx, dsdy, dtdy), store);
+    }
+    
+    /**
+     * 根据UV在指定的细节层次上采样
+     * 
+     * @param uv
+     * @param lod 细节层次，小于等于0时使用放大滤波，否则使用缩小滤波。
+     * @param store 用于保存结果
+     * @return store
+     */
+    public Vector4f sample2d(Vector2f uv, float lod, Vector4f store) {
+        return toVector4f(sample2d(uv.x, uv.y, lod), store);
+    }
+    
+    /**
+     * 把0xAARRGGBB格式的颜色转换为Vector4f
+     * @param argb
+     * @param store
+     * @return store
+     */
+    private static Vector4f toVector4f(int argb, Vector4f store) {
+        store.set((argb >> 16 & 0xFF) * INV_SCALE,
+                (argb >> 8 & 0xFF) * INV_SCALE,
+                (argb & 0xFF) * INV_SCALE,
+                (argb >>> 24) * INV_SCALE);
+        return store;
+    }
+    
+    /**
+     * 计算Mipmap的细节层次(LOD)
+     * 
+     * 屏幕上相邻像素在纹理上的跨度越大，说明纹理被缩小得越厉害。
+     * LOD等于跨度(以纹素为单位)的对数，0表示纹理没有被缩小。
+     * 
+     * @param dsdx
+     * @param dtdx
+     * @param dsdy
+     * @param dtdy
+     * @return
+     */
+    public float getLod(float dsdx, float dtdx, float dsdy, float dtdy) {
+        float dudx = dsdx * width, dvdx = dtdx * height;
+        float dudy = dsdy * width, dvdy = dtdy * height;
+        
+        float lengthX = dudx * dudx + dvdx * dvdx;
+        float lengthY = dudy * dudy + dvdy * dvdy;
+        float rho = Math.max(lengthX, lengthY);
+        
+        // log2(sqrt(rho)) = 0.5 * log2(rho)
+        return (float) (0.5 * Math.log(rho) * INV_LN2);
+    }
+    
+    private final static double INV_LN2 = 1.0 / Math.log(2.0);
+    
+    /**
+     * 在指定的细节层次上采样
+     * 
+     * @param s
+     * @param t
+     * @param lod 细节层次，小于等于0时使用放大滤波，否则使用缩小滤波。
+     * @return 0xAARRGGBB格式的颜色
+     */
+    public int sample2d(float s, float t, float lod) {
+        if (isPowerOfTwoRepeat) {
+            // 纹理放大，坐标在采样时包裹。
+            if (!(lod > 0)) {
+                return isMagBilinear ? bilinearRepeat(0, s, t) : nearestRepeat(0, s, t);
+            }
+        } else {
+            if (s < 0 || s > 1 || t < 0 || t > 1) {
+                if (warpS == WarpMode.CLAMP_TO_BORDER || warpT == WarpMode.CLAMP_TO_BORDER) {
+                    return borderARGB;
+                }
+                
+                // 每个方向单独包裹，[0, 1]范围内的坐标保持不变。
+                if (s < 0 || s > 1) {
+                    s = warp(s, warpS);
+                }
+                if (t < 0 || t > 1) {
+                    t = warp(t, warpT);
+                }
+            }
+            
+            // 纹理放大
+            if (!(lod > 0)) {
+                return isMagBilinear ? bilinear(0, s, t) : nearest(0, s, t);
+            }
+        }
+        
+        // 纹理缩小
+        int maxLevel = mipLevels - 1;
+        switch (minFilter) {
+        case NEAREST:
+            return nearest(0, s, t);
+        case BILINEAR:
+            return bilinear(0, s, t);
+        case NEAREST_MIPMAP_NEAREST:
+            return nearest(Math.min(Math.round(lod), maxLevel), s, t);
+        case BILINEAR_MIPMAP_NEAREST:
+            return bilinear(Math.min(Math.round(lod), maxLevel), s, t);
+        case NEAREST_MIPMAP_LINEAR:
+            return mipmapLinear(s, t, lod, false);
+        case TRILINEAR:
+            return mipmapLinear(s, t, lod, true);
+        case SUMMED_AREA: {
+            // 面积累加表不会重复纹理，2的幂纹理的坐标也需要先包裹。
+            if (isPowerOfTwoRepeat) {
+                s = fract(s);
+                t = fract(t);
+            }
+            // 只知道细节层次时，认为覆盖区域是正方形。
+            float size = (float) Math.pow(2, lod);
+            return summedArea(s, t, size, size);
+        }
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * 在相邻两层Mipmap上采样，再线性插值。
+     * @param s
+     * @param t
+     * @param lod
+     * @param isBilinear 每一层使用二次线性过滤还是最邻近采样
+     * @return
+     */
+    private int mipmapLinear(float s, float t, float lod, boolean isBilinear) {
+        int maxLevel = mipLevels - 1;
+        int level = (int) lod;
+        if (level >= maxLevel) {
+            return isBilinear ? bilinear(maxLevel, s, t) : nearest(maxLevel, s, t);
+        }
+        
+        int c0 = isBilinear ? bilinear(level, s, t) : nearest(level, s, t);
+        int c1 = isBilinear ? bilinear(level + 1, s, t) : nearest(level + 1, s, t);
+        return lerp(c0, c1, (int) ((lod - level) * 256));
+    }
+    
+    /**
+     * 对纹理上的一个矩形区域进行盒式过滤（box filter），结果是区域内所有纹素的平均值。
+     * 
+     * 缩小滤波方式为SUMMED_AREA时，使用面积累加表，只需要读取4次，与区域的大小无关；
+     * 否则根据区域的大小计算细节层次，按缩小滤波方式采样。
+     * 区域不超过1个纹素时，使用放大滤波方式。
+     * 
+     * @param s 区域中心
+     * @param t 区域中心
+     * @param du 区域的宽度（纹素）
+     * @param dv 区域的高度（纹素）
+     * @return 0xAARRGGBB格式的颜色
+     */
+    public int sampleBox(float s, float t, float du, float dv) {
+        float size = Math.max(du, dv);
+        if (minFilter != MinFilter.SUMMED_AREA || !(size > 1)) {
+            return sample2d(s, t, size > 0 ? (float) (Math.log(size) * INV_LN2) : 0f);
+        }
         
         if (s < 0 || s > 1 || t < 0 || t > 1) {
             if (warpS == WarpMode.CLAMP_TO_BORDER || warpT == WarpMode.CLAMP_TO_BORDER) {
-                return borderColor;
+                return borderARGB;
             }
             
             s = warp(s, warpS);
             t = warp(t, warpT);
         }
         
-        switch (magFilter) {
-        case NEAREST:
-            return nearest(s, t);
-        case BILINEAR:
-            return bilinear(s, t);
+        return summedArea(s, t, du, dv);
+    }
+    
+    /**
+     * 使用面积累加表计算矩形区域的平均值。区域超出纹理边缘的部分被裁掉，不会重复纹理。
+     * 
+     * @param s 区域中心
+     * @param t 区域中心
+     * @param du 区域的宽度（纹素）
+     * @param dv 区域的高度（纹素）
+     * @return 0xAARRGGBB格式的颜色
+     */
+    private int summedArea(float s, float t, float du, float dv) {
+        int[] table = getSummedAreaTable();
+        if (table == null) {
+            // 纹理太大，使用三线性过滤代替。
+            float size = Math.max(du, dv);
+            return mipmapLinear(s, t, (float) (Math.log(size) * INV_LN2), true);
+        }
+        
+        // 区域的边界，取整到纹素的边缘。
+        float u = s * width;
+        float v = (1 - t) * height;
+        int x0 = clamp(Math.round(u - du * 0.5f), 0, width);
+        int x1 = clamp(Math.round(u + du * 0.5f), 0, width);
+        int y0 = clamp(Math.round(v - dv * 0.5f), 0, height);
+        int y1 = clamp(Math.round(v + dv * 0.5f), 0, height);
+        
+        // 至少包含一个纹素
+        if (x1 == x0) {
+            if (x1 < width) x1++; else x0--;
+        }
+        if (y1 == y0) {
+            if (y1 < height) y1++; else y0--;
         }
         
-        return new Vector4f(0);
+        int stride = (width + 1) * 4;
+        int i00 = x0 * 4 + y0 * stride;
+        int i10 = x1 * 4 + y0 * stride;
+        int i01 = x0 * 4 + y1 * stride;
+        int i11 = x1 * 4 + y1 * stride;
+        
+        long area = (long) (x1 - x0) * (y1 - y0);
+        long half = area >> 1;
+        
+        int color = 0;
+        for (int c = 0; c < 4; c++) {
+            // 累加值可能超过int的范围，但区域内的和不会，按无符号数计算差值即可。
+            long sum = (table[i11 + c] - table[i10 + c] - table[i01 + c] + table[i00 + c]) & 0xFFFFFFFFL;
+            color |= (int) ((sum + half) / area) << ((3 - c) * 8);
+        }
+        return color;
+    }
+    
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+    
+    /**
+     * 获得面积累加表，第一次使用时创建。
+     * 
+     * 表的尺寸是(width + 1) x (height + 1)，第一行和第一列都是0。
+     * 表中(x, y)处保存了第0层图像中[0, x) x [0, y)范围内所有纹素之和，A、R、G、B四个分量依次存放。
+     * 
+     * @return 纹理太大时返回null
+     */
+    private int[] getSummedAreaTable() {
+        int[] table = summedArea;
+        if (table == null && (long) width * height <= SUMMED_AREA_MAX_TEXELS) {
+            synchronized (this) {
+                table = summedArea;
+                if (table == null) {
+                    table = buildSummedAreaTable();
+                    summedArea = table;
+                }
+            }
+        }
+        return table;
+    }
+    
+    private int[] buildSummedAreaTable() {
+        int[] pixels = getLinearTexels(0);
+        int stride = (width + 1) * 4;
+        int[] table = new int[stride * (height + 1)];
+        
+        for (int y = 0; y < height; y++) {
+            // 当前行从左到右的累加值
+            int a = 0, r = 0, g = 0, b = 0;
+            int row = (y + 1) * stride;
+            for (int x = 0; x < width; x++) {
+                int argb = pixels[x + y * width];
+                a += argb >>> 24;
+                r += argb >> 16 & 0xFF;
+                g += argb >> 8 & 0xFF;
+                b += argb & 0xFF;
+                
+                int index = row + (x + 1) * 4;
+                table[index]     = table[index - stride]     + a;
+                table[index + 1] = table[index - stride + 1] + r;
+                table[index + 2] = table[index - stride + 2] + g;
+                table[index + 3] = table[index - stride + 3] + b;
+            }
+        }
+        return table;
     }
     
     /**
@@ -156,7 +1017,23 @@ public class Texture {
      * @param borderColor
      */
     public void setBorderColor(Vector4f borderColor) {
-        this.borderColor = borderColor;
+        this.borderColor.set(borderColor);
+        this.borderARGB = (int)(clamp(borderColor.w) * 0xFF) << 24
+                | (int)(clamp(borderColor.x) * 0xFF) << 16
+                | (int)(clamp(borderColor.y) * 0xFF) << 8
+                | (int)(clamp(borderColor.z) * 0xFF);
+    }
+    
+    /**
+     * 获得边框颜色
+     * @return
+     */
+    public Vector4f getBorderColor() {
+        return borderColor;
+    }
+    
+    private static float clamp(float value) {
+        return value < 0 ? 0 : (value > 1 ? 1 : value);
     }
 
     /**
@@ -213,11 +1090,21 @@ public class Texture {
     /**
      * 二次线性(Bilinear)采样
      * 
+     * 权重使用8位定点数，直接对打包的纹素进行整数插值。
+     * 
+     * @param level Mipmap层
      * @param s
      * @param t
-     * @return
+     * @return 0xAARRGGBB格式的颜色
      */
-    protected Vector4f bilinear(float s, float t) {
+    protected int bilinear(int level, float s, float t) {
+        if (isPowerOfTwoRepeat) {
+            return bilinearRepeat(level, s, t);
+        }
+        
+        int width = mipWidth[level];
+        int height = mipHeight[level];
+        
         // 计算坐标
         float u = (float) (width - 1) * s;
         float v = (float) (height - 1) * (1 - t);
@@ -234,36 +1121,116 @@ public class Texture {
         
         if (iv1 > height - 1)
             iv1 = iv0;
+        
+        // 计算采样点的权重
+        int du = (int) ((u - iu0) * 256);
+        int dv = (int) ((v - iv0) * 256);
 
-        // 四个采样点
-        Vector4f c0 = getColor(iu0, iv0);
-        Vector4f c1 = getColor(iu1, iv0);
-        Vector4f c2 = getColor(iu0, iv1);
-        Vector4f c3 = getColor(iu1, iv1);
+        return bilinear(level, iu0, iu1, iv0, iv1, du, dv);
+    }
+    
+    /**
+     * 2的幂纹理的二次线性采样
+     * 
+     * 纹素的映射方式与 bilinear 相同：坐标先包裹到[0, 1]，再乘以(width - 1)。
+     * 坐标转换为8位小数的定点数，整数部分和相邻的纹素直接用位掩码包裹，不需要判断边界。
+     * 位于最后一列(行)时权重为0，包裹到第一列(行)的纹素不影响结果。
+     * 
+     * @param level Mipmap层
+     * @param s
+     * @param t
+     * @return 0xAARRGGBB格式的颜色
+     */
+    private int bilinearRepeat(int level, float s, float t) {
+        int width = mipWidth[level];
+        int height = mipHeight[level];
+        int maskX = width - 1;
+        int maskY = height - 1;
+        
+        // 乘以2的幂不会引入误差，结果与 bilinear 中的浮点数计算一致。
+        int u = (int) (fract(s) * (maskX << 8));
+        int v = (int) ((1 - fract(t)) * (maskY << 8));
         
-        // 计算四个采样点的贡献值
-        float du0 = u - iu0;
-        float dv0 = v - iv0;
-        float du1 = 1f - du0;
-        float dv1 = 1f - dv0;
+        int iu0 = (u >> 8) & maskX;
+        int iv0 = (v >> 8) & maskY;
+        int iu1 = (iu0 + 1) & maskX;
+        int iv1 = (iv0 + 1) & maskY;
+        
+        return bilinear(level, iu0, iu1, iv0, iv1, u & 0xFF, v & 0xFF);
+    }
+    
+    /**
+     * 读取相邻的四个纹素并插值
+     * 
+     * @param level Mipmap层
+     * @param iu0 左侧纹素的列
+     * @param iu1 右侧纹素的列
+     * @param iv0 上方纹素的行
+     * @param iv1 下方纹素的行
+     * @param du 水平方向的权重，取值范围[0, 256]
+     * @param dv 垂直方向的权重，取值范围[0, 256]
+     * @return 0xAARRGGBB格式的颜色
+     */
+    private int bilinear(int level, int iu0, int iu1, int iv0, int iv1, int du, int dv) {
+        // 四个采样点
+        int[] pixels = mipPixels[level];
+        int[] offsetX = mipOffsetX[level];
+        int[] offsetY = mipOffsetY[level];
+        int u0 = offsetX[iu0];
+        int u1 = offsetX[iu1];
+        int row0 = offsetY[iv0];
+        int row1 = offsetY[iv1];
         
-        // 计算最终的颜色
-        c0.x = c0.x * du1 * dv1 + c1.x * du0 * dv1 + c2.x * du1 * dv0 + c3.x * du0 * dv0;
-        c0.y = c0.y * du1 * dv1 + c1.y * du0 * dv1 + c2.y * du1 * dv0 + c3.y * du0 * dv0;
-        c0.z = c0.z * du1 * dv1 + c1.z * du0 * dv1 + c2.z * du1 * dv0 + c3.z * du0 * dv0;
-        c0.w = c0.w * du1 * dv1 + c1.w * du0 * dv1 + c2.w * du1 * dv0 + c3.w * du0 * dv0;
+        int p00, p10, p01, p11;
+        if (pixels != null) {
+            p00 = pixels[u0 + row0];
+            p10 = pixels[u1 + row0];
+            p01 = pixels[u0 + row1];
+            p11 = pixels[u1 + row1];
+        } else {
+            p00 = texel(level, u0 + row0);
+            p10 = texel(level, u1 + row0);
+            p01 = texel(level, u0 + row1);
+            p11 = texel(level, u1 + row1);
+        }
         
-        return c0;
+        int top = lerp(p00, p10, du);
+        int bottom = lerp(p01, p11, du);
+        return lerp(top, bottom, dv);
+    }
+    
+    /**
+     * 对两个0xAARRGGBB格式的颜色进行线性插值
+     * 
+     * R和B、A和G分别放在同一个int的高低16位中，一次乘法同时计算两个通道。
+     * 
+     * @param c0
+     * @param c1
+     * @param weight c1的权重，取值范围[0, 256]
+     * @return
+     */
+    private static int lerp(int c0, int c1, int weight) {
+        int inverse = 256 - weight;
+        int rb = (c0 & 0xFF00FF) * inverse + (c1 & 0xFF00FF) * weight + 0x800080;
+        int ag = (c0 >>> 8 & 0xFF00FF) * inverse + (c1 >>> 8 & 0xFF00FF) * weight + 0x800080;
+        return (rb >>> 8 & 0xFF00FF) | (ag & 0xFF00FF00);
     }
 
     /**
      * 最邻近点(NEAREST)采样
      * 
+     * @param level Mipmap层
      * @param s
      * @param t
-     * @return
+     * @return 0xAARRGGBB格式的颜色
      */
-    protected Vector4f nearest(float s, float t) {
+    protected int nearest(int level, float s, float t) {
+        if (isPowerOfTwoRepeat) {
+            return nearestRepeat(level, s, t);
+        }
+        
+        int width = mipWidth[level];
+        int height = mipHeight[level];
 
         // 计算坐标
         float u = (float) (width - 1) * s;
@@ -273,8 +1240,38 @@ public class Texture {
         int iu = (int) u;
         int iv = (int) v;
 
-        Vector4f color = getColor(iu, iv);
-        return color;
+        return texel(level, mipOffsetX[level][iu] + mipOffsetY[level][iv]);
+    }
+    
+    /**
+     * 2的幂纹理的最邻近点采样，纹素的映射方式与 nearest 相同。
+     * 
+     * @param level Mipmap层
+     * @param s
+     * @param t
+     * @return 0xAARRGGBB格式的颜色
+     */
+    private int nearestRepeat(int level, float s, float t) {
+        int width = mipWidth[level];
+        int height = mipHeight[level];
+        
+        int iu = (int) (fract(s) * (width - 1)) & (width - 1);
+        int iv = (int) ((1 - fract(t)) * (height - 1)) & (height - 1);
+        
+        return texel(level, mipOffsetX[level][iu] + mipOffsetY[level][iv]);
+    }
+    
+    /**
+     * 按REPEAT模式包裹坐标，结果与 warp 相同：[0, 1]范围内的坐标保持不变，其他坐标取小数部分。
+     * 坐标很大时直接转换为定点数会超出int的范围，所以先去掉整数部分。
+     * @param value
+     * @return [0, 1]范围内的值
+     */
+    private static float fract(float value) {
+        if (value >= 0 && value <= 1) {
+            return value;
+        }
+        return value - (float) Math.floor(value);
     }
     
     private final static float INV_SCALE = 1f / 255f;
@@ -286,15 +1283,17 @@ public class Texture {
      * @return
      */
     public Vector4f getColor(int x, int y) {
-        Vector4f color = new Vector4f();
-        
-        int index = (x + y * width) * 4;
-        float r = (float)(0xFF & components[index]) * INV_SCALE;
-        float g = (float)(0xFF & components[index+1]) * INV_SCALE;
-        float b = (float)(0xFF & components[index+2]) * INV_SCALE;
-        float a = (float)(0xFF & components[index+3]) * INV_SCALE;
-        
-        color.set(r, g, b, a);
-        return color;
+        return getColor(x, y, new Vector4f());
+    }
+    
+    /**
+     * 提取颜色
+     * @param x
+     * @param y
+     * @param store 用于保存结果
+     * @return store
+     */
+    public Vector4f getColor(int x, int y, Vector4f store) {
+        return toVector4f(texel(0, mipOffsetX[0][x] + mipOffsetY[0][y]), store);
     }
 }
@@ -39,4 +39,12 @@ public class ColorRGBA {
         b = (byte) ((color >> 8) & 0xFF);
         a = (byte) (color & 0xFF);
     }
+    
+    /**
+     * 转换为0xAARRGGBB格式的整数
+     * @return
+     */
+    public int toARGB() {
+        return (a & 0xFF) << 24 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+    }
 }
@@ -237,6 +237,21 @@ public class Matrix3f {
         return product;
     }
 
+    /**
+     * 矩阵与三维向量(x, y, z)相乘，结果按顺序写入数组。
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param store
+     * @param offset 结果在数组中的起始下标
+     */
+    public void mult(float x, float y, float z, float[] store, int offset) {
+        store[offset] = m00 * x + m01 * y + m02 * z;
+        store[offset + 1] = m10 * x + m11 * y + m12 * z;
+        store[offset + 2] = m20 * x + m21 * y + m22 * z;
+    }
+
     /**
      * 计算矩阵与向量vec的乘积，结果保存在该vec中。
      * 
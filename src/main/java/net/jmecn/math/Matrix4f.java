@@ -341,6 +341,38 @@ public class Matrix4f {
         return store;
     }
 
+    /**
+     * 4x4矩阵与三维坐标(x, y, z)相乘，结果按顺序写入数组。
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param store
+     * @param offset 结果在数组中的起始下标
+     */
+    public void mult(float x, float y, float z, float[] store, int offset) {
+        store[offset] = m00 * x + m01 * y + m02 * z + m03;
+        store[offset + 1] = m10 * x + m11 * y + m12 * z + m13;
+        store[offset + 2] = m20 * x + m21 * y + m22 * z + m23;
+    }
+
+    /**
+     * 矩阵与四维向量(x, y, z, w)相乘，结果按顺序写入数组。
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param w
+     * @param store
+     * @param offset 结果在数组中的起始下标
+     */
+    public void mult(float x, float y, float z, float w, float[] store, int offset) {
+        store[offset] = m00 * x + m01 * y + m02 * z + m03 * w;
+        store[offset + 1] = m10 * x + m11 * y + m12 * z + m13 * w;
+        store[offset + 2] = m20 * x + m21 * y + m22 * z + m23 * w;
+        store[offset + 3] = m30 * x + m31 * y + m32 * z + m33 * w;
+    }
+
     /**
      * 矩阵与四位向量相乘，结果返回一个新的Vector4f对象。
      *
@@ -7,6 +7,15 @@ package net.jmecn.math;
  */
 public class Plane {
 
+    /**
+     * 点或物体位于平面的哪一侧
+     */
+    public enum Side {
+        NONE,       // 与平面相交
+        POSITIVE,   // 法向量指向的一侧
+        NEGATIVE    // 法向量的反方向一侧
+    }
+    
     /**
      * 平面的法向量
      */
@@ -17,6 +26,9 @@ public class Plane {
      */
     private float constant = 0;
     
+    public Plane() {
+    }
+    
     public Plane(float x, float y, float z, float constant) {
         this.normal.set(x, y, z).normalizeLocal();
         this.constant = constant;
@@ -27,6 +39,26 @@ public class Plane {
         this.constant = d;
     }
     
+    /**
+     * 设置平面方程 ax + by + cz + d = 0 的系数，四个系数同时除以法向量的长度。
+     * @param a
+     * @param b
+     * @param c
+     * @param d
+     */
+    public void set(float a, float b, float c, float d) {
+        float length = (float) Math.sqrt(a * a + b * b + c * c);
+        if (length > 0) {
+            float inv = 1f / length;
+            a *= inv;
+            b *= inv;
+            c *= inv;
+            d *= inv;
+        }
+        normal.set(a, b, c);
+        constant = d;
+    }
+    
     /**
      * 判断顶点是否在平面上。
      * @param v
@@ -35,4 +67,27 @@ public class Plane {
     public float determine(Vector3f v) {
         return normal.dot(v) + constant;
     }
+    
+    /**
+     * 判断点位于平面的哪一侧
+     * @param v
+     * @return
+     */
+    public Side whichSide(Vector3f v) {
+        float d = determine(v);
+        if (d > 0) {
+            return Side.POSITIVE;
+        } else if (d < 0) {
+            return Side.NEGATIVE;
+        }
+        return Side.NONE;
+    }
+    
+    public Vector3f getNormal() {
+        return normal;
+    }
+    
+    public float getConstant() {
+        return constant;
+    }
 }
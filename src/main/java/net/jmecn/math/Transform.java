@@ -95,11 +95,20 @@ public class Transform {
      * @return
      */
     public Matrix4f toTransformMatrix() {
-        Matrix4f trans = new Matrix4f();
-        trans.setTranslation(translation);
-        trans.setRotationQuaternion(rot);
-        trans.setScale(scale);
-        return trans;
+        return toTransformMatrix(new Matrix4f());
+    }
+    
+    /**
+     * 三种变换转为4x4矩阵
+     * @param store 保存结果
+     * @return
+     */
+    public Matrix4f toTransformMatrix(Matrix4f store) {
+        store.loadIdentity();
+        store.setTranslation(translation);
+        store.setRotationQuaternion(rot);
+        store.setScale(scale);
+        return store;
     }
     
     /**
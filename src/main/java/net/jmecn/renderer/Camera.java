@@ -1,6 +1,9 @@
 package net.jmecn.renderer;
 
+import net.jmecn.bounding.BoundingVolume;
 import net.jmecn.math.Matrix4f;
+import net.jmecn.math.Plane;
+import net.jmecn.math.Plane.Side;
 import net.jmecn.math.Quaternion;
 import net.jmecn.math.Vector3f;
 
@@ -12,6 +15,26 @@ import net.jmecn.math.Vector3f;
  */
 public class Camera {
 
+    /**
+     * 物体与视锥体的位置关系
+     */
+    public enum FrustumIntersect {
+        OUTSIDE,    // 完全在视锥体外
+        INSIDE,     // 完全在视锥体内
+        INTERSECTS  // 与视锥体相交
+    }
+    
+    // 视锥平面的序号
+    public final static int LEFT_PLANE = 0;
+    public final static int RIGHT_PLANE = 1;
+    public final static int BOTTOM_PLANE = 2;
+    public final static int TOP_PLANE = 3;
+    public final static int NEAR_PLANE = 4;
+    public final static int FAR_PLANE = 5;
+    public final static int FRUSTUM_PLANES = 6;
+    // 所有视锥平面都已确定位于其内侧
+    public final static int ALL_PLANES = (1 << FRUSTUM_PLANES) - 1;
+
     /**
      * 观察位置。初始位置位于Z轴的正方向，离世界空间中心点10个单位距离。
      */
@@ -68,6 +91,17 @@ public class Camera {
      */
     private Matrix4f viewProjectionMatrix = new Matrix4f();
     
+    /**
+     * 世界空间中的视锥平面，法向量指向视锥体内部。
+     */
+    private Plane[] frustumPlanes = new Plane[FRUSTUM_PLANES];
+    
+    /**
+     * 已经确定包围体位于其内侧的视锥平面，每个平面占一位。
+     * 遍历场景图时，父节点完全位于某个平面内侧，子节点就不必再测试这个平面。
+     */
+    private int planeState;
+    
     /**
      * 初始化摄像机
      * @param width
@@ -76,6 +110,10 @@ public class Camera {
     public Camera(int width, int height) {
         this.aspect = (float) width / height;// 屏幕宽高比
         
+        for (int i = 0; i < FRUSTUM_PLANES; i++) {
+            frustumPlanes[i] = new Plane();
+        }
+        
         // 计算观察-投影变换矩阵
         updateViewProjectionMatrix();
     }
@@ -97,6 +135,7 @@ public class Camera {
 
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
 
     /**
@@ -115,6 +154,7 @@ public class Camera {
         this.direction.set(direction);
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
 
     /**
@@ -173,6 +213,83 @@ public class Camera {
         return viewProjectionMatrix;
     }
 
+    /**
+     * 获得世界空间中的视锥平面，法向量指向视锥体内部。
+     * 平面在观察-投影变换矩阵更新时重新计算。
+     * @return
+     */
+    public Plane[] getFrustumPlanes() {
+        return frustumPlanes;
+    }
+    
+    /**
+     * 从观察-投影变换矩阵中提取视锥平面
+     * 
+     * 世界空间中的点p经过变换后为 (x, y, z, w)，位于视锥体内的条件是 -w <= x, y, z <= w。
+     * 每个不等式都是关于p的线性不等式，系数由矩阵的第4行加上或减去对应的行得到。
+     */
+    public void updateFrustumPlanes() {
+        Matrix4f m = viewProjectionMatrix;
+        for (int i = 0; i < 3; i++) {
+            // -w <= x 即 row3 + row0 >= 0
+            frustumPlanes[i * 2].set(
+                    m.get(3, 0) + m.get(i, 0),
+                    m.get(3, 1) + m.get(i, 1),
+                    m.get(3, 2) + m.get(i, 2),
+                    m.get(3, 3) + m.get(i, 3));
+            // x <= w 即 row3 - row0 >= 0
+            frustumPlanes[i * 2 + 1].set(
+                    m.get(3, 0) - m.get(i, 0),
+                    m.get(3, 1) - m.get(i, 1),
+                    m.get(3, 2) - m.get(i, 2),
+                    m.get(3, 3) - m.get(i, 3));
+        }
+    }
+    
+    /**
+     * 获得已经确定位于其内侧的视锥平面
+     * @return
+     */
+    public int getPlaneState() {
+        return planeState;
+    }
+    
+    /**
+     * 设置已经确定位于其内侧的视锥平面。测试新的物体之前应当设为0。
+     * @param planeState
+     */
+    public void setPlaneState(int planeState) {
+        this.planeState = planeState;
+    }
+    
+    /**
+     * 判断包围体与视锥体的位置关系
+     * 
+     * 跳过 planeState 中已经标记的平面；包围体完全位于某个平面内侧时，把这个平面记入 planeState。
+     * 
+     * @param bound 世界空间中的包围体
+     * @return
+     */
+    public FrustumIntersect contains(BoundingVolume bound) {
+        FrustumIntersect result = FrustumIntersect.INSIDE;
+        for (int i = 0; i < FRUSTUM_PLANES; i++) {
+            int bit = 1 << i;
+            if ((planeState & bit) != 0) {
+                continue;
+            }
+            Side side = bound.whichSide(frustumPlanes[i]);
+            if (side == Side.NEGATIVE) {
+                return FrustumIntersect.OUTSIDE;
+            }
+            if (side == Side.NONE) {
+                result = FrustumIntersect.INTERSECTS;
+            } else {
+                planeState |= bit;
+            }
+        }
+        return result;
+    }
+    
     /**
      * 观察-投影 变换矩阵
      */
@@ -180,6 +297,7 @@ public class Camera {
         updateViewMatrix();
         updateProjectionMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
     
     /**
@@ -324,6 +442,7 @@ public class Camera {
         
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
     
     /**
@@ -342,6 +461,7 @@ public class Camera {
         
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
     
     /**
@@ -358,6 +478,7 @@ public class Camera {
         
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
     
     /**
@@ -377,6 +498,7 @@ public class Camera {
         
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
     
     /**
@@ -399,5 +521,6 @@ public class Camera {
         
         updateViewMatrix();
         projectionMatrix.mult(viewMatrix, viewProjectionMatrix);
+        updateFrustumPlanes();
     }
 }
@@ -0,0 +1,192 @@
+package net.jmecn.renderer;
+
+import net.jmecn.material.RenderState.DepthFunc;
+
+/**
+ * 深度缓冲
+ *
+ * 除了逐像素的深度值，还按 TILE_SIZE x TILE_SIZE 的图块记录深度的最小值和最大值（层次深度缓冲）。
+ * 光栅化时先用图块的深度范围与三角形在块内的深度范围比较，如果整块像素都不可能通过深度测试，
+ * 就可以直接跳过整块，不必逐像素测试。
+ *
+ * 图块记录的范围是保守的：最小值不大于图块内的实际最小值，最大值不小于实际最大值。
+ * 写入深度时只在必要时放宽范围，并把图块标记为“脏”，在剔除失败时再重新统计，收紧范围。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class DepthBuffer {
+
+    // 图块尺寸
+    public final static int TILE_SHIFT = 3;
+    public final static int TILE_SIZE = 1 << TILE_SHIFT;
+
+    protected final int width;
+    protected final int height;
+
+    // 逐像素深度
+    protected final float[] data;
+
+    // 图块的数量
+    protected final int tilesX;
+    protected final int tilesY;
+
+    // 图块的深度范围
+    protected final float[] tileMin;
+    protected final float[] tileMax;
+    // 图块的深度范围是否需要重新统计
+    protected final boolean[] tileDirty;
+
+    public DepthBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.data = new float[width * height];
+
+        this.tilesX = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        this.tilesY = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+        this.tileMin = new float[tilesX * tilesY];
+        this.tileMax = new float[tilesX * tilesY];
+        this.tileDirty = new boolean[tilesX * tilesY];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 获得逐像素的深度数据
+     * @return
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * 使用指定深度填充缓冲
+     * @param depth
+     */
+    public void clear(float depth) {
+        int length = width * height;
+        for (int i = 0; i < length; i++) {
+            data[i] = depth;
+        }
+
+        length = tilesX * tilesY;
+        for (int i = 0; i < length; i++) {
+            tileMin[i] = depth;
+            tileMax[i] = depth;
+            tileDirty[i] = false;
+        }
+    }
+
+    /**
+     * 写入深度
+     * @param x
+     * @param y
+     * @param index 像素下标，等于 x + y * width
+     * @param depth
+     */
+    public void write(int x, int y, int index, float depth) {
+        float old = data[index];
+        data[index] = depth;
+
+        int tile = (x >> TILE_SHIFT) + (y >> TILE_SHIFT) * tilesX;
+        // 被覆盖的可能正是图块的最小值或最大值，需要重新统计才能收紧范围。
+        if (old == tileMin[tile] || old == tileMax[tile]) {
+            tileDirty[tile] = true;
+        }
+        if (depth < tileMin[tile]) {
+            tileMin[tile] = depth;
+        }
+        if (depth > tileMax[tile]) {
+            tileMax[tile] = depth;
+        }
+    }
+
+    /**
+     * 判断图块内是否所有像素都一定无法通过深度测试。
+     *
+     * @param tileX 图块的列
+     * @param tileY 图块的行
+     * @param zMin 片段在图块内的最小深度
+     * @param zMax 片段在图块内的最大深度
+     * @param func 深度测试函数
+     * @return 返回true时，整个图块都可以跳过。
+     */
+    public boolean isOccluded(int tileX, int tileY, float zMin, float zMax, DepthFunc func) {
+        int tile = tileX + tileY * tilesX;
+
+        if (isOccluded(tileMin[tile], tileMax[tile], zMin, zMax, func)) {
+            return true;
+        }
+
+        // 范围可能过于宽松，重新统计后再试一次。
+        if (tileDirty[tile]) {
+            refresh(tileX, tileY);
+            return isOccluded(tileMin[tile], tileMax[tile], zMin, zMax, func);
+        }
+
+        return false;
+    }
+
+    /**
+     * 根据深度范围判断是否能剔除。无法加速的深度测试函数总是返回false。
+     * @param min 深度缓冲的最小值
+     * @param max 深度缓冲的最大值
+     * @param zMin 片段的最小深度
+     * @param zMax 片段的最大深度
+     * @param func
+     * @return
+     */
+    private boolean isOccluded(float min, float max, float zMin, float zMax, DepthFunc func) {
+        switch (func) {
+        case NEVER:
+            return true;
+        case LESS:
+            return zMin >= max;
+        case LESS_EQUAL:
+            return zMin > max;
+        case GREATER:
+            return zMax <= min;
+        case GREATER_EQUAL:
+            return zMax < min;
+        case EQUAL:
+            return zMax < min || zMin > max;
+        default:
+            // ALWAYS、NOT_EQUAL无法通过深度范围来判断
+            return false;
+        }
+    }
+
+    /**
+     * 重新统计图块的深度范围
+     * @param tileX
+     * @param tileY
+     */
+    private void refresh(int tileX, int tileY) {
+        int x0 = tileX << TILE_SHIFT;
+        int y0 = tileY << TILE_SHIFT;
+        int x1 = Math.min(x0 + TILE_SIZE, width);
+        int y1 = Math.min(y0 + TILE_SIZE, height);
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int y = y0; y < y1; y++) {
+            int index = x0 + y * width;
+            for (int x = x0; x < x1; x++, index++) {
+                float depth = data[index];
+                if (depth < min) min = depth;
+                if (depth > max) max = depth;
+            }
+        }
+
+        int tile = tileX + tileY * tilesX;
+        tileMin[tile] = min;
+        tileMax[tile] = max;
+        tileDirty[tile] = false;
+    }
+}
@@ -0,0 +1,193 @@
+package net.jmecn.renderer;
+
+import net.jmecn.scene.RasterizationVertex;
+
+/**
+ * 三角形插值属性的梯度
+ * 
+ * 经过透视除法之后，片段的所有插值属性都是屏幕坐标的线性函数：a(x, y) = c + dadx * x + dady * y。
+ * 在三角形设置阶段为每个属性计算一次平面方程，光栅化时先求出每一行的基准值，再按像素求值，
+ * 结果直接写入同一个片段对象，不需要为每个像素创建新的对象。
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public class Gradients {
+
+    private final static int SIZE = RasterizationVertex.SIZE;
+    private final static int POSITION = RasterizationVertex.POSITION;
+    private final static int COLOR = RasterizationVertex.COLOR;
+    private final static int NORMAL = RasterizationVertex.NORMAL;
+    private final static int TEXCOORD = RasterizationVertex.TEXCOORD;
+    private final static int WORLD_SPACE_POSITION = RasterizationVertex.WORLD_SPACE_POSITION;
+    
+    // 单精度求值的相对误差上界。系数的舍入和求值中的几次运算，每次不超过半个ulp，这里留出足够的余量。
+    private final static float ROUNDING_ERROR = 1e-6f;
+
+    // 平面方程的常数项
+    private final float[] c = new float[SIZE];
+    // 属性对x的偏导数
+    private final float[] dadx = new float[SIZE];
+    // 属性对y的偏导数
+    private final float[] dady = new float[SIZE];
+    
+    // 当前行在 x = 0 处的属性值
+    private final float[] row = new float[SIZE];
+    
+    // 三个顶点的属性
+    private final float[] a0 = new float[SIZE];
+    private final float[] a1 = new float[SIZE];
+    private final float[] a2 = new float[SIZE];
+    
+    /**
+     * 根据三个顶点计算属性的平面方程
+     * @param v0
+     * @param v1
+     * @param v2
+     * @return 三角形退化为线段或点时返回false
+     */
+    public boolean setup(RasterizationVertex v0, RasterizationVertex v1, RasterizationVertex v2) {
+        v0.get(a0, 0);
+        v1.get(a1, 0);
+        v2.get(a2, 0);
+        
+        double x0 = a0[POSITION], y0 = a0[POSITION + 1];
+        double x10 = a1[POSITION] - x0, y10 = a1[POSITION + 1] - y0;
+        double x20 = a2[POSITION] - x0, y20 = a2[POSITION + 1] - y0;
+        
+        // 三角形面积的2倍
+        double area = x10 * y20 - x20 * y10;
+        if (area == 0) {
+            return false;
+        }
+        double invArea = 1.0 / area;
+        
+        // 常数项使用双精度计算，避免坐标较大时损失精度。
+        for (int i = 0; i < SIZE; i++) {
+            double d10 = a1[i] - a0[i];
+            double d20 = a2[i] - a0[i];
+            double dx = (d10 * y20 - d20 * y10) * invArea;
+            double dy = (d20 * x10 - d10 * x20) * invArea;
+            
+            dadx[i] = (float) dx;
+            dady[i] = (float) dy;
+            c[i] = (float) (a0[i] - dx * x0 - dy * y0);
+        }
+        return true;
+    }
+    
+    /**
+     * 获得属性对x的偏导数
+     * @param slot 属性在顶点数据中的下标
+     * @return
+     */
+    public float getDx(int slot) {
+        return dadx[slot];
+    }
+    
+    /**
+     * 获得属性对y的偏导数
+     * @param slot 属性在顶点数据中的下标
+     * @return
+     */
+    public float getDy(int slot) {
+        return dady[slot];
+    }
+    
+    /**
+     * 估算属性在[0, x] x [0, y]范围内求值的舍入误差上界。
+     * 以不同方式计算同一像素的属性（例如 evaluate 与 interpolate），结果之差不超过它的2倍。
+     * @param slot 属性在顶点数据中的下标
+     * @param x
+     * @param y
+     * @return
+     */
+    public float getRoundingError(int slot, float x, float y) {
+        return (Math.abs(c[slot]) + Math.abs(dadx[slot] * x) + Math.abs(dady[slot] * y)) * ROUNDING_ERROR;
+    }
+    
+    /**
+     * 计算属性在(x, y)处的值
+     * @param slot 属性在顶点数据中的下标
+     * @param x
+     * @param y
+     * @return
+     */
+    public float evaluate(int slot, float x, float y) {
+        return c[slot] + dadx[slot] * x + dady[slot] * y;
+    }
+    
+    /**
+     * 计算2x2像素块中插值属性的导数
+     * 
+     * 导数由块中左上、右上、左下三个像素经过透视修正后的属性值相减得到，块内四个像素使用相同的结果。
+     * 这三个像素不一定在三角形内部，此时直接使用平面方程外插。
+     * 
+     * @param x 像素块左上角的x坐标，必须是偶数
+     * @param y 像素块左上角的y坐标，必须是偶数
+     * @param ddx 保存属性对x的导数
+     * @param ddy 保存属性对y的导数
+     */
+    public void derivatives(int x, int y, float[] ddx, float[] ddy) {
+        int w = POSITION + 3;
+        
+        // 三个像素处的 w 值(平面方程中保存的是 1/w)
+        double w00 = 1.0 / ((double) c[w] + (double) dadx[w] * x + (double) dady[w] * y);
+        double w10 = 1.0 / ((double) c[w] + (double) dadx[w] * (x + 1) + (double) dady[w] * y);
+        double w01 = 1.0 / ((double) c[w] + (double) dadx[w] * x + (double) dady[w] * (y + 1));
+        
+        // 位置在屏幕空间中是线性的，不需要透视修正。
+        for (int i = POSITION; i < COLOR; i++) {
+            ddx[i] = dadx[i];
+            ddy[i] = dady[i];
+        }
+        
+        for (int i = COLOR; i < SIZE; i++) {
+            double a00 = (double) c[i] + (double) dadx[i] * x + (double) dady[i] * y;
+            double v00 = a00 * w00;
+            double v10 = (a00 + dadx[i]) * w10;
+            double v01 = (a00 + dady[i]) * w01;
+            
+            ddx[i] = (float) (v10 - v00);
+            ddy[i] = (float) (v01 - v00);
+        }
+    }
+    
+    /**
+     * 开始光栅化新的一行
+     * @param y
+     */
+    public void beginRow(int y) {
+        for (int i = 0; i < SIZE; i++) {
+            row[i] = c[i] + dady[i] * y;
+        }
+    }
+    
+    /**
+     * 计算当前行中第x个像素的属性，写入片段。
+     * @param x
+     * @param frag
+     */
+    public void interpolate(int x, RasterizationVertex frag) {
+        frag.position.x = row[POSITION] + dadx[POSITION] * x;
+        frag.position.y = row[POSITION + 1] + dadx[POSITION + 1] * x;
+        frag.position.z = row[POSITION + 2] + dadx[POSITION + 2] * x;
+        frag.position.w = row[POSITION + 3] + dadx[POSITION + 3] * x;
+        
+        frag.color.x = row[COLOR] + dadx[COLOR] * x;
+        frag.color.y = row[COLOR + 1] + dadx[COLOR + 1] * x;
+        frag.color.z = row[COLOR + 2] + dadx[COLOR + 2] * x;
+        frag.color.w = row[COLOR + 3] + dadx[COLOR + 3] * x;
+        
+        frag.normal.x = row[NORMAL] + dadx[NORMAL] * x;
+        frag.normal.y = row[NORMAL + 1] + dadx[NORMAL + 1] * x;
+        frag.normal.z = row[NORMAL + 2] + dadx[NORMAL + 2] * x;
+        
+        frag.texCoord.x = row[TEXCOORD] + dadx[TEXCOORD] * x;
+        frag.texCoord.y = row[TEXCOORD + 1] + dadx[TEXCOORD + 1] * x;
+        
+        frag.worldSpacePosition.x = row[WORLD_SPACE_POSITION] + dadx[WORLD_SPACE_POSITION] * x;
+        frag.worldSpacePosition.y = row[WORLD_SPACE_POSITION + 1] + dadx[WORLD_SPACE_POSITION + 1] * x;
+        frag.worldSpacePosition.z = row[WORLD_SPACE_POSITION + 2] + dadx[WORLD_SPACE_POSITION + 2] * x;
+    }
+}
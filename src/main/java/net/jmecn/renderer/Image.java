@@ -1,58 +1,86 @@
 package net.jmecn.renderer;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.imageio.ImageIO;
 
 /**
- * 用于保存图像数据。 图像格式采用4BYTE_RGBA。
+ * 用于保存图像数据。 默认的图像格式采用4BYTE_RGBA。
  * 
  * @author yanmaoyuan
  *
  */
 public class Image {
 
+    /**
+     * 图像格式
+     */
+    public enum Format {
+        /**
+         * 每个像素占用4个字节，按R、G、B、A的顺序保存在byte数组中。
+         */
+        RGBA8,
+        /**
+         * 每个像素占用一个int，按0xAARRGGBB的格式保存在int数组中。
+         * 与 BufferedImage.TYPE_INT_ARGB/TYPE_INT_RGB 的像素格式一致，可以直接用于显示。
+         */
+        INT_ARGB
+    }
+    
     // 图片的宽度
     protected final int width;
     // 图片的高度
     protected final int height;
-    // 颜色数据
+    // 图像格式
+    protected final Format format;
+    // 颜色数据，RGBA8格式使用。
     protected final byte[] components;
+    // 颜色数据，INT_ARGB格式使用。
+    protected final int[] pixels;
 
     public Image(int width, int height) {
+        this(width, height, Format.RGBA8);
+    }
+    
+    public Image(int width, int height, Format format) {
         this.width = width;
         this.height = height;
-        this.components = new byte[width * height * 4];
+        this.format = format;
+        if (format == Format.INT_ARGB) {
+            this.components = null;
+            this.pixels = new int[width * height];
+        } else {
+            this.components = new byte[width * height * 4];
+            this.pixels = null;
+        }
     }
 
     public Image(String fileName) throws IOException {
-        int width = 0;
-        int height = 0;
-        byte[] components = null;
-
         BufferedImage image = ImageIO.read(new File(fileName));
-
-        width = image.getWidth();
-        height = image.getHeight();
-
-        int imgPixels[] = new int[width * height];
-        image.getRGB(0, 0, width, height, imgPixels, 0, width);
-        components = new byte[width * height * 4];
-
-        for(int i = 0; i < width * height; i++) {
-            int pixel = imgPixels[i];
-
-            components[i * 4]     = (byte)((pixel >> 16) & 0xFF); // R
-            components[i * 4 + 1] = (byte)((pixel >> 8 ) & 0xFF); // G
-            components[i * 4 + 2] = (byte)((pixel      ) & 0xFF); // B
-            components[i * 4 + 3] = (byte)((pixel >> 24) & 0xFF); // A
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + fileName);
         }
 
-        this.width = width;
-        this.height = height;
-        this.components = components;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.format = Format.RGBA8;
+        this.components = new byte[width * height * 4];
+        this.pixels = null;
+
+        // 按行分段，并行转换颜色数据。
+        ForkJoinPool.commonPool().invoke(new Decoder(image, components));
     }
     
     public int getWidth() {
@@ -63,8 +91,242 @@ public class Image {
         return height;
     }
 
+    public Format getFormat() {
+        return format;
+    }
+    
+    /**
+     * 获得RGBA8格式的颜色数据，其他格式返回null。
+     * @return
+     */
     public byte[] getComponents() {
         return components;
     }
 
-}
\ No newline at end of file
+    /**
+     * 获得INT_ARGB格式的颜色数据，其他格式返回null。
+     * @return
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+    
+    /**
+     * 获得颜色数据占用的字节数
+     * @return
+     */
+    public long getSize() {
+        return (long) width * height * 4;
+    }
+
+    /**
+     * 把颜色乘以Alpha，转换为预乘Alpha的图像。
+     *
+     * 使用预乘Alpha的纹理时，滤波不会把透明纹素的颜色混入边缘，混合模式应设为 BlendMode.PREMULTIPLIED_ALPHA。
+     * 同一个图像只应该转换一次。
+     */
+    public void premultiplyAlpha() {
+        int count = width * height;
+        if (format == Format.INT_ARGB) {
+            for (int i = 0; i < count; i++) {
+                int argb = pixels[i];
+                int a = argb >>> 24;
+                int r = ((argb >> 16 & 0xFF) * a + 127) / 255;
+                int g = ((argb >> 8 & 0xFF) * a + 127) / 255;
+                int b = ((argb & 0xFF) * a + 127) / 255;
+                pixels[i] = a << 24 | r << 16 | g << 8 | b;
+            }
+            return;
+        }
+
+        for (int i = 0; i < count * 4; i += 4) {
+            int a = components[i + 3] & 0xFF;
+            components[i] = (byte) (((components[i] & 0xFF) * a + 127) / 255);
+            components[i + 1] = (byte) (((components[i + 1] & 0xFF) * a + 127) / 255);
+            components[i + 2] = (byte) (((components[i + 2] & 0xFF) * a + 127) / 255);
+        }
+    }
+
+
+    /**
+     * 把BufferedImage的颜色数据转换为RGBA8格式
+     * 
+     * 对于常见的几种图像类型，直接读取DataBuffer中的原始数据，不经过ColorModel逐个像素转换；
+     * 其他类型仍然使用getRGB。图像较大时，按行拆分为多个任务并行转换。
+     */
+    private static class Decoder extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // 每个任务最多转换的像素数
+        private final static int BAND_SIZE = 256 * 1024;
+
+        // 数据来源
+        private final static int BYTE_BGR = 0;
+        private final static int BYTE_ABGR = 1;
+        private final static int INT_RGB = 2;
+        private final static int INT_ARGB = 3;
+        private final static int BYTE_INDEXED = 4;
+        private final static int GET_RGB = 5;
+
+        private final BufferedImage image;
+        private final byte[] components;
+        private final int width;
+        private final int source;
+
+        // DataBuffer中的原始数据
+        private final byte[] bytes;
+        private final int[] ints;
+        // 调色板，0xAARRGGBB格式
+        private final int[] palette;
+
+        // 行的范围
+        private final int start;
+        private final int end;
+
+        Decoder(BufferedImage image, byte[] components) {
+            this.image = image;
+            this.components = components;
+            this.width = image.getWidth();
+            this.start = 0;
+            this.end = image.getHeight();
+
+            int source = GET_RGB;
+            byte[] bytes = null;
+            int[] ints = null;
+            int[] palette = null;
+
+            if (isPacked(image)) {
+                DataBuffer buffer = image.getRaster().getDataBuffer();
+                switch (image.getType()) {
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    source = BYTE_BGR;
+                    bytes = ((DataBufferByte) buffer).getData();
+                    break;
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    source = BYTE_ABGR;
+                    bytes = ((DataBufferByte) buffer).getData();
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                    source = INT_RGB;
+                    ints = ((DataBufferInt) buffer).getData();
+                    break;
+                case BufferedImage.TYPE_INT_ARGB:
+                    source = INT_ARGB;
+                    ints = ((DataBufferInt) buffer).getData();
+                    break;
+                case BufferedImage.TYPE_BYTE_INDEXED:
+                    IndexColorModel model = (IndexColorModel) image.getColorModel();
+                    source = BYTE_INDEXED;
+                    bytes = ((DataBufferByte) buffer).getData();
+                    palette = new int[256];
+                    model.getRGBs(palette);
+                    break;
+                }
+            }
+
+            this.source = source;
+            this.bytes = bytes;
+            this.ints = ints;
+            this.palette = palette;
+        }
+
+        Decoder(Decoder parent, int start, int end) {
+            this.image = parent.image;
+            this.components = parent.components;
+            this.width = parent.width;
+            this.source = parent.source;
+            this.bytes = parent.bytes;
+            this.ints = parent.ints;
+            this.palette = parent.palette;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * 判断图像的数据是否从DataBuffer的开头连续存放，没有行间距和偏移。
+         * @param image
+         * @return
+         */
+        private static boolean isPacked(BufferedImage image) {
+            WritableRaster raster = image.getRaster();
+            DataBuffer buffer = raster.getDataBuffer();
+            if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                    || buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+                return false;
+            }
+
+            SampleModel model = raster.getSampleModel();
+            if (model instanceof ComponentSampleModel) {
+                ComponentSampleModel csm = (ComponentSampleModel) model;
+                return csm.getScanlineStride() == csm.getPixelStride() * image.getWidth();
+            }
+            if (model instanceof SinglePixelPackedSampleModel) {
+                return ((SinglePixelPackedSampleModel) model).getScanlineStride() == image.getWidth();
+            }
+            return false;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = end - start;
+            if (rows > 1 && rows * width > BAND_SIZE) {
+                int middle = start + rows / 2;
+                invokeAll(new Decoder(this, start, middle), new Decoder(this, middle, end));
+                return;
+            }
+
+            int from = start * width;
+            int to = end * width;
+
+            switch (source) {
+            case BYTE_BGR:
+                for (int i = from; i < to; i++) {
+                    int src = i * 3;
+                    int dst = i * 4;
+                    components[dst]     = bytes[src + 2];
+                    components[dst + 1] = bytes[src + 1];
+                    components[dst + 2] = bytes[src];
+                    components[dst + 3] = (byte) 0xFF;
+                }
+                break;
+            case BYTE_ABGR:
+                for (int i = from; i < to; i++) {
+                    int index = i * 4;
+                    components[index]     = bytes[index + 3];
+                    components[index + 1] = bytes[index + 2];
+                    components[index + 2] = bytes[index + 1];
+                    components[index + 3] = bytes[index];
+                }
+                break;
+            case INT_RGB:
+            case INT_ARGB:
+                for (int i = from; i < to; i++) {
+                    int pixel = ints[i];
+                    if (source == INT_RGB) {
+                        pixel |= 0xFF000000;
+                    }
+                    unpack(pixel, i * 4);
+                }
+                break;
+            case BYTE_INDEXED:
+                for (int i = from; i < to; i++) {
+                    unpack(palette[bytes[i] & 0xFF], i * 4);
+                }
+                break;
+            default:
+                int[] imgPixels = new int[to - from];
+                image.getRGB(0, start, width, rows, imgPixels, 0, width);
+                for (int i = from; i < to; i++) {
+                    unpack(imgPixels[i - from], i * 4);
+                }
+            }
+        }
+
+        private void unpack(int pixel, int index) {
+            components[index]     = (byte)((pixel >> 16) & 0xFF); // R
+            components[index + 1] = (byte)((pixel >> 8 ) & 0xFF); // G
+            components[index + 2] = (byte)((pixel      ) & 0xFF); // B
+            components[index + 3] = (byte)((pixel >> 24) & 0xFF); // A
+        }
+    }
+}
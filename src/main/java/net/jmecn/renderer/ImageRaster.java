@@ -1,6 +1,7 @@
 package net.jmecn.renderer;
 
 import net.jmecn.math.ColorRGBA;
+import net.jmecn.renderer.Image.Format;
 
 /**
  * 光栅器，用于绘制基本形状。
@@ -12,7 +13,9 @@ public class ImageRaster {
 
     protected int width;
     protected int height;
+    protected Format format;
     protected byte[] components;
+    protected int[] pixels;
 
     // Cohen-Sutherland算法的空间编码
     private final static int INSIDE = 0; // 0000
@@ -33,7 +36,9 @@ public class ImageRaster {
     public ImageRaster(Image image) {
         this.width = image.getWidth();
         this.height = image.getHeight();
+        this.format = image.getFormat();
         this.components = image.getComponents();
+        this.pixels = image.getPixels();
 
         // 初始化剪切矩形
         xmin = ymin = 0;
@@ -48,6 +53,15 @@ public class ImageRaster {
      */
     public void fill(ColorRGBA color) {
         int length = width * height;
+        
+        if (format == Format.INT_ARGB) {
+            int argb = color.toARGB();
+            for (int i = 0; i < length; i++) {
+                pixels[i] = argb;
+            }
+            return;
+        }
+        
         for (int i = 0; i < length; i++) {
             int index = i * 4;
 
@@ -74,6 +88,11 @@ public class ImageRaster {
             return;
         }
 
+        if (format == Format.INT_ARGB) {
+            pixels[x + y * width] = color.toARGB();
+            return;
+        }
+        
         int index = (x + y * width) * 4;
 
         components[index] = color.r;
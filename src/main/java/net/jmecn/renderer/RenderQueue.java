@@ -0,0 +1,274 @@
+package net.jmecn.renderer;
+
+import java.util.Arrays;
+
+import net.jmecn.bounding.BoundingBox;
+import net.jmecn.material.Material;
+import net.jmecn.material.RenderState;
+import net.jmecn.material.RenderState.BlendMode;
+import net.jmecn.material.RenderState.DepthFunc;
+import net.jmecn.math.Vector3f;
+import net.jmecn.scene.Geometry;
+
+/**
+ * 渲染队列
+ *
+ * 可见的物体按渲染状态分到不同的桶中，每个桶单独排序，然后按桶的顺序绘制。
+ * 不透明的物体从前往后绘制，被遮挡的片段可以在片段着色器之前被深度测试剔除；距离相近的物体按着色器和材质排列，减少状态切换。
+ * 只有开启了深度测试和深度写入、并且深度比较函数是LESS或LESS_EQUAL时，不透明物体的绘制顺序才不影响结果。
+ * 其他物体，以及在它们之后加入队列的不透明物体，都保持加入队列时的顺序。
+ * 半透明的物体必须从后往前绘制，混合的结果才正确。
+ *
+ * 排序使用long类型的键：高位是排序依据，低24位是物体加入队列的序号。
+ * 直接对long数组排序，不需要分配内存；排序依据相同的物体保持加入队列时的顺序。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class RenderQueue {
+
+    /**
+     * 渲染桶，按声明的顺序绘制。
+     */
+    public enum Bucket {
+        /**
+         * 不透明物体，从前往后排序。
+         */
+        OPAQUE,
+        /**
+         * 开启了Alpha测试的物体，从前往后排序。
+         */
+        ALPHA_TEST,
+        /**
+         * 结果依赖绘制顺序的不透明物体，例如关闭了深度测试或深度写入，以及在它们之后加入队列的不透明物体。保持加入队列时的顺序。
+         */
+        ORDERED,
+        /**
+         * 半透明物体，从后往前排序。
+         */
+        TRANSPARENT,
+        /**
+         * 最后绘制的物体，例如界面和调试信息，保持加入队列时的顺序。
+         */
+        OVERLAY
+    }
+
+    private final static Bucket[] BUCKETS = Bucket.values();
+
+    // 键的低位保存物体的序号
+    private final static int INDEX_BITS = 24;
+    private final static long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private final static int MAX_SIZE = 1 << INDEX_BITS;
+
+    // 用于分组的着色器和材质编号的位数。编号超出范围时只保留低位，不同的材质可能被排在一起，
+    // 这只会增加状态切换的次数，不影响渲染结果。
+    private final static int SHADER_BITS = 6;
+    private final static int MATERIAL_BITS = 14;
+    private final static long SHADER_MASK = (1L << SHADER_BITS) - 1;
+    private final static long MATERIAL_MASK = (1L << MATERIAL_BITS) - 1;
+
+    /**
+     * 一个桶中的物体
+     */
+    private static class BucketList {
+        Geometry[] geometries = new Geometry[16];
+        long[] keys = new long[16];
+        int size;
+
+        void add(Geometry geom, long key) {
+            if (size == MAX_SIZE) {
+                throw new IllegalStateException("Too many geometries in render queue: " + size);
+            }
+            if (size == geometries.length) {
+                geometries = Arrays.copyOf(geometries, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            geometries[size] = geom;
+            keys[size] = key | size;
+            size++;
+        }
+
+        void sort() {
+            Arrays.sort(keys, 0, size);
+        }
+
+        Geometry get(int index) {
+            return geometries[(int) (keys[index] & INDEX_MASK)];
+        }
+
+        void clear() {
+            Arrays.fill(geometries, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private BucketList[] lists = new BucketList[BUCKETS.length];
+
+    // 本帧是否已经加入过依赖绘制顺序的物体
+    private boolean isOrdered = false;
+
+    private Vector3f tmp = new Vector3f();
+
+    public RenderQueue() {
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new BucketList();
+        }
+    }
+
+    /**
+     * 根据渲染状态选择渲染桶
+     * @param geom
+     * @return
+     */
+    public static Bucket getBucket(Geometry geom) {
+        Bucket bucket = geom.getQueueBucket();
+        if (bucket != null) {
+            return bucket;
+        }
+
+        RenderState renderState = geom.getMaterial().getRenderState();
+        if (renderState.getBlendMode() != BlendMode.OFF) {
+            return Bucket.TRANSPARENT;
+        }
+        if (!isOrderIndependent(renderState)) {
+            return Bucket.ORDERED;
+        }
+        if (renderState.isAlphaTest()) {
+            return Bucket.ALPHA_TEST;
+        }
+        return Bucket.OPAQUE;
+    }
+
+    /**
+     * 判断不透明物体的绘制顺序是否影响结果。
+     * 
+     * 深度比较函数为LESS或LESS_EQUAL，并且写入深度时，每个像素最终保留最近的片段，与绘制顺序无关。
+     * @param renderState
+     * @return
+     */
+    private static boolean isOrderIndependent(RenderState renderState) {
+        if (!renderState.isDepthTest() || !renderState.isDepthWrite()) {
+            return false;
+        }
+        DepthFunc func = renderState.getDepthFunc();
+        return func == DepthFunc.LESS || func == DepthFunc.LESS_EQUAL;
+    }
+
+    /**
+     * 把物体加入队列
+     * @param geom
+     * @param camera
+     */
+    public void add(Geometry geom, Camera camera) {
+        Bucket bucket = getBucket(geom);
+        if (bucket == Bucket.ORDERED) {
+            isOrdered = true;
+        } else if (isOrdered && geom.getQueueBucket() == null
+                && (bucket == Bucket.OPAQUE || bucket == Bucket.ALPHA_TEST)) {
+            // 不能绘制到前面依赖顺序的物体之前
+            bucket = Bucket.ORDERED;
+        }
+
+        long key;
+        switch (bucket) {
+        case OPAQUE:
+        case ALPHA_TEST:
+            key = getOpaqueKey(geom, camera);
+            break;
+        case TRANSPARENT:
+            key = getTransparentKey(geom, camera);
+            break;
+        default:
+            key = 0;
+        }
+        lists[bucket.ordinal()].add(geom, key);
+    }
+
+    /**
+     * 不透明物体的键
+     *
+     * 距离的浮点数位模式是单调的。高15位（指数和7位尾数，约1%的精度）放在最前面，然后是着色器和材质，最后是距离的其余位。
+     * 因此物体首先从前往后排列，距离相差不到1%的物体再按着色器和材质分组。
+     *
+     * 着色器类型和材质的编号在创建时分配，分别只保留低6位和低14位。
+     *
+     * 62     48 47    42 41      28 27      24 23   0
+     * [ 距离高位 ][ 着色器 ][  材质   ][ 距离低位 ][ 序号 ]
+     */
+    private long getOpaqueKey(Geometry geom, Camera camera) {
+        Material material = geom.getMaterial();
+        int distance = Float.floatToIntBits(getDistance(geom, camera));
+
+        long key = (long) (distance >>> 16) << 48;
+        key |= (material.getShader().getTypeId() & SHADER_MASK) << 42;
+        key |= (material.getId() & MATERIAL_MASK) << 28;
+        key |= (long) (distance >>> 12 & 0xF) << INDEX_BITS;
+        return key;
+    }
+
+    /**
+     * 半透明物体的键，只按距离从后往前排列。
+     *
+     * 62                 32 31   24 23   0
+     * [ 距离的位模式取反 ][  0  ][ 序号 ]
+     */
+    private long getTransparentKey(Geometry geom, Camera camera) {
+        int distance = Float.floatToIntBits(getDistance(geom, camera));
+        return (long) (Integer.MAX_VALUE - distance) << 32;
+    }
+
+    /**
+     * 计算物体的包围盒中心在观察方向上的距离，摄像机背后的物体视为0。
+     * @param geom
+     * @param camera
+     * @return
+     */
+    private float getDistance(Geometry geom, Camera camera) {
+        BoundingBox bound = geom.getWorldBound();
+        if (bound == null) {
+            return 0;
+        }
+        bound.getCenter().subtract(camera.getLocation(), tmp);
+        float distance = tmp.dot(camera.getDirection());
+        // 排除负数和NaN
+        return distance > 0 ? distance : 0;
+    }
+
+    /**
+     * 对所有桶排序
+     */
+    public void sort() {
+        for (int i = 0; i < lists.length; i++) {
+            lists[i].sort();
+        }
+    }
+
+    /**
+     * 获得桶中物体的数量
+     * @param bucket
+     * @return
+     */
+    public int size(Bucket bucket) {
+        return lists[bucket.ordinal()].size;
+    }
+
+    /**
+     * 获得桶中排序后的第index个物体
+     * @param bucket
+     * @param index
+     * @return
+     */
+    public Geometry get(Bucket bucket, int index) {
+        return lists[bucket.ordinal()].get(index);
+    }
+
+    /**
+     * 清空队列
+     */
+    public void clear() {
+        for (int i = 0; i < lists.length; i++) {
+            lists[i].clear();
+        }
+        isOrdered = false;
+    }
+}
@@ -1,19 +1,26 @@
 package net.jmecn.renderer;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import net.jmecn.light.Light;
 import net.jmecn.material.Material;
 import net.jmecn.material.RenderState.CullMode;
+import net.jmecn.renderer.Camera.FrustumIntersect;
+import net.jmecn.renderer.RenderQueue.Bucket;
 import net.jmecn.math.ColorRGBA;
 import net.jmecn.math.Matrix3f;
 import net.jmecn.math.Matrix4f;
 import net.jmecn.math.Vector3f;
+import net.jmecn.bounding.BoundingBox;
 import net.jmecn.scene.Geometry;
 import net.jmecn.scene.Mesh;
+import net.jmecn.scene.Node;
 import net.jmecn.scene.RasterizationVertex;
+import net.jmecn.scene.Spatial;
+import net.jmecn.scene.VaryingBuffer;
 import net.jmecn.scene.Vertex;
 import net.jmecn.shader.Shader;
 
@@ -33,13 +40,38 @@ public class Renderer {
     // 光源
     private List<Light> lights;
     
+    // 分块光栅器，为null时使用单线程光栅化。
+    private TileRasterizer tileRasterizer;
+    
+    // 是否使用包围体剔除视锥体之外的物体
+    private boolean isFrustumCulling = true;
+    // 本帧被剔除和实际绘制的物体数量
+    private int culledGeometries;
+    private int renderedGeometries;
+    private int culledNodes;
+    
+    // 遍历场景图时收集的可见物体，每帧重复使用。
+    private List<Geometry> visibleList = new ArrayList<Geometry>();
+    
+    // 渲染队列
+    private final static Bucket[] BUCKETS = Bucket.values();
+    private RenderQueue renderQueue = new RenderQueue();
+    // 是否按渲染队列排序物体
+    private boolean isQueueSorting = true;
+    // 本帧切换材质的次数
+    private int materialSwitches;
+    // 上一个物体的材质和着色器，相同时不必重新设置着色器。
+    private Material lastMaterial;
+    private Shader lastShader;
+    
     /**
      * 初始化渲染器
      * @param width
      * @param height
      */
     public Renderer(int width, int height) {
-        image = new Image(width, height);
+        // 使用与显示图像相同的像素格式，显示时不需要转换。
+        image = new Image(width, height, Image.Format.INT_ARGB);
         raster = new SoftwareRaster(this, image);
         
         // 计算视口变换矩阵
@@ -62,8 +94,114 @@ public class Renderer {
     public void clear() {
         raster.fill(clearColor);
         raster.clearDepthBuffer();
+        
+        // 重置统计
+        culledGeometries = 0;
+        renderedGeometries = 0;
+        culledNodes = 0;
+        materialSwitches = 0;
+        raster.resetStatistics();
+        if (tileRasterizer != null) {
+            tileRasterizer.resetStatistics();
+        }
+    }
+    
+    /**
+     * 获得本帧执行片段着色器的次数
+     * @return
+     */
+    public long getShadedFragments() {
+        long count = raster.getShadedFragments();
+        if (tileRasterizer != null) {
+            count += tileRasterizer.getShadedFragments();
+        }
+        return count;
+    }
+    
+    /**
+     * 获得本帧在片段着色器之前被深度测试剔除的片段数
+     * @return
+     */
+    public long getEarlyDepthRejected() {
+        long count = raster.getEarlyDepthRejected();
+        if (tileRasterizer != null) {
+            count += tileRasterizer.getEarlyDepthRejected();
+        }
+        return count;
+    }
+    
+    /**
+     * 获得本帧在片段着色器之后被深度测试剔除的片段数
+     * @return
+     */
+    public long getLateDepthRejected() {
+        long count = raster.getLateDepthRejected();
+        if (tileRasterizer != null) {
+            count += tileRasterizer.getLateDepthRejected();
+        }
+        return count;
     }
 
+    /**
+     * 获得本帧被视锥体剔除的物体数量
+     * @return
+     */
+    public int getCulledGeometries() {
+        return culledGeometries;
+    }
+    
+    /**
+     * 获得本帧实际绘制的物体数量
+     * @return
+     */
+    public int getRenderedGeometries() {
+        return renderedGeometries;
+    }
+    
+    /**
+     * 获得本帧遍历场景图时，整棵子树被剔除的节点数量
+     * @return
+     */
+    public int getCulledNodes() {
+        return culledNodes;
+    }
+    
+    /**
+     * 获得本帧切换材质的次数
+     * @return
+     */
+    public int getMaterialSwitches() {
+        return materialSwitches;
+    }
+    
+    /**
+     * 设置是否使用渲染队列排序物体
+     * 
+     * 开启时，不透明物体从前往后绘制，并按着色器和材质分组；半透明物体在不透明物体之后，从后往前绘制。
+     * 关闭时，按场景中的顺序绘制。
+     * 
+     * @param isQueueSorting
+     */
+    public void setQueueSorting(boolean isQueueSorting) {
+        this.isQueueSorting = isQueueSorting;
+    }
+    
+    public boolean isQueueSorting() {
+        return isQueueSorting;
+    }
+    
+    /**
+     * 设置是否使用包围体剔除视锥体之外的物体
+     * @param isFrustumCulling
+     */
+    public void setFrustumCulling(boolean isFrustumCulling) {
+        this.isFrustumCulling = isFrustumCulling;
+    }
+    
+    public boolean isFrustumCulling() {
+        return isFrustumCulling;
+    }
+    
     /**
      * 获得渲染好的图像
      * @return
@@ -72,6 +210,26 @@ public class Renderer {
         return image;
     }
 
+    /**
+     * 设置是否使用多线程分块光栅化
+     * @param tiled
+     */
+    public void setTiled(boolean tiled) {
+        if (tiled && tileRasterizer == null) {
+            tileRasterizer = new TileRasterizer(this, image, raster.getDepthBuffer(), ForkJoinPool.commonPool());
+        } else if (!tiled) {
+            tileRasterizer = null;
+        }
+    }
+    
+    /**
+     * 是否使用多线程分块光栅化
+     * @return
+     */
+    public boolean isTiled() {
+        return tileRasterizer != null;
+    }
+    
     /**
      * 获得光栅器
      * @return
@@ -97,6 +255,23 @@ public class Renderer {
     
     private Material material;
     
+    // 每个顶点占用的float数量
+    private final static int SIZE = RasterizationVertex.SIZE;
+    // 裁剪数组的初始容量。三角形经过6个平面裁剪，理论上最多得到9个顶点；
+    // 但是插值的浮点误差、w接近0或者NaN的顶点可能使一个平面增加不止一个顶点，因此数组在需要时扩容。
+    private final static int MAX_CLIP_VERTICES = 16;
+    
+    // 顶点着色器的输出
+    private VaryingBuffer varyings = new VaryingBuffer();
+    // 裁剪多边形时使用的临时数组
+    private float[] clipBuffer = new float[MAX_CLIP_VERTICES * SIZE];
+    private float[] auxillaryBuffer = new float[MAX_CLIP_VERTICES * SIZE];
+    
+    // 用于保存变换后的向量坐标，进行背面消隐。
+    private Vector3f v0 = new Vector3f();
+    private Vector3f v1 = new Vector3f();
+    private Vector3f v2 = new Vector3f();
+    
     /**
      * 视口变换矩阵
      */
@@ -134,35 +309,215 @@ public class Renderer {
     public void render(List<Geometry> geomList, Camera camera) {
         
         // 根据Camera初始化观察变换矩阵。
-        viewMatrix.set(camera.getViewMatrix());
-        projectionMatrix.set(camera.getProjectionMatrix());
-        viewProjectionMatrix.set(camera.getViewProjectionMatrix());
-        cameraPosition.set(camera.getLocation());
-        
-        // TODO 剔除那些不可见的物体
+        setCamera(camera);
         
         // 遍历场景中的Mesh
         for(int i=0; i<geomList.size(); i++) {
             Geometry geom = geomList.get(i);
             
-            // 根据物体的世界变换，计算MVP等变换矩阵。
-            worldMatrix.set(geom.getWorldTransform().toTransformMatrix());
-            viewMatrix.mult(worldMatrix, worldViewMatrix);
-            viewProjectionMatrix.mult(worldMatrix, worldViewProjectionMatrix);
+            // 使用包围体，剔除不可见物体
+            if (isFrustumCulling) {
+                camera.setPlaneState(0);
+                if (!isVisible(geom, camera)) {
+                    culledGeometries++;
+                    continue;
+                }
+            }
+            visibleList.add(geom);
+        }
+        
+        renderVisible(camera);
+    }
+    
+    /**
+     * 渲染场景图
+     * 
+     * 从根节点开始自顶向下遍历场景图，用节点的世界包围盒剔除物体。
+     * 节点完全位于视锥体外时，跳过整棵子树；完全位于某个视锥平面内侧时，子节点不再测试这个平面。
+     * 节点完全位于视锥体内，或者没有开启视锥体剔除时，直接使用节点保存的物体列表，不再遍历子树。
+     * 剔除之前先检查每个物体的网格包围体是否更新过，只有包含这些物体的节点才会重新计算包围盒。
+     * 
+     * @param scene
+     * @param camera
+     */
+    public void render(Spatial scene, Camera camera) {
+        
+        // 根据Camera初始化观察变换矩阵。
+        setCamera(camera);
+        
+        // 收集可见的物体
+        visibleList.clear();
+        if (isFrustumCulling) {
+            checkMeshBounds(scene);
+        }
+        camera.setPlaneState(0);
+        collectVisible(scene, camera);
+        
+        renderVisible(camera);
+    }
+    
+    /**
+     * 绘制收集到的可见物体
+     * @param camera
+     */
+    private void renderVisible(Camera camera) {
+        if (!isQueueSorting) {
+            for(int i=0; i<visibleList.size(); i++) {
+                Geometry geom = visibleList.get(i);
+                if (geom.getMesh() == null) {
+                    continue;
+                }
+                renderedGeometries++;
+                renderGeometry(geom);
+            }
+            visibleList.clear();
+            return;
+        }
+        
+        // 按渲染桶分组并排序
+        for(int i=0; i<visibleList.size(); i++) {
+            Geometry geom = visibleList.get(i);
+            if (geom.getMesh() != null) {
+                renderQueue.add(geom, camera);
+            }
+        }
+        visibleList.clear();
+        renderQueue.sort();
+        
+        for(int i=0; i<BUCKETS.length; i++) {
+            Bucket bucket = BUCKETS[i];
+            int size = renderQueue.size(bucket);
+            for(int j=0; j<size; j++) {
+                renderGeometry(renderQueue.get(bucket, j));
+            }
+            renderedGeometries += size;
+        }
+        renderQueue.clear();
+    }
+    
+    /**
+     * 检查场景中所有物体的网格包围体
+     * @param scene
+     */
+    private void checkMeshBounds(Spatial scene) {
+        if (scene instanceof Geometry) {
+            ((Geometry) scene).checkMeshBound();
+        } else if (scene instanceof Node) {
+            List<Geometry> geometries = ((Node) scene).getGeometries();
+            for(int i=0; i<geometries.size(); i++) {
+                geometries.get(i).checkMeshBound();
+            }
+        }
+    }
+    
+    /**
+     * 递归收集可见的物体
+     * @param spatial
+     * @param camera
+     */
+    private void collectVisible(Spatial spatial, Camera camera) {
+        if (spatial instanceof Geometry) {
+            Geometry geom = (Geometry) spatial;
+            if (geom.getMesh() == null) {
+                return;
+            }
+            if (isFrustumCulling && !isVisible(geom, camera)) {
+                culledGeometries++;
+                return;
+            }
+            visibleList.add(geom);
+        } else if (spatial instanceof Node) {
+            Node node = (Node) spatial;
             
-            // 计算法向量变换矩阵
-            worldMatrix.toRotationMatrix(normalMatrix);
-            // FIXME 先判断是否为正交矩阵，然后在决定是否要计算Invert、Transpose矩阵。
-            normalMatrix.invertLocal();
-            normalMatrix.transposeLocal();
+            int planeState = camera.getPlaneState();
+            if (isFrustumCulling) {
+                BoundingBox bound = node.getWorldBound();
+                if (bound == null) {
+                    // 子树中没有任何网格
+                    return;
+                }
+                if (camera.contains(bound) == FrustumIntersect.OUTSIDE) {
+                    culledNodes++;
+                    return;
+                }
+            }
             
-            // TODO 使用包围体，剔除不可见物体
+            if (!isFrustumCulling || camera.getPlaneState() == Camera.ALL_PLANES) {
+                // 整棵子树都可见
+                List<Geometry> geometries = node.getGeometries();
+                for(int i=0; i<geometries.size(); i++) {
+                    visibleList.add(geometries.get(i));
+                }
+                camera.setPlaneState(planeState);
+                return;
+            }
             
-            // 渲染
-            render(geom);
+            // 每个子节点都从父节点的测试结果开始
+            int childState = camera.getPlaneState();
+            List<Spatial> children = node.getChildren();
+            for(int i=0; i<children.size(); i++) {
+                camera.setPlaneState(childState);
+                collectVisible(children.get(i), camera);
+            }
+            camera.setPlaneState(planeState);
         }
     }
+    
+    /**
+     * 根据Camera初始化观察变换矩阵
+     * @param camera
+     */
+    private void setCamera(Camera camera) {
+        lastMaterial = null;
+        lastShader = null;
+        
+        viewMatrix.set(camera.getViewMatrix());
+        projectionMatrix.set(camera.getProjectionMatrix());
+        viewProjectionMatrix.set(camera.getViewProjectionMatrix());
+        cameraPosition.set(camera.getLocation());
+    }
+    
+    /**
+     * 计算物体的变换矩阵，然后渲染。
+     * @param geom
+     */
+    private void renderGeometry(Geometry geom) {
+        // 根据物体的世界变换，计算MVP等变换矩阵。
+        worldMatrix.set(geom.getWorldMatrix());
+        viewMatrix.mult(worldMatrix, worldViewMatrix);
+        viewProjectionMatrix.mult(worldMatrix, worldViewProjectionMatrix);
+        
+        // 计算法向量变换矩阵
+        worldMatrix.toRotationMatrix(normalMatrix);
+        // FIXME 先判断是否为正交矩阵，然后在决定是否要计算Invert、Transpose矩阵。
+        normalMatrix.invertLocal();
+        normalMatrix.transposeLocal();
+        
+        // 渲染
+        render(geom);
+    }
 
+    /**
+     * 判断物体是否在视锥体内
+     * 
+     * 先用包围球测试，包围球与视锥体相交时，再用更紧密的包围盒测试。
+     * 
+     * @param geom
+     * @param camera
+     * @return
+     */
+    private boolean isVisible(Geometry geom, Camera camera) {
+        if (geom.getWorldBound() == null) {
+            return false;
+        }
+        
+        FrustumIntersect result = camera.contains(geom.getWorldBoundingSphere());
+        if (result == FrustumIntersect.INTERSECTS) {
+            result = camera.contains(geom.getWorldBound());
+        }
+        return result != FrustumIntersect.OUTSIDE;
+    }
+    
     /**
      * 渲染单个物体
      * @param geometry
@@ -171,13 +526,21 @@ public class Renderer {
         
         // 设置材质
         this.material = geometry.getMaterial();
-        // 设置渲染状态
+        Shader shader = material.getShader();
+        
+        // 设置渲染状态，状态没有改变时光栅器会直接返回。
         this.raster.setRenderState(material.getRenderState());
         
-        // 设置着色器
-        Shader shader = material.getShader();
-        shader.setLights(lights);
-        raster.setShader(shader);
+        // 与上一个物体的材质和着色器都相同时，着色器不需要重新设置。
+        if (material != lastMaterial || shader != lastShader) {
+            lastMaterial = material;
+            lastShader = shader;
+            materialSwitches++;
+            
+            // 设置着色器
+            shader.setLights(lights);
+            raster.setShader(shader);
+        }
         
         // 设置全局变量
         shader.setWorldMatrix(worldMatrix);
@@ -189,27 +552,22 @@ public class Renderer {
         shader.setNormalMatrix(normalMatrix);
         shader.setCameraPosition(cameraPosition);
         
+        if (tileRasterizer != null) {
+            tileRasterizer.begin(material.getRenderState(), shader);
+        }
+        
         // 提取网格数据
         Mesh mesh = geometry.getMesh();
         int[] indexes = mesh.getIndexes();
         Vertex[] vertexes = mesh.getVertexes();
         
-        // 执行顶点着色器
-        RasterizationVertex[] verts = new RasterizationVertex[vertexes.length];
+        // 执行顶点着色器，输出的顶点数据按顺序保存在数组中。
+        varyings.setCount(vertexes.length);
+        float[] data = varyings.getData();
         for(int i = 0; i<vertexes.length; i++) {
-            verts[i] = shader.vertexShader(vertexes[i]);
+            shader.vertexShader(vertexes[i], data, varyings.getOffset(i));
         }
         
-        // 临时变量
-        // 用于保存变换后的向量坐标。
-        Vector3f v0 = new Vector3f();
-        Vector3f v1 = new Vector3f();
-        Vector3f v2 = new Vector3f();
-        // 用于光栅化
-        RasterizationVertex out0 = new RasterizationVertex();
-        RasterizationVertex out1 = new RasterizationVertex();
-        RasterizationVertex out2 = new RasterizationVertex();
-        
         // 遍历所有三角形
         for (int i = 0; i < indexes.length; i += 3) {
 
@@ -225,35 +583,65 @@ public class Renderer {
             if (cullBackFace(v0, v1, v2))
                 continue;
 
-            // 准备执行光栅化
-            // 为了避免在光栅化阶段
-            out0.copy(verts[idx0]);
-            out1.copy(verts[idx1]);
-            out2.copy(verts[idx2]);
+            int offset0 = varyings.getOffset(idx0);
+            int offset1 = varyings.getOffset(idx1);
+            int offset2 = varyings.getOffset(idx2);
             
             // 视锥体裁剪
-            if (out0.isValid() && out1.isValid() && out2.isValid()) {
-                raster.rasterizeTriangle(out0, out1, out2);
+            if (isInside(data, offset0) && isInside(data, offset1) && isInside(data, offset2)) {
+                rasterizeTriangle(data, offset0, offset1, offset2);
             } else {
                 
-                List<RasterizationVertex> vertices = new ArrayList<>();
-                List<RasterizationVertex> auxillaryList = new ArrayList<>();
+                System.arraycopy(data, offset0, clipBuffer, 0, SIZE);
+                System.arraycopy(data, offset1, clipBuffer, SIZE, SIZE);
+                System.arraycopy(data, offset2, clipBuffer, SIZE * 2, SIZE);
+                int count = 3;
                 
-                vertices.add(out0);
-                vertices.add(out1);
-                vertices.add(out2);
+                for (int axis = 0; axis < 3 && count > 0; axis++) {
+                    count = clipPolygonAxis(count, axis);
+                }
                 
-                if (clipPolygonAxis(vertices, auxillaryList, 0) &&
-                        clipPolygonAxis(vertices, auxillaryList, 1) &&
-                        clipPolygonAxis(vertices, auxillaryList, 2)) {
-                    
-                    RasterizationVertex initialVertex = vertices.get(0);
-                    for(int j = 1; j < vertices.size() - 1; j++) {
-                        raster.rasterizeTriangle(initialVertex, vertices.get(j), vertices.get(j+1));
-                    }
+                for(int j = 1; j < count - 1; j++) {
+                    rasterizeTriangle(clipBuffer, 0, j * SIZE, (j + 1) * SIZE);
                 }
             }
         }
+        
+        // 分块光栅化
+        if (tileRasterizer != null) {
+            tileRasterizer.flush();
+        }
+    }
+    
+    /**
+     * 光栅化三角形，分块模式下先把三角形交给分块光栅器。
+     * @param data 顶点数据
+     * @param a 第一个顶点的起始下标
+     * @param b 第二个顶点的起始下标
+     * @param c 第三个顶点的起始下标
+     */
+    private void rasterizeTriangle(float[] data, int a, int b, int c) {
+        if (tileRasterizer != null) {
+            tileRasterizer.add(data, a, b, c);
+        } else {
+            raster.rasterizeTriangle(data, a, b, c);
+        }
+    }
+    
+    /**
+     * 判断变换后的顶点是否在齐次空间内。
+     * @param data
+     * @param offset 顶点数据的起始下标
+     * @return
+     */
+    private boolean isInside(float[] data, int offset) {
+        float x = data[offset + RasterizationVertex.POSITION];
+        float y = data[offset + RasterizationVertex.POSITION + 1];
+        float z = data[offset + RasterizationVertex.POSITION + 2];
+        float w = Math.abs(data[offset + RasterizationVertex.POSITION + 3]);
+        return x > -w && x < w
+                && y > -w && y < w
+                && z > -w && z < w;
     }
     
     /**
@@ -294,60 +682,80 @@ public class Renderer {
     
     /**
      * 使用Sutherland-Hodgman算法，进行多边形裁剪。将三角形的各边与视锥平面进行相交，计算交点。
-     * @param vertices
-     * @param auxillaryList
+     * 多边形的顶点保存在clipBuffer中，裁剪结果也写回clipBuffer。
+     * @param count 多边形的顶点数
      * @param componentIndex
-     * @return
+     * @return 裁剪后的顶点数
      */
-    private boolean clipPolygonAxis(List<RasterizationVertex> vertices, List<RasterizationVertex> auxillaryList,
-            int componentIndex) {
+    private int clipPolygonAxis(int count, int componentIndex) {
+        // 每个平面最多使顶点数翻倍
+        ensureClipCapacity(count * 4);
+        
         // 右边
-        clipPolygonComponent(vertices, componentIndex, 1.0f, auxillaryList);
-        vertices.clear();
+        count = clipPolygonComponent(clipBuffer, count, componentIndex, 1.0f, auxillaryBuffer);
 
-        if(auxillaryList.isEmpty()) {
-            return false;
+        if(count == 0) {
+            return 0;
         }
 
         // 左边
-        clipPolygonComponent(auxillaryList, componentIndex, -1.0f, vertices);
-        auxillaryList.clear();
-
-        return !vertices.isEmpty();
+        return clipPolygonComponent(auxillaryBuffer, count, componentIndex, -1.0f, clipBuffer);
     }
     
-    private void clipPolygonComponent(List<RasterizationVertex> vertices, int componentIndex, 
-            float componentFactor, List<RasterizationVertex> result) {
-        RasterizationVertex previousVertex = vertices.get(vertices.size() - 1);
+    /**
+     * 保证裁剪数组能容纳指定数量的顶点
+     * @param vertexCount
+     */
+    private void ensureClipCapacity(int vertexCount) {
+        int length = vertexCount * SIZE;
+        if (clipBuffer.length < length) {
+            clipBuffer = Arrays.copyOf(clipBuffer, length);
+            auxillaryBuffer = Arrays.copyOf(auxillaryBuffer, length);
+        }
+    }
+    
+    private int clipPolygonComponent(float[] vertices, int count, int componentIndex, 
+            float componentFactor, float[] result) {
+        int resultCount = 0;
         
-        float previousComponent = previousVertex.position.get(componentIndex) * componentFactor;
-        boolean previousInside = previousComponent <= previousVertex.position.w;
+        int previous = (count - 1) * SIZE;
+        float previousW = vertices[previous + RasterizationVertex.POSITION + 3];
+        float previousComponent = vertices[previous + RasterizationVertex.POSITION + componentIndex] * componentFactor;
+        boolean previousInside = previousComponent <= previousW;
 
-        Iterator<RasterizationVertex> it = vertices.iterator();
-        while(it.hasNext()) {
-            RasterizationVertex currentVertex = it.next();
-            float currentComponent = currentVertex.position.get(componentIndex) * componentFactor;
-            boolean currentInside = currentComponent <= currentVertex.position.w;
+        for(int i = 0; i < count; i++) {
+            int current = i * SIZE;
+            float currentW = vertices[current + RasterizationVertex.POSITION + 3];
+            float currentComponent = vertices[current + RasterizationVertex.POSITION + componentIndex] * componentFactor;
+            boolean currentInside = currentComponent <= currentW;
 
             if(currentInside ^ previousInside) {
-                float lerpAmt = (previousVertex.position.w - previousComponent) /
-                    ((previousVertex.position.w - previousComponent) - 
-                     (currentVertex.position.w - currentComponent));
+                float lerpAmt = (previousW - previousComponent) /
+                    ((previousW - previousComponent) - 
+                     (currentW - currentComponent));
 
-                RasterizationVertex v = new RasterizationVertex();
-                v.interpolateLocal(previousVertex, currentVertex, lerpAmt);
-                result.add(v);
+                int out = resultCount * SIZE;
+                for (int k = 0; k < SIZE; k++) {
+                    float a = vertices[previous + k];
+                    float b = vertices[current + k];
+                    result[out + k] = (1 - lerpAmt) * a + lerpAmt * b;
+                }
+                resultCount++;
             }
 
             if(currentInside) {
-                result.add(currentVertex);
+                System.arraycopy(vertices, current, result, resultCount * SIZE, SIZE);
+                resultCount++;
             }
 
-            previousVertex = currentVertex;
+            previous = current;
+            previousW = currentW;
             previousComponent = currentComponent;
             previousInside = currentInside;
         }
-}
+        
+        return resultCount;
+    }
     
     public Matrix4f getViewportMatrix() {
         return viewportMatrix;
@@ -1,8 +1,14 @@
 package net.jmecn.renderer;
 
+import java.util.HashMap;
+
 import net.jmecn.material.RenderState;
+import net.jmecn.material.RenderState.BlendMode;
+import net.jmecn.material.RenderState.DepthFunc;
+import net.jmecn.material.RenderState.RasterMode;
 import net.jmecn.math.Matrix4f;
 import net.jmecn.math.Vector4f;
+import net.jmecn.renderer.Image.Format;
 import net.jmecn.scene.RasterizationVertex;
 import net.jmecn.shader.Shader;
 
@@ -16,7 +22,7 @@ public class SoftwareRaster extends ImageRaster {
     private final static float INV_SCALE = 1f / 255f;
     
     // 深度缓冲
-    protected float[] depthBuffer;
+    protected DepthBuffer depthBuffer;
 
     // 渲染器
     protected Renderer renderer;
@@ -24,8 +30,20 @@ public class SoftwareRaster extends ImageRaster {
     // 渲染状态
     protected RenderState renderState;
     
+    // 选择片段输出流程时渲染状态的版本号
+    private int renderStateVersion;
+    
+    /**
+     * 设置渲染状态，同时选择对应的片段输出流程。
+     * 渲染状态被修改后，下次绘制时会重新选择。
+     * @param renderState
+     */
     public void setRenderState(RenderState renderState) {
+        if (renderState == this.renderState && renderState.getVersion() == renderStateVersion) {
+            return;
+        }
         this.renderState = renderState;
+        updateEarlyDepthTest();
     }
     
     // 着色器
@@ -33,22 +51,493 @@ public class SoftwareRaster extends ImageRaster {
     
     public void setShader(Shader shader) {
         this.shader = shader;
+        this.isDerivatives = shader.isUseDerivatives();
+        updateEarlyDepthTest();
+    }
+    
+    // 片段着色器是否需要插值属性的导数
+    private boolean isDerivatives;
+    
+    // 是否在片段着色器之前进行深度测试
+    private boolean isEarlyDepthTest;
+    // 是否在片段着色器之前写入深度缓冲
+    private boolean isEarlyDepthWrite;
+    // 提前深度测试时，是否先用深度缓冲的图块范围剔除整段扫描线或整块像素
+    private boolean isTileDepthTest = true;
+    // 本次绘制是否进行图块剔除
+    private boolean isTileRejection;
+    
+    // 片段统计
+    private long shadedFragments;       // 执行片段着色器的次数
+    private long earlyDepthRejected;    // 在片段着色器之前被深度测试剔除的片段数
+    private long lateDepthRejected;     // 在片段着色器之后被深度测试剔除的片段数
+    
+    /**
+     * 根据渲染状态和着色器，判断能否提前进行深度测试。
+     * 
+     * 着色器不修改深度时，深度测试的结果与着色无关，可以先测试再着色，被遮挡的片段就不必执行片段着色器。
+     * 如果片段还可能被着色器或Alpha测试丢弃，只能在着色之后再写入深度。
+     */
+    private void updateEarlyDepthTest() {
+        if (renderState == null || shader == null) {
+            return;
+        }
+        
+        isEarlyDepthTest = renderState.isDepthTest() && renderState.isEarlyDepthTest() && !shader.isModifyDepth();
+        isEarlyDepthWrite = isEarlyDepthTest && renderState.isDepthWrite()
+                && !shader.isDiscard() && !renderState.isAlphaTest();
+        depthMask = getDepthMask(renderState.getDepthFunc());
+        isTileRejection = isEarlyDepthTest && isTileDepthTest;
+        
+        updatePixelKernel();
+        renderStateVersion = renderState.getVersion();
+    }
+    
+    /**
+     * 渲染状态在上次选择片段输出流程之后被修改过，重新选择。每次绘制之前调用。
+     */
+    private void checkRenderState() {
+        if (renderState.getVersion() != renderStateVersion) {
+            updateEarlyDepthTest();
+        }
+    }
+    
+    // 深度比较结果：新的深度小于、等于、大于旧的深度，或者无法比较（NaN）。
+    private final static int DEPTH_LESS = 1;
+    private final static int DEPTH_EQUAL = 2;
+    private final static int DEPTH_GREATER = 4;
+    private final static int DEPTH_UNORDERED = 8;
+    
+    // 当前深度测试模式允许通过的比较结果
+    private int depthMask;
+    
+    /**
+     * 把深度测试模式转换为允许通过的比较结果的集合
+     * @param func
+     * @return
+     */
+    private static int getDepthMask(DepthFunc func) {
+        switch (func) {
+        case ALWAYS:
+            return DEPTH_LESS | DEPTH_EQUAL | DEPTH_GREATER | DEPTH_UNORDERED;
+        case NEVER:
+            return 0;
+        case LESS:
+            return DEPTH_LESS;
+        case LESS_EQUAL:
+            return DEPTH_LESS | DEPTH_EQUAL;
+        case GREATER:
+            return DEPTH_GREATER;
+        case GREATER_EQUAL:
+            return DEPTH_GREATER | DEPTH_EQUAL;
+        case EQUAL:
+            return DEPTH_EQUAL;
+        case NOT_EQUAL:
+            return DEPTH_LESS | DEPTH_GREATER | DEPTH_UNORDERED;
+        }
+        return 0;
+    }
+    
+    /**
+     * 深度测试
+     * @param mask 允许通过的比较结果
+     * @param oldDepth
+     * @param newDepth
+     * @return
+     */
+    private static boolean depthTest(int mask, float oldDepth, float newDepth) {
+        int result;
+        if (newDepth < oldDepth) {
+            result = DEPTH_LESS;
+        } else if (newDepth > oldDepth) {
+            result = DEPTH_GREATER;
+        } else if (newDepth == oldDepth) {
+            result = DEPTH_EQUAL;
+        } else {
+            result = DEPTH_UNORDERED;
+        }
+        return (mask & result) != 0;
     }
     
+    /**
+     * 片段输出
+     * 
+     * 片段着色器之后的操作：深度测试、Alpha测试、颜色混合、写入深度缓冲和颜色缓冲。
+     * 每种颜色混合方式是一个final的子类，深度测试、Alpha测试和写入深度缓冲在混合之前执行，
+     * 是否需要这些操作由状态组合决定。逐像素执行时只有一次虚方法调用，不再读取渲染状态。
+     */
+    private abstract class PixelKernel {
+        private final boolean isLateDepthTest;
+        private final int lateDepthMask;
+        private final boolean isAlphaTest;
+        private final boolean isLateDepthWrite;
+        
+        /**
+         * @param key 状态组合的键，见 updatePixelKernel
+         */
+        PixelKernel(int key) {
+            isLateDepthTest = (key & KEY_LATE_DEPTH_TEST) != 0;
+            lateDepthMask = key >> KEY_DEPTH_MASK_SHIFT & 0xF;
+            isAlphaTest = (key & KEY_ALPHA_TEST) != 0;
+            isLateDepthWrite = (key & KEY_LATE_DEPTH_WRITE) != 0;
+        }
+        
+        /**
+         * 在片段着色器之后进行深度测试、Alpha测试，通过后写入深度缓冲。
+         * @param x
+         * @param y
+         * @param index 像素的下标
+         * @param frag 着色后的片段
+         * @return 片段是否通过测试
+         */
+        final boolean test(int x, int y, int index, RasterizationVertex frag) {
+            if (isLateDepthTest && !depthTest(lateDepthMask, depthBuffer.data[index], frag.position.z)) {
+                lateDepthRejected++;
+                return false;
+            }
+            if (isAlphaTest && frag.color.w < alphaFalloff) {
+                return false;
+            }
+            if (isLateDepthWrite) {
+                depthBuffer.write(x, y, index, frag.position.z);
+            }
+            return true;
+        }
+        
+        /**
+         * 输出片段
+         * @param x
+         * @param y
+         * @param index 像素的下标
+         * @param frag 着色后的片段
+         */
+        abstract void write(int x, int y, int index, RasterizationVertex frag);
+    }
+    
+    /**
+     * 把颜色分量转换为8位整数
+     * @param v
+     * @return
+     */
+    private static int toByte(float v) {
+        return (int)(clamp(v) * 0xFF);
+    }
+    
+    /**
+     * 把8位的Alpha转换为取值范围[0, 256]的权重，使255对应256，混合时可以用移位代替除以255。
+     * @param alpha
+     * @return
+     */
+    private static int toWeight(int alpha) {
+        return alpha + (alpha >> 7);
+    }
+    
+    /**
+     * 不混合，直接覆盖颜色缓冲中的RGB，保留原有的Alpha。颜色缓冲为INT_ARGB格式。
+     */
+    private final class OpaqueArgb extends PixelKernel {
+        OpaqueArgb(int key) {
+            super(key);
+        }
+        
+        @Override
+        void write(int x, int y, int index, RasterizationVertex frag) {
+            if (!test(x, y, index, frag)) {
+                return;
+            }
+            Vector4f src = frag.color;
+            pixels[index] = (pixels[index] & 0xFF000000)
+                    | toByte(src.x) << 16
+                    | toByte(src.y) << 8
+                    | toByte(src.z);
+        }
+    }
+    
+    /**
+     * 叠加混合，颜色缓冲为INT_ARGB格式。
+     * 
+     * 源颜色转换为8位整数后，与打包的目标颜色逐通道相加并饱和到255。
+     */
+    private final class AddArgb extends PixelKernel {
+        AddArgb(int key) {
+            super(key);
+        }
+        
+        @Override
+        void write(int x, int y, int index, RasterizationVertex frag) {
+            if (!test(x, y, index, frag)) {
+                return;
+            }
+            Vector4f src = frag.color;
+            int argb = pixels[index];
+            int r = Math.min((argb >> 16 & 0xFF) + toByte(src.x), 0xFF);
+            int g = Math.min((argb >> 8 & 0xFF) + toByte(src.y), 0xFF);
+            int b = Math.min((argb & 0xFF) + toByte(src.z), 0xFF);
+            pixels[index] = (argb & 0xFF000000) | r << 16 | g << 8 | b;
+        }
+    }
+    
+    /**
+     * Alpha混合，颜色缓冲为INT_ARGB格式。
+     * 
+     * dst + (src - dst) * alpha，使用8位定点数计算。R和B放在同一个int的高低16位中，一次乘法计算两个通道。
+     */
+    private final class AlphaBlendArgb extends PixelKernel {
+        AlphaBlendArgb(int key) {
+            super(key);
+        }
+        
+        @Override
+        void write(int x, int y, int index, RasterizationVertex frag) {
+            if (!test(x, y, index, frag)) {
+                return;
+            }
+            Vector4f src = frag.color;
+            int weight = toWeight(toByte(src.w));
+            int dst = pixels[index];
+            int srcRB = toByte(src.x) << 16 | toByte(src.z);
+            int srcG = toByte(src.y);
+            
+            // 两个通道之间留有8位的空隙，src - dst 为负数时借位不会影响另一个通道的结果。
+            int dstRB = dst & 0xFF00FF;
+            int dstG = dst >> 8 & 0xFF;
+            int rb = (dstRB + (((srcRB - dstRB) * weight + 0x800080) >> 8)) & 0xFF00FF;
+            int g = (dstG + (((srcG - dstG) * weight + 0x80) >> 8)) & 0xFF;
+            pixels[index] = (dst & 0xFF000000) | rb | g << 8;
+        }
+    }
+    
+    /**
+     * 预乘Alpha混合，颜色缓冲为INT_ARGB格式。
+     * 
+     * src + dst * (1 - alpha)，源颜色已经乘过Alpha。Alpha通道按同样的方式合成，
+     * 颜色缓冲中保存的也是预乘Alpha的结果。
+     */
+    private final class PremultipliedAlphaArgb extends PixelKernel {
+        PremultipliedAlphaArgb(int key) {
+            super(key);
+        }
+        
+        @Override
+        void write(int x, int y, int index, RasterizationVertex frag) {
+            if (!test(x, y, index, frag)) {
+                return;
+            }
+            Vector4f src = frag.color;
+            int alpha = toByte(src.w);
+            int inverse = 256 - toWeight(alpha);
+            int dst = pixels[index];
+            
+            int rb = ((dst & 0xFF00FF) * inverse + 0x800080) >> 8 & 0xFF00FF;
+            int ag = ((dst >>> 8 & 0xFF00FF) * inverse + 0x800080) >> 8 & 0xFF00FF;
+            
+            // 源颜色没有正确预乘时，结果可能超过255，需要饱和。
+            int a = Math.min((ag >> 16) + alpha, 0xFF);
+            int r = Math.min((rb >> 16) + toByte(src.x), 0xFF);
+            int g = Math.min((ag & 0xFF) + toByte(src.y), 0xFF);
+            int b = Math.min((rb & 0xFF) + toByte(src.z), 0xFF);
+            pixels[index] = a << 24 | r << 16 | g << 8 | b;
+        }
+    }
+    
+    /**
+     * 颜色混合，颜色缓冲为RGBA8格式。
+     */
+    private final class BlendComponents extends PixelKernel {
+        private final BlendMode blendMode;
+        
+        BlendComponents(int key, BlendMode blendMode) {
+            super(key);
+            this.blendMode = blendMode;
+        }
+        
+        @Override
+        void write(int x, int y, int index, RasterizationVertex frag) {
+            if (!test(x, y, index, frag)) {
+                return;
+            }
+            Vector4f srcColor = frag.color;
+            Vector4f destColor = getColor(x, y, SoftwareRaster.this.destColor);
+            
+            switch (blendMode) {
+            case OFF:
+                destColor.x = srcColor.x;
+                destColor.y = srcColor.y;
+                destColor.z = srcColor.z;
+                break;
+            case ADD:
+                destColor.x += srcColor.x;
+                destColor.y += srcColor.y;
+                destColor.z += srcColor.z;
+                break;
+            case ALPHA_BLEND:
+                destColor.x = destColor.x + (srcColor.x - destColor.x) * srcColor.w;
+                destColor.y = destColor.y + (srcColor.y - destColor.y) * srcColor.w;
+                destColor.z = destColor.z + (srcColor.z - destColor.z) * srcColor.w;
+                break;
+            case PREMULTIPLIED_ALPHA: {
+                float inverse = 1 - clamp(srcColor.w);
+                destColor.x = srcColor.x + destColor.x * inverse;
+                destColor.y = srcColor.y + destColor.y * inverse;
+                destColor.z = srcColor.z + destColor.z * inverse;
+                destColor.w = srcColor.w + destColor.w * inverse;
+                break;
+            }
+            }
+            
+            index *= 4;
+            components[index] = (byte)(clamp(destColor.x) * 0xFF);
+            components[index + 1] = (byte)(clamp(destColor.y) * 0xFF);
+            components[index + 2] = (byte)(clamp(destColor.z) * 0xFF);
+            components[index + 3] = (byte)(clamp(destColor.w) * 0xFF);
+        }
+    }
+    
+    // 状态组合的键：低3位是颜色混合方式，其余各位是下面的开关，后期深度测试时还包括允许通过的比较结果。
+    private final static int KEY_ARGB = 1 << 3;
+    private final static int KEY_LATE_DEPTH_WRITE = 1 << 4;
+    private final static int KEY_LATE_DEPTH_TEST = 1 << 5;
+    private final static int KEY_DEPTH_MASK_SHIFT = 6;
+    private final static int KEY_ALPHA_TEST = 1 << 10;
+    
+    // 按状态组合缓存的片段输出流程
+    private final HashMap<Integer, PixelKernel> pixelKernels = new HashMap<Integer, PixelKernel>();
+    // 当前使用的片段输出流程
+    private PixelKernel pixelKernel;
+    // Alpha测试的阈值，选择片段输出流程时从渲染状态读取，不属于状态组合。
+    private float alphaFalloff;
+    
+    /**
+     * 根据渲染状态选择片段输出流程。相同的状态组合共用同一个流程。
+     */
+    private void updatePixelKernel() {
+        BlendMode blendMode = renderState.getBlendMode();
+        boolean isArgb = format == Format.INT_ARGB;
+        boolean isLateDepthTest = renderState.isDepthTest() && !isEarlyDepthTest
+                && renderState.getDepthFunc() != DepthFunc.ALWAYS;
+        boolean isAlphaTest = renderState.isAlphaTest();
+        boolean isLateDepthWrite = renderState.isDepthWrite() && !isEarlyDepthWrite;
+        
+        int key = blendMode.ordinal()
+                | (isArgb ? KEY_ARGB : 0)
+                | (isLateDepthWrite ? KEY_LATE_DEPTH_WRITE : 0)
+                | (isLateDepthTest ? KEY_LATE_DEPTH_TEST | depthMask << KEY_DEPTH_MASK_SHIFT : 0)
+                | (isAlphaTest ? KEY_ALPHA_TEST : 0);
+        alphaFalloff = renderState.getAlphaFalloff();
+        
+        PixelKernel kernel = pixelKernels.get(key);
+        if (kernel == null) {
+            if (!isArgb) {
+                kernel = new BlendComponents(key, blendMode);
+            } else if (blendMode == BlendMode.ADD) {
+                kernel = new AddArgb(key);
+            } else if (blendMode == BlendMode.ALPHA_BLEND) {
+                kernel = new AlphaBlendArgb(key);
+            } else if (blendMode == BlendMode.PREMULTIPLIED_ALPHA) {
+                kernel = new PremultipliedAlphaArgb(key);
+            } else {
+                kernel = new OpaqueArgb(key);
+            }
+            pixelKernels.put(key, kernel);
+        }
+        pixelKernel = kernel;
+    }
+    
+    // 裁剪矩形，只有位于矩形内的像素才会被绘制。
+    protected int clipMinX, clipMinY;
+    protected int clipMaxX, clipMaxY;
+    
     public SoftwareRaster(Renderer renderer, Image image) {
+        this(renderer, image, new DepthBuffer(image.getWidth(), image.getHeight()));
+    }
+    
+    /**
+     * 初始化光栅器，与其他光栅器共享深度缓冲。
+     * @param renderer
+     * @param image
+     * @param depthBuffer
+     */
+    public SoftwareRaster(Renderer renderer, Image image, DepthBuffer depthBuffer) {
         super(image);
-        this.depthBuffer = new float[width * height];
+        this.depthBuffer = depthBuffer;
         this.renderer = renderer;
+        
+        setClipRect(0, 0, width - 1, height - 1);
+    }
+    
+    /**
+     * 设置裁剪矩形
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     */
+    public void setClipRect(int minX, int minY, int maxX, int maxY) {
+        this.clipMinX = Math.max(minX, 0);
+        this.clipMinY = Math.max(minY, 0);
+        this.clipMaxX = Math.min(maxX, width - 1);
+        this.clipMaxY = Math.min(maxY, height - 1);
+    }
+    
+    /**
+     * 获得深度缓冲
+     * @return
+     */
+    public DepthBuffer getDepthBuffer() {
+        return depthBuffer;
+    }
+    
+    /**
+     * 设置提前深度测试时是否使用图块剔除。关闭后仍然逐像素进行提前深度测试，渲染结果不变。
+     * @param isTileDepthTest
+     */
+    public void setTileDepthTest(boolean isTileDepthTest) {
+        this.isTileDepthTest = isTileDepthTest;
+        updateEarlyDepthTest();
+    }
+    
+    public boolean isTileDepthTest() {
+        return isTileDepthTest;
+    }
+    
+    /**
+     * 获得执行片段着色器的次数
+     * @return
+     */
+    public long getShadedFragments() {
+        return shadedFragments;
+    }
+    
+    /**
+     * 获得在片段着色器之前被深度测试剔除的片段数
+     * @return
+     */
+    public long getEarlyDepthRejected() {
+        return earlyDepthRejected;
+    }
+    
+    /**
+     * 获得在片段着色器之后被深度测试剔除的片段数
+     * @return
+     */
+    public long getLateDepthRejected() {
+        return lateDepthRejected;
+    }
+    
+    /**
+     * 重置片段统计
+     */
+    public void resetStatistics() {
+        shadedFragments = 0;
+        earlyDepthRejected = 0;
+        lateDepthRejected = 0;
     }
     
     /**
      * 清除深度缓冲
      */
     public void clearDepthBuffer() {
-        int length = width * height;
-        for(int i=0; i<length; i++) {
-            depthBuffer[i] = 1.0f;
-        }
+        depthBuffer.clear(1.0f);
     }
     
     /**
@@ -58,11 +547,37 @@ public class SoftwareRaster extends ImageRaster {
      * @param frag
      */
     public void rasterizePixel(int x, int y, RasterizationVertex frag) {
+        checkRenderState();
+        rasterizeFragment(x, y, frag);
+    }
+    
+    /**
+     * 光栅化一个片段，调用者负责检查渲染状态是否被修改过。
+     * @param x
+     * @param y
+     * @param frag
+     */
+    private void rasterizeFragment(int x, int y, RasterizationVertex frag) {
         
-        if (x < 0 || y < 0 || x >= width || y >= height) {
+        if (x < clipMinX || y < clipMinY || x > clipMaxX || y > clipMaxY) {
             return;
         }
         
+        int index = x + y * width;
+        
+        // 提前深度测试
+        if (isEarlyDepthTest) {
+            float depth = frag.position.z;
+            if (!depthTest(depthMask, depthBuffer.data[index], depth)) {
+                earlyDepthRejected++;
+                return;
+            }
+            
+            if (isEarlyDepthWrite) {
+                depthBuffer.write(x, y, index, depth);
+            }
+        }
+        
         // 透视投影修正
         float w = 1f / frag.position.w;
         frag.texCoord.multLocal(w);
@@ -72,86 +587,26 @@ public class SoftwareRaster extends ImageRaster {
         frag.worldSpacePosition.multLocal(w);
         
         // 执行片段着色器
+        shadedFragments++;
         if ( !shader.fragmentShader(frag) )
             return;
 
-        int index = x + y * width;
-        float depth = frag.position.z;
-        
-        // 深度测试
-        if (renderState.isDepthTest()) {
-            if (!depthTest(depthBuffer[index], depth))
-            return;
-        }
-        
-        // Alpha测试
-        if (renderState.isAlphaTest()) {
-            if (frag.color.w < renderState.getAlphaFalloff())
-                return;
-        }
-
-        // 颜色混合
-        Vector4f srcColor = frag.color;
-        Vector4f destColor = getColor(x, y);
-        
-        switch (renderState.getBlendMode()) {
-        case OFF:
-            destColor.x = srcColor.x;
-            destColor.y = srcColor.y;
-            destColor.z = srcColor.z;
-            break;
-        case ADD:
-            destColor.x += srcColor.x;
-            destColor.y += srcColor.y;
-            destColor.z += srcColor.z;
-            break;
-        case ALPHA_BLEND:
-            destColor.x = destColor.x + (srcColor.x - destColor.x) * srcColor.w;
-            destColor.y = destColor.y + (srcColor.y - destColor.y) * srcColor.w;
-            destColor.z = destColor.z + (srcColor.z - destColor.z) * srcColor.w;
-            break;
-        }
-        
-        destColor.x = clamp(destColor.x, 0, 1);
-        destColor.y = clamp(destColor.y, 0, 1);
-        destColor.z = clamp(destColor.z, 0, 1);
-        destColor.w = clamp(destColor.w, 0, 1);
-        
-        // 写入depthBuffer
-        if (renderState.isDepthWrite()) {
-            depthBuffer[index] = depth;
-        }
-        
-        // 写入frameBuffer
-        index *= 4;
-
-        components[index] = (byte)(destColor.x * 0xFF);
-        components[index + 1] = (byte)(destColor.y * 0xFF);
-        components[index + 2] = (byte)(destColor.z * 0xFF);
-        components[index + 3] = (byte)(destColor.w * 0xFF);
+        // 深度测试、Alpha测试、颜色混合，写入缓冲。
+        pixelKernel.write(x, y, index, frag);
     }
     
     /**
-     * 对齐
+     * 把颜色分量限制在[0, 1]之间
      * @param v
-     * @param min
-     * @param max
      * @return
      */
-    float clamp(float v, float min, float max) {
-        if (min > max) {
-            float tmp = max;
-            max = min;
-            min = tmp;
-        }
-        
-        if (v < min)
-            v = min;
-        if (v > max)
-            v = max;
-        return v;
+    private static float clamp(float v) {
+        return v < 0 ? 0 : (v > 1 ? 1 : v);
     }
     
+    // 颜色混合时用于保存目标颜色，避免为每个像素创建新的对象。
+    private Vector4f destColor = new Vector4f();
+    
     /**
      * 提取颜色
      * @param x
@@ -159,7 +614,25 @@ public class SoftwareRaster extends ImageRaster {
      * @return
      */
     public Vector4f getColor(int x, int y) {
-        Vector4f color = new Vector4f();
+        return getColor(x, y, new Vector4f());
+    }
+    
+    /**
+     * 提取颜色
+     * @param x
+     * @param y
+     * @param color 用于保存结果
+     * @return
+     */
+    public Vector4f getColor(int x, int y, Vector4f color) {
+        if (format == Format.INT_ARGB) {
+            int argb = pixels[x + y * width];
+            color.set((float)((argb >> 16) & 0xFF) * INV_SCALE,
+                    (float)((argb >> 8) & 0xFF) * INV_SCALE,
+                    (float)(argb & 0xFF) * INV_SCALE,
+                    (float)((argb >>> 24)) * INV_SCALE);
+            return color;
+        }
         
         int index = (x + y * width) * 4;
         float r = (float)(0xFF & components[index]) * INV_SCALE;
@@ -172,9 +645,67 @@ public class SoftwareRaster extends ImageRaster {
     }
 
     // 为了避免通过引用改变顶点的原始值，这里复制一份顶点数据，用于实际计算。
-    private RasterizationVertex v0 = new RasterizationVertex();
-    private RasterizationVertex v1 = new RasterizationVertex();
-    private RasterizationVertex v2 = new RasterizationVertex();
+    private RasterizationVertex v0 = createFragment();
+    private RasterizationVertex v1 = createFragment();
+    private RasterizationVertex v2 = createFragment();
+    
+    // 片段数据，光栅化时所有像素共用这个对象。
+    private RasterizationVertex frag = createFragment();
+    
+    // 最近一次计算导数的2x2像素块
+    private int quadX;
+    private int quadY;
+    
+    // 三角形插值属性的梯度
+    private Gradients gradients = new Gradients();
+    
+    // 三角形的深度范围
+    private float zMin;
+    private float zMax;
+    // 估算的深度范围向外放宽的量。逐像素插值的深度有舍入误差，可能略微超出估算的范围，
+    // 不放宽时EQUAL、LESS_EQUAL等测试会错误地剔除深度恰好相等的像素。
+    private float zTolerance;
+    
+    // 深度值在顶点数据中的下标
+    private final static int DEPTH = RasterizationVertex.POSITION + 2;
+    
+    /**
+     * 创建片段对象，包括保存导数的数组。
+     * @return
+     */
+    private static RasterizationVertex createFragment() {
+        RasterizationVertex frag = new RasterizationVertex();
+        frag.ddx = new float[RasterizationVertex.SIZE];
+        frag.ddy = new float[RasterizationVertex.SIZE];
+        return frag;
+    }
+    
+    /**
+     * 计算像素(x, y)所在2x2像素块的导数。同一个块内的像素共用计算结果。
+     * @param x
+     * @param y
+     */
+    private void updateDerivatives(int x, int y) {
+        int qx = x & ~1;
+        int qy = y & ~1;
+        if (qx != quadX || qy != quadY) {
+            quadX = qx;
+            quadY = qy;
+            gradients.derivatives(qx, qy, frag.ddx, frag.ddy);
+        }
+    }
+    
+    /**
+     * 点和线段没有导数，使用0。
+     */
+    private void clearDerivatives() {
+        for (int i = 0; i < RasterizationVertex.SIZE; i++) {
+            v0.ddx[i] = v0.ddy[i] = 0;
+            v1.ddx[i] = v1.ddy[i] = 0;
+            v2.ddx[i] = v2.ddy[i] = 0;
+            frag.ddx[i] = frag.ddy[i] = 0;
+        }
+    }
     
     /**
      * 光栅化三角形
@@ -188,6 +719,30 @@ public class SoftwareRaster extends ImageRaster {
         v1.copy(b);
         v2.copy(c);
         
+        drawTriangle();
+    }
+    
+    /**
+     * 光栅化三角形，顶点数据按 RasterizationVertex 中定义的下标保存在数组中。
+     * @param data 顶点数据
+     * @param a 第一个顶点的起始下标
+     * @param b 第二个顶点的起始下标
+     * @param c 第三个顶点的起始下标
+     */
+    public void rasterizeTriangle(float[] data, int a, int b, int c) {
+        v0.set(data, a);
+        v1.set(data, b);
+        v2.set(data, c);
+        
+        drawTriangle();
+    }
+    
+    /**
+     * 光栅化v0、v1、v2组成的三角形
+     */
+    private void drawTriangle() {
+        checkRenderState();
+        
         Matrix4f viewportMatrix = renderer.getViewportMatrix();
         
         // 把顶点位置修正到屏幕空间。
@@ -202,63 +757,48 @@ public class SoftwareRaster extends ImageRaster {
 
         switch (renderState.getFillMode()) {
         case POINT: {
-            rasterizePixel((int)v0.position.x, (int)v0.position.y, v0);
-            rasterizePixel((int)v1.position.x, (int)v1.position.y, v1);
-            rasterizePixel((int)v2.position.x, (int)v2.position.y, v2);
+            if (isDerivatives) {
+                clearDerivatives();
+            }
+            rasterizeFragment((int)v0.position.x, (int)v0.position.y, v0);
+            rasterizeFragment((int)v1.position.x, (int)v1.position.y, v1);
+            rasterizeFragment((int)v2.position.x, (int)v2.position.y, v2);
             return;
         }
         case LINE : {
+            if (isDerivatives) {
+                clearDerivatives();
+            }
             rasterizeLine(v0, v1);
             rasterizeLine(v0, v2);
             rasterizeLine(v1, v2);
             return;
         }
         case FACE : {
-            // 按Y坐标把三个顶点从上到下冒泡排序
-            RasterizationVertex tmp;
-            if (v0.position.y > v1.position.y) {
-                tmp = v0;
-                v0 = v1;
-                v1 = tmp;
+            // 半空间算法使用定点数坐标，插值属性也要按对齐后的坐标计算。
+            if (renderState.getRasterMode() == RasterMode.HALF_SPACE) {
+                snap(v0);
+                snap(v1);
+                snap(v2);
             }
-            if (v1.position.y > v2.position.y) {
-                tmp = v1;
-                v1 = v2;
-                v2 = tmp;
-            }
-            if (v0.position.y > v1.position.y) {
-                tmp = v0;
-                v0 = v1;
-                v1 = tmp;
+            
+            // 计算插值属性的梯度，退化的三角形不需要绘制。
+            if (!gradients.setup(v0, v1, v2)) {
+                return;
             }
             
-            float y0 = v0.position.y;
-            float y1 = v1.position.y;
-            float y2 = v2.position.y;
+            // 新的三角形需要重新计算导数
+            quadX = quadY = -1;
             
-            if (y0 == y1) {// 平顶
-                fillTopLineTriangle(v0, v1, v2);
-            } else if (y1 == y2) {// 平底
-                fillBottomLineTriangle(v0, v1, v2);
-            } else {// 分割三角形
-                
-                // 线性插值
-                // FIXME 需要透视校正
-                float t = (y1 - y0) / (y2 - y0);
-                RasterizationVertex middleVert = new RasterizationVertex();
-                middleVert.interpolateLocal(v0, v2, t);
-                
-                if (middleVert.position.x <= v1.position.x)  {// 左三角形
-                    // 画平底
-                    fillBottomLineTriangle(v0, middleVert, v1);
-                    // 画平顶
-                    fillTopLineTriangle(middleVert, v1, v2);
-                } else {// 右三角形
-                    // 画平底
-                    fillBottomLineTriangle(v0, v1, middleVert);
-                    // 画平顶
-                    fillTopLineTriangle(v1, middleVert, v2);
-                }
+            // 三角形的深度范围，用于层次深度测试。
+            zMin = Math.min(v0.position.z, Math.min(v1.position.z, v2.position.z));
+            zMax = Math.max(v0.position.z, Math.max(v1.position.z, v2.position.z));
+            zTolerance = 2 * gradients.getRoundingError(DEPTH, width, height);
+            
+            if (renderState.getRasterMode() == RasterMode.HALF_SPACE) {
+                fillTriangleHalfSpace(v0, v1, v2);
+            } else {
+                fillTriangleScanline(v0, v1, v2);
             }
             return;
         }
@@ -267,91 +807,297 @@ public class SoftwareRaster extends ImageRaster {
     }
 
     /**
-     * 画平底实心三角形
-     * @param v0 上顶点
-     * @param v1 底边左顶点
-     * @param v2 底边右顶点
+     * 使用扫描线算法填充三角形
+     * 
+     * 按Y坐标把三个顶点从上到下排序后，逐行计算扫描线与三角形左右两边的交点。
+     * 中间顶点以上的部分使用v0v1边，以下的部分使用v1v2边，另一侧总是v0v2边。
+     * 
+     * @param v0
+     * @param v1
+     * @param v2
      */
-    private void fillBottomLineTriangle(RasterizationVertex v0, RasterizationVertex v1, RasterizationVertex v2) {
-        int y0 = (int) Math.ceil(v0.position.y);
-        int y2 = (int) Math.ceil(v2.position.y);
+    private void fillTriangleScanline(RasterizationVertex v0, RasterizationVertex v1, RasterizationVertex v2) {
+        // 按Y坐标把三个顶点从上到下冒泡排序
+        RasterizationVertex tmp;
+        if (v0.position.y > v1.position.y) {
+            tmp = v0;
+            v0 = v1;
+            v1 = tmp;
+        }
+        if (v1.position.y > v2.position.y) {
+            tmp = v1;
+            v1 = v2;
+            v2 = tmp;
+        }
+        if (v0.position.y > v1.position.y) {
+            tmp = v0;
+            v0 = v1;
+            v1 = tmp;
+        }
         
-        for (int y = y0; y <y2; y++) {
-            if (y >= 0 && y < this.height) {
-                
-                // 插值生成左右顶点
-                // FIXME 需要透视校正
-                float t = (y - v0.position.y) / (v1.position.y - v0.position.y);
-                
-                RasterizationVertex vl = new RasterizationVertex();
-                vl.interpolateLocal(v0, v1, t);
-                RasterizationVertex vr = new RasterizationVertex();
-                vr.interpolateLocal(v0, v2, t);
-
-                //扫描线填充
-                rasterizeScanline(vl, vr, y);
+        float x0 = v0.position.x, y0 = v0.position.y;
+        float x1 = v1.position.x, y1 = v1.position.y;
+        float x2 = v2.position.x, y2 = v2.position.y;
+        
+        int yStart = (int) Math.ceil(y0);
+        int yEnd = (int) Math.ceil(y2);
+        
+        if (yStart < clipMinY) yStart = clipMinY;
+        if (yEnd > clipMaxY + 1) yEnd = clipMaxY + 1;
+        
+        for (int y = yStart; y < yEnd; y++) {
+            // 长边 v0v2 与扫描线的交点
+            float xa = x0 + (x2 - x0) * (y - y0) / (y2 - y0);
+            // 短边与扫描线的交点
+            float xb;
+            if (y < y1) {
+                xb = x0 + (x1 - x0) * (y - y0) / (y1 - y0);
+            } else {
+                xb = x1 + (x2 - x1) * (y - y1) / (y2 - y1);
+            }
+            
+            if (xa < xb) {
+                rasterizeScanline(xa, xb, y);
+            } else {
+                rasterizeScanline(xb, xa, y);
             }
         }
     }
-
+    
     /**
-     * 画平顶实心三角形
-     * @param v0 顶边左顶点
-     * @param v1 顶边右顶点
-     * @param v2 下顶点
+     * 光栅化扫描线
+     * @param left 扫描线左端点
+     * @param right 扫描线右端点
+     * @param y
      */
-    private void fillTopLineTriangle(RasterizationVertex v0, RasterizationVertex v1, RasterizationVertex v2) {
-        int y0 = (int) Math.ceil(v0.position.y);
-        int y2 = (int) Math.ceil(v2.position.y);
-
-        for (int y = y0; y < y2; y++) {
-            if (y >= 0 && y < this.height) {
-                // 插值生成左右顶点
-                // FIXME 需要透视校正
-                float t = (y - v0.position.y) / (v2.position.y - v0.position.y);
-                
-                RasterizationVertex vl = new RasterizationVertex();
-                vl.interpolateLocal(v0, v2, t);
-                RasterizationVertex vr = new RasterizationVertex();
-                vr.interpolateLocal(v1, v2, t);
-                
-                //扫描线填充
-                rasterizeScanline(vl, vr, y);
+    private void rasterizeScanline(float left, float right, int y) {
+        int x0 = (int) Math.ceil(left);
+        // 按照DirectX和OpenGL的光栅化规则，舍弃右下的顶点。
+        int x1 = (int) Math.floor(right);
+        
+        if (x0 < clipMinX) x0 = clipMinX;
+        if (x1 > clipMaxX) x1 = clipMaxX;
+        
+        if (x0 > x1) {
+            return;
+        }
+        
+        gradients.beginRow(y);
+        
+        if (!isTileRejection) {
+            for (int x = x0; x <= x1; x++) {
+                if (isDerivatives) {
+                    updateDerivatives(x, y);
+                }
+                gradients.interpolate(x, frag);
+                rasterizeFragment(x, y, frag);
+            }
+            return;
+        }
+        
+        // 按深度缓冲的图块把扫描线分段，整段都被遮挡时直接跳过。
+        int tileY = y >> DepthBuffer.TILE_SHIFT;
+        float dzdx = gradients.getDx(DEPTH);
+        while (x0 <= x1) {
+            int end = Math.min(x1, (x0 | (DepthBuffer.TILE_SIZE - 1)));
+            
+            float z0 = gradients.evaluate(DEPTH, x0, y);
+            float z1 = z0 + dzdx * (end - x0);
+            float min = Math.max(Math.min(z0, z1), zMin) - zTolerance;
+            float max = Math.min(Math.max(z0, z1), zMax) + zTolerance;
+            
+            if (!depthBuffer.isOccluded(x0 >> DepthBuffer.TILE_SHIFT, tileY, min, max, renderState.getDepthFunc())) {
+                for (int x = x0; x <= end; x++) {
+                    if (isDerivatives) {
+                        updateDerivatives(x, y);
+                    }
+                    gradients.interpolate(x, frag);
+                    rasterizeFragment(x, y, frag);
+                }
             }
+            x0 = end + 1;
         }
     }
     
+    // 半空间光栅化时，按块遍历包围盒。块的尺寸为 BLOCK_SIZE x BLOCK_SIZE，与深度缓冲的图块一致。
+    private final static int BLOCK_SHIFT = DepthBuffer.TILE_SHIFT;
+    private final static int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    
+    // 半空间光栅化时，顶点坐标对齐到 1/SUBPIXEL_SIZE 像素的网格上，使用定点数计算边函数。
+    private final static int SUBPIXEL_BITS = 4;
+    private final static int SUBPIXEL_SIZE = 1 << SUBPIXEL_BITS;
+    
     /**
-     * 光栅化扫描线
+     * 把顶点的屏幕坐标对齐到子像素网格
+     * @param v
+     */
+    private void snap(RasterizationVertex v) {
+        v.position.x = Math.round(v.position.x * SUBPIXEL_SIZE) / (float) SUBPIXEL_SIZE;
+        v.position.y = Math.round(v.position.y * SUBPIXEL_SIZE) / (float) SUBPIXEL_SIZE;
+    }
+    
+    /**
+     * 使用半空间(边函数)算法填充三角形
+     * 
+     * 对三角形的每条边构造边函数 E(x, y) = A * x + B * y + C，点位于三条边的内侧时即位于三角形内。
+     * 在包围盒内按8x8的块遍历：块的四个角都在某条边外侧时，整块跳过；四个角都在三条边内侧时，
+     * 块内的像素不再需要逐个测试。
+     * 
+     * 顶点坐标已经对齐到子像素网格，边函数使用整数计算，结果没有误差。配合严格的左上填充规则，
+     * 相邻三角形公共边上的像素只会被绘制一次，既不会重复着色，也不会出现裂缝。
+     * 
      * @param v0
      * @param v1
-     * @param y
+     * @param v2
      */
-    public void rasterizeScanline(RasterizationVertex v0, RasterizationVertex v1, int y) {
-        int x0 = (int) Math.ceil(v0.position.x);
-        // 按照DirectX和OpenGL的光栅化规则，舍弃右下的顶点。
-        int x1 = (int) Math.floor(v1.position.x);
+    private void fillTriangleHalfSpace(RasterizationVertex v0, RasterizationVertex v1, RasterizationVertex v2) {
+        // 定点数坐标
+        long x0 = Math.round(v0.position.x * SUBPIXEL_SIZE), y0 = Math.round(v0.position.y * SUBPIXEL_SIZE);
+        long x1 = Math.round(v1.position.x * SUBPIXEL_SIZE), y1 = Math.round(v1.position.y * SUBPIXEL_SIZE);
+        long x2 = Math.round(v2.position.x * SUBPIXEL_SIZE), y2 = Math.round(v2.position.y * SUBPIXEL_SIZE);
         
-        for (int x = x0; x <= x1; x++) {
-            if (x < 0 || x >= width)
-                continue;
-            
-            // 线性插值
-            // FIXME 需要透视校正
-            float t = (x - v0.position.x) / (v1.position.x - v0.position.x);
-            RasterizationVertex frag = new RasterizationVertex();
-            frag.interpolateLocal(v0, v1, t);
+        // 三角形面积的2倍，为负数时说明顶点是顺时针排列的，交换v1和v2使三角形统一为逆时针。
+        long area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        if (area == 0) {
+            return;
+        }
+        if (area < 0) {
+            long tmp = x1;
+            x1 = x2;
+            x2 = tmp;
+            tmp = y1;
+            y1 = y2;
+            y2 = tmp;
+        }
+        
+        // 计算包围盒，并裁剪到裁剪矩形内。
+        int minX = (int) ((Math.min(x0, Math.min(x1, x2)) + SUBPIXEL_SIZE - 1) >> SUBPIXEL_BITS);
+        int minY = (int) ((Math.min(y0, Math.min(y1, y2)) + SUBPIXEL_SIZE - 1) >> SUBPIXEL_BITS);
+        int maxX = (int) (Math.max(x0, Math.max(x1, x2)) >> SUBPIXEL_BITS);
+        int maxY = (int) (Math.max(y0, Math.max(y1, y2)) >> SUBPIXEL_BITS);
+        
+        if (minX < clipMinX) minX = clipMinX;
+        if (minY < clipMinY) minY = clipMinY;
+        if (maxX > clipMaxX) maxX = clipMaxX;
+        if (maxY > clipMaxY) maxY = clipMaxY;
+        
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+        
+        // 边函数系数，像素坐标(x, y)对应的定点数坐标为(x << SUBPIXEL_BITS, y << SUBPIXEL_BITS)。
+        long a0 = y1 - y2, b0 = x2 - x1, c0 = -a0 * x1 - b0 * y1;
+        long a1 = y2 - y0, b1 = x0 - x2, c1 = -a1 * x2 - b1 * y2;
+        long a2 = y0 - y1, b2 = x1 - x0, c2 = -a2 * x0 - b2 * y0;
+        
+        // 填充规则：像素中心恰好落在边上时，只有左边和上边才会被填充，避免相邻三角形重复绘制。
+        // 对于整数，e > 0 等价于 e >= 1。
+        long bias0 = isTopLeft(a0, b0) ? 0 : 1;
+        long bias1 = isTopLeft(a1, b1) ? 0 : 1;
+        long bias2 = isTopLeft(a2, b2) ? 0 : 1;
+        
+        // 每个像素的步长
+        long stepX0 = a0 << SUBPIXEL_BITS, stepY0 = b0 << SUBPIXEL_BITS;
+        long stepX1 = a1 << SUBPIXEL_BITS, stepY1 = b1 << SUBPIXEL_BITS;
+        long stepX2 = a2 << SUBPIXEL_BITS, stepY2 = b2 << SUBPIXEL_BITS;
+        
+        // 块内边函数的最大值和最小值一定出现在块的某个角上
+        long dx0 = stepX0 * (BLOCK_SIZE - 1), dy0 = stepY0 * (BLOCK_SIZE - 1);
+        long dx1 = stepX1 * (BLOCK_SIZE - 1), dy1 = stepY1 * (BLOCK_SIZE - 1);
+        long dx2 = stepX2 * (BLOCK_SIZE - 1), dy2 = stepY2 * (BLOCK_SIZE - 1);
+        
+        // 块与屏幕网格对齐
+        int startX = minX & ~(BLOCK_SIZE - 1);
+        int startY = minY & ~(BLOCK_SIZE - 1);
+        
+        for (int by = startY; by <= maxY; by += BLOCK_SIZE) {
+            int blockMaxY = by + BLOCK_SIZE - 1;
             
-            rasterizePixel(x, y, frag);
+            for (int bx = startX; bx <= maxX; bx += BLOCK_SIZE) {
+                int blockMaxX = bx + BLOCK_SIZE - 1;
+                
+                // 块左上角的边函数值
+                long e0 = stepX0 * bx + stepY0 * by + c0;
+                long e1 = stepX1 * bx + stepY1 * by + c1;
+                long e2 = stepX2 * bx + stepY2 * by + c2;
+                
+                long max0 = e0 + Math.max(dx0, 0) + Math.max(dy0, 0);
+                long max1 = e1 + Math.max(dx1, 0) + Math.max(dy1, 0);
+                long max2 = e2 + Math.max(dx2, 0) + Math.max(dy2, 0);
+                
+                // 整块都在某条边外侧，跳过
+                if (max0 < bias0 || max1 < bias1 || max2 < bias2) {
+                    continue;
+                }
+                
+                long min0 = e0 + Math.min(dx0, 0) + Math.min(dy0, 0);
+                long min1 = e1 + Math.min(dx1, 0) + Math.min(dy1, 0);
+                long min2 = e2 + Math.min(dx2, 0) + Math.min(dy2, 0);
+                
+                // 层次深度测试，整块都被遮挡时跳过。
+                if (isTileRejection) {
+                    float z = gradients.evaluate(DEPTH, bx, by);
+                    float dzx = gradients.getDx(DEPTH) * (BLOCK_SIZE - 1);
+                    float dzy = gradients.getDy(DEPTH) * (BLOCK_SIZE - 1);
+                    float min = Math.max(z + Math.min(dzx, 0) + Math.min(dzy, 0), zMin) - zTolerance;
+                    float max = Math.min(z + Math.max(dzx, 0) + Math.max(dzy, 0), zMax) + zTolerance;
+                    
+                    if (depthBuffer.isOccluded(bx >> BLOCK_SHIFT, by >> BLOCK_SHIFT, min, max, renderState.getDepthFunc())) {
+                        continue;
+                    }
+                }
+                
+                // 整块都在三角形内部，不需要再进行边测试
+                boolean accept = min0 >= bias0 && min1 >= bias1 && min2 >= bias2;
+                
+                int x0Block = Math.max(bx, minX);
+                int x1Block = Math.min(blockMaxX, maxX);
+                int y0Block = Math.max(by, minY);
+                int y1Block = Math.min(blockMaxY, maxY);
+                
+                for (int y = y0Block; y <= y1Block; y++) {
+                    long w0 = stepX0 * x0Block + stepY0 * y + c0;
+                    long w1 = stepX1 * x0Block + stepY1 * y + c1;
+                    long w2 = stepX2 * x0Block + stepY2 * y + c2;
+                    
+                    gradients.beginRow(y);
+                    for (int x = x0Block; x <= x1Block; x++) {
+                        if (accept || (w0 >= bias0 && w1 >= bias1 && w2 >= bias2)) {
+                            if (isDerivatives) {
+                                updateDerivatives(x, y);
+                            }
+                            gradients.interpolate(x, frag);
+                            rasterizeFragment(x, y, frag);
+                        }
+                        
+                        w0 += stepX0;
+                        w1 += stepX1;
+                        w2 += stepX2;
+                    }
+                }
+            }
         }
     }
     
+    /**
+     * 判断边是否为左边或上边。
+     * 边函数的梯度(a, b)指向三角形内部，屏幕空间的Y轴向下。
+     * @param a
+     * @param b
+     * @return
+     */
+    private boolean isTopLeft(long a, long b) {
+        return a > 0 || (a == 0 && b > 0);
+    }
+    
     /**
      * 光栅化线段，使用Bresenham算法。
      * @param v0
      * @param v1
      */
     public void rasterizeLine(RasterizationVertex v0, RasterizationVertex v1) {
+        checkRenderState();
+        
         int x = (int) v0.position.x;
         int y = (int) v0.position.y;
 
@@ -385,9 +1131,8 @@ public class SoftwareRaster extends ImageRaster {
             else
                 t = (x - v0.position.x) / (v1.position.x - v0.position.x);
             
-            RasterizationVertex frag = new RasterizationVertex();
             frag.interpolateLocal(v0, v1, t);
-            rasterizePixel(x, y, frag);
+            rasterizeFragment(x, y, frag);
             
             numerator += slowStep;
             if (numerator >= fastStep) {
@@ -405,36 +1150,10 @@ public class SoftwareRaster extends ImageRaster {
             else
                 t = (x - v0.position.x) / (v1.position.x - v0.position.x);
             
-            rasterizePixel(x, y, frag);
-        }
-    }
-    
-    /**
-     * 深度测试
-     * @param oldDepth
-     * @param newDepth
-     * @return
-     */
-    private boolean depthTest(float oldDepth, float newDepth) {
-        switch (renderState.getDepthFunc()) {
-        case ALWAYS:
-            return true;
-        case NEVER:
-            return false;
-        case LESS:
-            return newDepth < oldDepth;
-        case LESS_EQUAL:
-            return newDepth <= oldDepth;
-        case GREATER:
-            return newDepth > oldDepth;
-        case GREATER_EQUAL:
-            return newDepth >= oldDepth;
-        case EQUAL:
-            return newDepth == oldDepth;
-        case NOT_EQUAL:
-            return newDepth != oldDepth;
+            // 片段在光栅化时会被修改，需要重新插值。
+            frag.interpolateLocal(v0, v1, t);
+            rasterizeFragment(x, y, frag);
         }
-        return false;
     }
     
 //    /**
@@ -0,0 +1,369 @@
+package net.jmecn.renderer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.jmecn.material.RenderState;
+import net.jmecn.math.Matrix4f;
+import net.jmecn.math.Vector4f;
+import net.jmecn.scene.RasterizationVertex;
+import net.jmecn.shader.Shader;
+
+/**
+ * 分块光栅器
+ *
+ * 把屏幕划分为 TILE_SIZE x TILE_SIZE 的图块，每个图块使用独立的光栅器，只绘制图块内的像素。
+ * 经过裁剪的三角形先根据屏幕包围盒分配到它所覆盖的图块中（分箱），然后在ForkJoinPool中并行光栅化各个图块。
+ * 图块之间互不重叠，可以直接写入共享的图像和深度缓冲；每个图块内的三角形保持提交顺序，
+ * 因此渲染结果与单线程光栅化完全一致。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TileRasterizer {
+
+    // 图块的尺寸，必须是光栅化时块尺寸(8)的倍数，这样分块与否不影响像素的计算过程。
+    public final static int TILE_SIZE = 64;
+
+    // 每个分箱任务处理的三角形数量
+    private final static int BATCH_SIZE = 256;
+
+    // 每个三角形占用的float数量
+    private final static int STRIDE = RasterizationVertex.SIZE * 3;
+
+    private final Renderer renderer;
+    private final ForkJoinPool pool;
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+
+    // 图块
+    private final Tile[] tiles;
+    // 本次绘制中需要光栅化的图块
+    private final List<Tile> activeTiles = new ArrayList<Tile>();
+
+    // 分箱任务
+    private final List<Batch> batches = new ArrayList<Batch>();
+    private int batchCount;
+
+    // 待光栅化的三角形数据
+    private float[] triangles = new float[STRIDE * BATCH_SIZE];
+    private int triangleCount;
+
+    // 当前绘制使用的渲染状态和着色器
+    private RenderState renderState;
+    private Shader shader;
+
+    /**
+     * 初始化分块光栅器
+     * @param renderer
+     * @param image 共享的图像
+     * @param depthBuffer 共享的深度缓冲
+     * @param pool 线程池
+     */
+    public TileRasterizer(Renderer renderer, Image image, DepthBuffer depthBuffer, ForkJoinPool pool) {
+        this.renderer = renderer;
+        this.pool = pool;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        tiles = new Tile[tilesX * tilesY];
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                SoftwareRaster raster = new SoftwareRaster(renderer, image, depthBuffer);
+                raster.setClipRect(tx * TILE_SIZE, ty * TILE_SIZE,
+                        (tx + 1) * TILE_SIZE - 1, (ty + 1) * TILE_SIZE - 1);
+                tiles[tx + ty * tilesX] = new Tile(tx + ty * tilesX, raster);
+            }
+        }
+    }
+
+    /**
+     * 开始绘制一个物体
+     * @param renderState
+     * @param shader
+     */
+    public void begin(RenderState renderState, Shader shader) {
+        this.renderState = renderState;
+        this.shader = shader;
+        this.triangleCount = 0;
+    }
+
+    /**
+     * 添加一个经过裁剪的三角形
+     * @param a
+     * @param b
+     * @param c
+     */
+    public void add(RasterizationVertex a, RasterizationVertex b, RasterizationVertex c) {
+        int offset = reserve();
+        a.get(triangles, offset);
+        b.get(triangles, offset + RasterizationVertex.SIZE);
+        c.get(triangles, offset + RasterizationVertex.SIZE * 2);
+    }
+
+    /**
+     * 添加一个经过裁剪的三角形，顶点数据按 RasterizationVertex 中定义的下标保存在数组中。
+     * @param data 顶点数据
+     * @param a 第一个顶点的起始下标
+     * @param b 第二个顶点的起始下标
+     * @param c 第三个顶点的起始下标
+     */
+    public void add(float[] data, int a, int b, int c) {
+        int offset = reserve();
+        System.arraycopy(data, a, triangles, offset, RasterizationVertex.SIZE);
+        System.arraycopy(data, b, triangles, offset + RasterizationVertex.SIZE, RasterizationVertex.SIZE);
+        System.arraycopy(data, c, triangles, offset + RasterizationVertex.SIZE * 2, RasterizationVertex.SIZE);
+    }
+
+    /**
+     * 为新的三角形分配空间
+     * @return 三角形数据的起始下标
+     */
+    private int reserve() {
+        int offset = triangleCount * STRIDE;
+        if (offset + STRIDE > triangles.length) {
+            float[] data = new float[triangles.length * 2];
+            System.arraycopy(triangles, 0, data, 0, offset);
+            triangles = data;
+        }
+        triangleCount++;
+        return offset;
+    }
+
+    /**
+     * 对添加的三角形进行分箱，然后并行光栅化所有图块。
+     */
+    public void flush() {
+        if (triangleCount == 0) {
+            return;
+        }
+
+        // 准备分箱任务
+        batchCount = (triangleCount + BATCH_SIZE - 1) / BATCH_SIZE;
+        while (batches.size() < batchCount) {
+            batches.add(new Batch());
+        }
+        for (int i = 0; i < batchCount; i++) {
+            Batch batch = batches.get(i);
+            batch.reinitialize();
+            batch.start = i * BATCH_SIZE;
+            batch.end = Math.min(triangleCount, batch.start + BATCH_SIZE);
+        }
+
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                // 分箱
+                invokeAll(batches.subList(0, batchCount));
+
+                // 找出需要光栅化的图块
+                activeTiles.clear();
+                for (int i = 0; i < tiles.length; i++) {
+                    Tile tile = tiles[i];
+                    for (int j = 0; j < batchCount; j++) {
+                        if (batches.get(j).counts[tile.index] > 0) {
+                            tile.reinitialize();
+                            activeTiles.add(tile);
+                            break;
+                        }
+                    }
+                }
+
+                // 光栅化
+                invokeAll(activeTiles);
+            }
+        });
+
+        triangleCount = 0;
+    }
+
+    /**
+     * 获得所有图块执行片段着色器的次数
+     * @return
+     */
+    public long getShadedFragments() {
+        long count = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            count += tiles[i].raster.getShadedFragments();
+        }
+        return count;
+    }
+    
+    /**
+     * 获得所有图块在片段着色器之前被深度测试剔除的片段数
+     * @return
+     */
+    public long getEarlyDepthRejected() {
+        long count = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            count += tiles[i].raster.getEarlyDepthRejected();
+        }
+        return count;
+    }
+    
+    /**
+     * 获得所有图块在片段着色器之后被深度测试剔除的片段数
+     * @return
+     */
+    public long getLateDepthRejected() {
+        long count = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            count += tiles[i].raster.getLateDepthRejected();
+        }
+        return count;
+    }
+    
+    /**
+     * 重置片段统计
+     */
+    public void resetStatistics() {
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i].raster.resetStatistics();
+        }
+    }
+
+    /**
+     * 分箱任务，把一批三角形分配到它们覆盖的图块中。
+     */
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // 三角形的范围
+        int start;
+        int end;
+
+        // 每个图块中的三角形序号
+        final int[][] bins = new int[tiles.length][];
+        final int[] counts = new int[tiles.length];
+
+        private final Vector4f screen = new Vector4f();
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 0;
+            }
+
+            Matrix4f viewportMatrix = renderer.getViewportMatrix();
+
+            for (int i = start; i < end; i++) {
+                int offset = i * STRIDE;
+
+                // 计算三角形在屏幕空间的包围盒
+                float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+                boolean valid = true;
+                for (int j = 0; j < 3; j++) {
+                    int v = offset + j * RasterizationVertex.SIZE + RasterizationVertex.POSITION;
+                    screen.set(triangles[v], triangles[v + 1], triangles[v + 2], triangles[v + 3]);
+                    viewportMatrix.mult(screen, screen);
+                    if (screen.w <= 0) {
+                        valid = false;
+                        break;
+                    }
+                    float x = screen.x / screen.w;
+                    float y = screen.y / screen.w;
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+
+                int tx0, ty0, tx1, ty1;
+                if (valid) {
+                    // 向外扩展一个像素，避免舍入误差漏掉边缘的图块。
+                    tx0 = clamp((int) Math.floor(minX) - 1, width) / TILE_SIZE;
+                    ty0 = clamp((int) Math.floor(minY) - 1, height) / TILE_SIZE;
+                    tx1 = clamp((int) Math.ceil(maxX) + 1, width) / TILE_SIZE;
+                    ty1 = clamp((int) Math.ceil(maxY) + 1, height) / TILE_SIZE;
+                } else {
+                    tx0 = ty0 = 0;
+                    tx1 = tilesX - 1;
+                    ty1 = tilesY - 1;
+                }
+
+                for (int ty = ty0; ty <= ty1; ty++) {
+                    for (int tx = tx0; tx <= tx1; tx++) {
+                        add(tx + ty * tilesX, i);
+                    }
+                }
+            }
+        }
+
+        private int clamp(int v, int size) {
+            if (v < 0)
+                return 0;
+            if (v > size - 1)
+                return size - 1;
+            return v;
+        }
+
+        private void add(int tile, int triangle) {
+            int[] bin = bins[tile];
+            int count = counts[tile];
+            if (bin == null) {
+                bin = bins[tile] = new int[16];
+            } else if (count == bin.length) {
+                int[] data = new int[bin.length * 2];
+                System.arraycopy(bin, 0, data, 0, count);
+                bin = bins[tile] = data;
+            }
+            bin[count] = triangle;
+            counts[tile] = count + 1;
+        }
+    }
+
+    /**
+     * 图块，按提交顺序光栅化分配到这个图块的三角形。
+     */
+    private class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int index;
+        final SoftwareRaster raster;
+
+        // 上一次绘制使用的着色器，和这个图块为它创建的副本
+        Shader source;
+        Shader copy;
+
+        Tile(int index, SoftwareRaster raster) {
+            this.index = index;
+            this.raster = raster;
+        }
+
+        @Override
+        protected void compute() {
+            raster.setRenderState(renderState);
+            // 片段着色器可能使用成员变量保存中间结果，每个图块使用自己的副本。
+            // 着色器不变时继续使用原来的副本，只更新uniform变量。
+            if (shader != source) {
+                source = shader;
+                copy = shader.clone();
+            } else {
+                copy.copyUniforms(shader);
+            }
+            raster.setShader(copy);
+
+            for (int i = 0; i < batchCount; i++) {
+                Batch batch = batches.get(i);
+                int[] bin = batch.bins[index];
+                int count = batch.counts[index];
+                for (int j = 0; j < count; j++) {
+                    int offset = bin[j] * STRIDE;
+                    raster.rasterizeTriangle(triangles, offset,
+                            offset + RasterizationVertex.SIZE, offset + RasterizationVertex.SIZE * 2);
+                }
+            }
+        }
+    }
+}
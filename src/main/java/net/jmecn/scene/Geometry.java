@@ -1,6 +1,10 @@
 package net.jmecn.scene;
 
+import net.jmecn.bounding.BoundingBox;
+import net.jmecn.bounding.BoundingSphere;
 import net.jmecn.material.Material;
+import net.jmecn.math.Transform;
+import net.jmecn.renderer.RenderQueue.Bucket;
 
 /**
  * 3D几何物体类，它是被渲染的最基本单元。
@@ -13,6 +17,15 @@ public class Geometry extends Spatial {
     private Mesh mesh;
     private Material material;
     
+    // 计算包围盒时网格包围体的版本号
+    private int meshBoundVersion;
+    
+    // 世界空间的包围球，包围盒保存在Spatial中。
+    private BoundingSphere worldBoundingSphere = new BoundingSphere();
+    
+    // 渲染桶，为null时根据材质的渲染状态自动选择。
+    private Bucket queueBucket;
+    
     public Geometry() {}
     
     public Geometry(Mesh mesh) {
@@ -30,8 +43,43 @@ public class Geometry extends Spatial {
 
     public void setMesh(Mesh mesh) {
         this.mesh = mesh;
+        if (mesh != null) {
+            meshBoundVersion = mesh.getBoundVersion();
+        }
+        setBoundRefresh();
+    }
+    
+    /**
+     * 检查网格的包围体是否被重新计算过，是则把自己和所有父节点的包围盒标记为需要更新。
+     * 
+     * 修改网格并调用 Mesh.updateBound 之后，在使用父节点的包围盒之前需要先调用这个方法，
+     * Renderer 每帧剔除之前会检查场景中所有的物体。
+     */
+    public void checkMeshBound() {
+        if (mesh != null && mesh.getBoundVersion() != meshBoundVersion) {
+            meshBoundVersion = mesh.getBoundVersion();
+            setBoundRefresh();
+        }
+    }
+    
+    @Override
+    public BoundingBox getWorldBound() {
+        checkMeshBound();
+        return super.getWorldBound();
     }
 
+    public Bucket getQueueBucket() {
+        return queueBucket;
+    }
+    
+    /**
+     * 设置渲染桶
+     * @param queueBucket 为null时根据材质的渲染状态自动选择
+     */
+    public void setQueueBucket(Bucket queueBucket) {
+        this.queueBucket = queueBucket;
+    }
+    
     public Material getMaterial() {
         return material;
     }
@@ -39,4 +87,26 @@ public class Geometry extends Spatial {
     public void setMaterial(Material mat) {
         this.material = mat;
     }
+    
+    /**
+     * 根据世界变换，计算世界空间的包围盒和包围球。
+     */
+    @Override
+    protected boolean updateWorldBound() {
+        if (mesh == null) {
+            return false;
+        }
+        Transform transform = getWorldTransform();
+        mesh.getBoundingBox().transform(transform, worldBound);
+        mesh.getBoundingSphere().transform(transform, worldBoundingSphere);
+        return true;
+    }
+    
+    /**
+     * 获得世界空间的包围球，需要时重新计算。
+     * @return 没有网格时返回null
+     */
+    public BoundingSphere getWorldBoundingSphere() {
+        return getWorldBound() != null ? worldBoundingSphere : null;
+    }
 }
\ No newline at end of file
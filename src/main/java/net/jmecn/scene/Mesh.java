@@ -1,5 +1,7 @@
 package net.jmecn.scene;
 
+import net.jmecn.bounding.BoundingBox;
+import net.jmecn.bounding.BoundingSphere;
 import net.jmecn.math.Vector2f;
 import net.jmecn.math.Vector3f;
 import net.jmecn.math.Vector4f;
@@ -19,6 +21,18 @@ public class Mesh {
      * 顶点索引
      */
     protected int[] indexes;
+    
+    /**
+     * 模型空间的包围盒和包围球，第一次使用时计算。
+     */
+    private BoundingBox boundingBox;
+    private BoundingSphere boundingSphere;
+    
+    /**
+     * 包围体的版本号，每次调用 updateBound 之后增加。物体记录了计算世界包围盒时的版本号，
+     * 不同时就更新自己和父节点的包围盒，因此修改网格之后不需要找出所有使用它的物体。
+     */
+    private int boundVersion;
 
 
     public Vertex[] getVertexes() {
@@ -29,6 +43,54 @@ public class Mesh {
         return indexes;
     }
     
+    /**
+     * 获得模型空间的包围盒
+     * @return
+     */
+    public BoundingBox getBoundingBox() {
+        if (boundingBox == null) {
+            computeBound();
+        }
+        return boundingBox;
+    }
+    
+    /**
+     * 获得模型空间的包围球
+     * @return
+     */
+    public BoundingSphere getBoundingSphere() {
+        if (boundingSphere == null) {
+            computeBound();
+        }
+        return boundingSphere;
+    }
+    
+    /**
+     * 根据顶点位置重新计算包围体。修改顶点位置之后需要调用，使用这个网格的物体会在下次使用时更新世界包围盒。
+     */
+    public void updateBound() {
+        computeBound();
+        boundVersion++;
+    }
+    
+    /**
+     * 获得包围体的版本号
+     * @return
+     */
+    public int getBoundVersion() {
+        return boundVersion;
+    }
+    
+    private void computeBound() {
+        BoundingBox box = new BoundingBox();
+        box.computeFromPoints(vertexes);
+        BoundingSphere sphere = new BoundingSphere();
+        sphere.computeFromPoints(vertexes);
+        
+        boundingBox = box;
+        boundingSphere = sphere;
+    }
+    
     public Mesh() {
     }
     
@@ -3,8 +3,16 @@ package net.jmecn.scene;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.jmecn.bounding.BoundingBox;
+
 /**
  * 节点
+ * 
+ * 节点的包围盒是所有子节点包围盒的并集。
+ * 
+ * 节点还保存了子树中所有物体的列表，添加或移除子节点时标记为需要更新，下次使用时再重新生成。
+ * 场景不变时，每帧获取物体列表不需要遍历场景图，也不会分配内存。
+ * 
  * @author yanmaoyuan
  *
  */
@@ -12,47 +20,127 @@ public class Node extends Spatial {
 
     private List<Spatial> children;
     
+    // 子树中的所有物体
+    private List<Geometry> geometries;
+    
     public Node() {
         children = new ArrayList<Spatial>();
+        geometries = new ArrayList<Geometry>();
+        refreshFlags |= RF_GEOMETRY_LIST;
     }
     
     /**
-     * 添加子节点
+     * 添加子节点。如果它已经属于其他节点，会先从原来的节点中移除。
      * @param spatial
      */
     public void attachChild(Spatial spatial) {
+        if (spatial.getParent() != null) {
+            spatial.removeFromParent();
+        }
         children.add(spatial);
         spatial.setParent(this);
+        setBoundRefresh();
+        setGeometryListRefresh();
     }
     /**
      * 移除子节点
      * @param spatial
      */
     public void detachChild(Spatial spatial) {
-        children.remove(spatial);
+        if (children.remove(spatial)) {
+            spatial.setParent(null);
+            setBoundRefresh();
+            setGeometryListRefresh();
+        }
+    }
+    
+    /**
+     * 获得子节点列表，不要直接修改这个列表。
+     * @return
+     */
+    public List<Spatial> getChildren() {
+        return children;
     }
 
     /**
-     * 遍历场景，获取所有Geometry
-     * @param list
+     * 获取子树中的所有Geometry，添加到list中。
+     * @param list 为null时创建一个新的列表
      * @return
      */
     public List<Geometry> getGeometryList(List<Geometry> list) {
         if (list == null) {
             list = new ArrayList<Geometry>();
         }
+        list.addAll(getGeometries());
+        return list;
+    }
+    
+    /**
+     * 获得子树中的所有Geometry，按深度优先的顺序排列。需要时重新生成，不要修改这个列表。
+     * @return
+     */
+    public List<Geometry> getGeometries() {
+        if ((refreshFlags & RF_GEOMETRY_LIST) != 0) {
+            geometries.clear();
+            int len = children.size();
+            for(int i=0; i<len; i++) {
+                Spatial spatial = children.get(i);
+                if (spatial instanceof Geometry) {
+                    geometries.add((Geometry) spatial);
+                } else if (spatial instanceof Node) {
+                    geometries.addAll(((Node) spatial).getGeometries());
+                }
+            }
+            refreshFlags &= ~RF_GEOMETRY_LIST;
+        }
+        return geometries;
+    }
+    
+    /**
+     * 子节点改变了，自己和所有父节点的物体列表都需要更新。
+     * 
+     * 与包围盒一样，被标记的节点，它的所有父节点也一定被标记过。
+     */
+    private void setGeometryListRefresh() {
+        Node node = this;
+        while (node != null && (node.refreshFlags & RF_GEOMETRY_LIST) == 0) {
+            node.refreshFlags |= RF_GEOMETRY_LIST;
+            node = node.getParent();
+        }
+    }
+    
+    /**
+     * 合并所有子节点的包围盒
+     */
+    @Override
+    protected boolean updateWorldBound() {
+        boolean hasBound = false;
         int len = children.size();
-        for(int i=0; i<len; i++) {
-            Spatial spatial = children.get(i);
-            if (spatial instanceof Geometry) {
-                list.add((Geometry) spatial);
-            } else if (spatial instanceof Node) {
-                // 递归
-                Node node = (Node) spatial;
-                node.getGeometryList(list);
+        for (int i = 0; i < len; i++) {
+            BoundingBox bound = children.get(i).getWorldBound();
+            if (bound == null) {
+                continue;
+            }
+            
+            if (hasBound) {
+                worldBound.mergeLocal(bound);
+            } else {
+                worldBound.set(bound);
+                hasBound = true;
             }
         }
-        
-        return list;
+        return hasBound;
+    }
+    
+    @Override
+    protected boolean markTransformRefresh() {
+        if (!super.markTransformRefresh()) {
+            return false;
+        }
+        int len = children.size();
+        for (int i = 0; i < len; i++) {
+            children.get(i).markTransformRefresh();
+        }
+        return true;
     }
 }
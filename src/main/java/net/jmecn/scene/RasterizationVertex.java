@@ -12,6 +12,15 @@ import net.jmecn.math.Vector4f;
  */
 public class RasterizationVertex {
 
+    // 把顶点数据按顺序展开为float数组时，各属性的起始下标。
+    public final static int POSITION = 0;               // x, y, z, w
+    public final static int COLOR = 4;                  // r, g, b, a
+    public final static int NORMAL = 8;                 // x, y, z
+    public final static int TEXCOORD = 11;              // s, t
+    public final static int WORLD_SPACE_POSITION = 13;  // x, y, z
+    // 每个顶点展开后的float数量
+    public final static int SIZE = 16;
+    
     public Vector4f position = new Vector4f();  // 片段位置
     public Vector4f color = new Vector4f(1);    // 片段颜色
     public Vector3f normal = new Vector3f();    // 片段法线
@@ -20,6 +29,11 @@ public class RasterizationVertex {
     // 顶点在世界空间中的模型坐标
     public Vector3f worldSpacePosition = new Vector3f();
     
+    // 片段的插值属性在屏幕空间中对x、y的偏导数，下标与展开后的顶点数据一致。
+    // 只有光栅器生成的片段才有这两个数组，并且只在着色器需要时才会计算。
+    public float[] ddx;
+    public float[] ddy;
+    
     /**
      * 复制另一个顶点的数据
      * @param v
@@ -32,6 +46,54 @@ public class RasterizationVertex {
         worldSpacePosition.set(v.worldSpacePosition);
     }
     
+    /**
+     * 把顶点数据按顺序写入数组
+     * @param store
+     * @param offset
+     */
+    public void get(float[] store, int offset) {
+        store[offset + POSITION] = position.x;
+        store[offset + POSITION + 1] = position.y;
+        store[offset + POSITION + 2] = position.z;
+        store[offset + POSITION + 3] = position.w;
+        store[offset + COLOR] = color.x;
+        store[offset + COLOR + 1] = color.y;
+        store[offset + COLOR + 2] = color.z;
+        store[offset + COLOR + 3] = color.w;
+        store[offset + NORMAL] = normal.x;
+        store[offset + NORMAL + 1] = normal.y;
+        store[offset + NORMAL + 2] = normal.z;
+        store[offset + TEXCOORD] = texCoord.x;
+        store[offset + TEXCOORD + 1] = texCoord.y;
+        store[offset + WORLD_SPACE_POSITION] = worldSpacePosition.x;
+        store[offset + WORLD_SPACE_POSITION + 1] = worldSpacePosition.y;
+        store[offset + WORLD_SPACE_POSITION + 2] = worldSpacePosition.z;
+    }
+    
+    /**
+     * 从数组中读取顶点数据
+     * @param data
+     * @param offset
+     */
+    public void set(float[] data, int offset) {
+        position.x = data[offset + POSITION];
+        position.y = data[offset + POSITION + 1];
+        position.z = data[offset + POSITION + 2];
+        position.w = data[offset + POSITION + 3];
+        color.x = data[offset + COLOR];
+        color.y = data[offset + COLOR + 1];
+        color.z = data[offset + COLOR + 2];
+        color.w = data[offset + COLOR + 3];
+        normal.x = data[offset + NORMAL];
+        normal.y = data[offset + NORMAL + 1];
+        normal.z = data[offset + NORMAL + 2];
+        texCoord.x = data[offset + TEXCOORD];
+        texCoord.y = data[offset + TEXCOORD + 1];
+        worldSpacePosition.x = data[offset + WORLD_SPACE_POSITION];
+        worldSpacePosition.y = data[offset + WORLD_SPACE_POSITION + 1];
+        worldSpacePosition.z = data[offset + WORLD_SPACE_POSITION + 2];
+    }
+    
     /**
      * 插值
      * @param 
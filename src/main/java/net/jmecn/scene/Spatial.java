@@ -1,41 +1,206 @@
 package net.jmecn.scene;
 
+import net.jmecn.bounding.BoundingBox;
+import net.jmecn.math.Matrix4f;
+import net.jmecn.math.Quaternion;
 import net.jmecn.math.Transform;
+import net.jmecn.math.Vector3f;
 
 /**
  * 代表三维空间，是Geometry和Node的父类。
  * 
+ * 每个物体保存世界空间的包围盒，Node的包围盒包住所有子节点。包围盒只在需要时才重新计算：
+ * 空间变换改变时，自己和所有子节点的包围盒被标记为需要更新；子节点变化时，所有父节点也被标记为需要更新。
+ * 网格调用 Mesh.updateBound 之后，使用它的物体在下次检查时把自己和所有父节点标记为需要更新，见 Geometry.checkMeshBound。
+ * 
+ * 世界空间变换和变换矩阵也被缓存起来，只在自己或父节点的空间变换改变后才重新计算，静止的物体每帧不需要任何计算。
+ * 
  * @author yanmaoyuan
  *
  */
 public abstract class Spatial {
 
+    // 世界空间的包围盒需要更新
+    protected final static int RF_BOUND = 0x01;
+    // 世界空间变换需要更新
+    protected final static int RF_TRANSFORM = 0x02;
+    // Node的物体列表需要更新
+    protected final static int RF_GEOMETRY_LIST = 0x04;
+    
     // 父节点
     private Node parent;
     // 相对空间变换
     private Transform localTransform = new Transform();
     // 世界空间变换
     private Transform worldTransform = new Transform();
+    // 世界空间变换矩阵
+    private Matrix4f worldMatrix = new Matrix4f();
+    
+    // 世界空间的包围盒
+    protected BoundingBox worldBound = new BoundingBox();
+    // 是否有包围盒。没有网格的物体、空节点没有包围盒。
+    private boolean hasWorldBound;
+    // 需要更新的状态
+    protected int refreshFlags = RF_BOUND | RF_TRANSFORM;
     
     /**
      * 获得相对空间变换
+     * 
+     * 调用者可能会修改返回的对象，因此每次调用都会把包围盒标记为需要更新。
+     * 不要保留这个对象，在之后修改它；应该重新调用这个方法，或者使用 setLocalTranslation 等方法。
+     * 
      * @return
      */
     public Transform getLocalTransform() {
+        setTransformRefresh();
         return localTransform;
     }
+    
+    /**
+     * 设置相对空间变换
+     * @param transform
+     */
+    public void setLocalTransform(Transform transform) {
+        localTransform.set(transform);
+        setTransformRefresh();
+    }
+    
+    /**
+     * 设置相对位移
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void setLocalTranslation(float x, float y, float z) {
+        localTransform.setTranslation(x, y, z);
+        setTransformRefresh();
+    }
+    
+    /**
+     * 设置相对位移
+     * @param translation
+     */
+    public void setLocalTranslation(Vector3f translation) {
+        localTransform.setTranslation(translation);
+        setTransformRefresh();
+    }
+    
+    /**
+     * 设置相对旋转
+     * @param rotation
+     */
+    public void setLocalRotation(Quaternion rotation) {
+        localTransform.setRotation(rotation);
+        setTransformRefresh();
+    }
+    
+    /**
+     * 设置相对缩放
+     * @param scale
+     */
+    public void setLocalScale(float scale) {
+        localTransform.setScale(scale);
+        setTransformRefresh();
+    }
+    
+    /**
+     * 设置相对缩放
+     * @param scale
+     */
+    public void setLocalScale(Vector3f scale) {
+        localTransform.setScale(scale);
+        setTransformRefresh();
+    }
 
     /**
-     * 获得世界空间变换
+     * 获得世界空间变换，需要时重新计算。不要修改返回的对象。
      * @return
      */
     public Transform getWorldTransform() {
+        if ((refreshFlags & RF_TRANSFORM) != 0) {
+            updateWorldTransform();
+        }
+        return worldTransform;
+    }
+    
+    /**
+     * 获得世界空间变换矩阵，需要时重新计算。不要修改返回的对象。
+     * @return
+     */
+    public Matrix4f getWorldMatrix() {
+        if ((refreshFlags & RF_TRANSFORM) != 0) {
+            updateWorldTransform();
+        }
+        return worldMatrix;
+    }
+    
+    /**
+     * 重新计算世界空间变换和变换矩阵
+     */
+    private void updateWorldTransform() {
         worldTransform.set(localTransform);
         if (parent != null) {
             // 合并父节点的空间变换
             worldTransform.combineWithParent(parent.getWorldTransform());
         }
-        return worldTransform;
+        worldTransform.toTransformMatrix(worldMatrix);
+        refreshFlags &= ~RF_TRANSFORM;
+    }
+    
+    /**
+     * 获得世界空间的包围盒，需要时重新计算。
+     * @return 没有包围盒时返回null
+     */
+    public BoundingBox getWorldBound() {
+        if ((refreshFlags & RF_BOUND) != 0) {
+            hasWorldBound = updateWorldBound();
+            refreshFlags &= ~RF_BOUND;
+        }
+        return hasWorldBound ? worldBound : null;
+    }
+    
+    /**
+     * 重新计算世界空间的包围体
+     * @return 是否有包围盒
+     */
+    protected abstract boolean updateWorldBound();
+    
+    /**
+     * 空间变换改变了，自己和所有子节点的世界变换、包围盒都需要更新。
+     */
+    protected void setTransformRefresh() {
+        markTransformRefresh();
+        if (parent != null) {
+            parent.setBoundRefresh();
+        }
+    }
+    
+    /**
+     * 把自己和所有子节点标记为需要更新世界变换和包围盒
+     * 
+     * 世界变换总是先计算父节点，再计算子节点，因此两者都已标记的物体，它的所有子节点也一定都已标记，不必再遍历。
+     * 
+     * @return 是否需要继续标记子节点
+     */
+    protected boolean markTransformRefresh() {
+        if ((refreshFlags & (RF_TRANSFORM | RF_BOUND)) == (RF_TRANSFORM | RF_BOUND)) {
+            return false;
+        }
+        refreshFlags |= RF_TRANSFORM | RF_BOUND;
+        return true;
+    }
+    
+    /**
+     * 包围盒需要更新，父节点的包围盒也随之需要更新。
+     * 
+     * 被标记的物体，它的所有父节点也一定被标记过，因此遇到已经标记的父节点时就可以停止。
+     */
+    public void setBoundRefresh() {
+        Spatial spatial = this;
+        while (spatial != null && (spatial.refreshFlags & RF_BOUND) == 0) {
+            spatial.refreshFlags |= RF_BOUND;
+            spatial = spatial.parent;
+        }
     }
     
     /**
@@ -56,6 +221,9 @@ public abstract class Spatial {
             removeFromParent();
         }
         this.parent = newParent;
+        
+        // 世界空间变换随父节点改变
+        markTransformRefresh();
     }
     
     /**
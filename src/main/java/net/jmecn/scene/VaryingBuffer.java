@@ -0,0 +1,56 @@
+package net.jmecn.scene;
+
+/**
+ * 顶点着色器的输出数据
+ *
+ * 所有顶点的数据按顺序保存在同一个float数组中，每个顶点占用 RasterizationVertex.SIZE 个float，
+ * 各属性在顶点内的下标与 RasterizationVertex 中定义的常量一致。
+ * 这样既不需要为每个顶点创建对象，裁剪和插值时也只需要顺序访问数组。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class VaryingBuffer {
+
+    // 每个顶点占用的float数量
+    public final static int STRIDE = RasterizationVertex.SIZE;
+
+    private float[] data;
+    private int count;
+
+    public VaryingBuffer() {
+        this(64);
+    }
+
+    public VaryingBuffer(int capacity) {
+        data = new float[capacity * STRIDE];
+    }
+
+    /**
+     * 设置顶点数量，容量不足时扩容，原有数据不保留。
+     * @param count
+     */
+    public void setCount(int count) {
+        if (count * STRIDE > data.length) {
+            data = new float[count * STRIDE];
+        }
+        this.count = count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * 获得第index个顶点在数组中的起始下标
+     * @param index
+     * @return
+     */
+    public int getOffset(int index) {
+        return index * STRIDE;
+    }
+}
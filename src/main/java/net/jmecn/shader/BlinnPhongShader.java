@@ -37,6 +37,22 @@ public class BlinnPhongShader extends Shader {
     
     private Vector3f color = new Vector3f();
     
+    @Override
+    public BlinnPhongShader clone() {
+        BlinnPhongShader shader = (BlinnPhongShader) super.clone();
+        // 临时变量不能在副本之间共享
+        shader.position = new Vector3f();
+        shader.normal = new Vector3f();
+        shader.lightVector = new Vector3f();
+        shader.eyeVector = new Vector3f();
+        shader.halfVector = new Vector3f();
+        shader.ambient = new Vector4f();
+        shader.diffuse = new Vector4f();
+        shader.specular = new Vector4f();
+        shader.color = new Vector3f();
+        return shader;
+    }
+    
     /**
      * 计算光照
      * @param frag
@@ -112,6 +128,19 @@ public class BlinnPhongShader extends Shader {
         return out;
     }
 
+    @Override
+    public void vertexShader(Vertex vertex, float[] out, int offset) {
+        copy(vertex, out, offset);
+        
+        // 顶点法线
+        transformNormal(out, offset + RasterizationVertex.NORMAL);
+        
+        Vector3f p = vertex.position;
+        worldMatrix.mult(p.x, p.y, p.z, out, offset + RasterizationVertex.WORLD_SPACE_POSITION);
+        // 模型-观察-透视 变换
+        transform(worldViewProjectionMatrix, out, offset + RasterizationVertex.POSITION);
+    }
+
     @Override
     public boolean fragmentShader(RasterizationVertex frag) {
         
@@ -127,11 +156,27 @@ public class BlinnPhongShader extends Shader {
         
         Texture texture = material.getDiffuseMap();
         if (texture != null) {
-            Vector4f texColor = texture.sample2d(frag.texCoord);
+            Vector4f texColor = sample2d(texture, frag);
             frag.color.multLocal(texColor);
         }
         
         return true;
     }
 
+    @Override
+    public boolean isUseDerivatives() {
+        // 根据纹理坐标的导数选择Mipmap
+        return material.getDiffuseMap() != null;
+    }
+
+    @Override
+    public boolean isModifyDepth() {
+        return false;
+    }
+
+    @Override
+    public boolean isDiscard() {
+        return false;
+    }
+
 }
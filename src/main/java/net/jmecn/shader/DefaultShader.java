@@ -22,15 +22,39 @@ public class DefaultShader extends Shader {
         return out;
     }
 
+    @Override
+    public void vertexShader(Vertex vertex, float[] out, int offset) {
+        copy(vertex, out, offset);
+        
+        // 模型-观察-透视 变换
+        transform(worldViewProjectionMatrix, out, offset + RasterizationVertex.POSITION);
+    }
+
     @Override
     public boolean fragmentShader(RasterizationVertex frag) {
         Texture texture = material.getDiffuseMap();
         if (texture != null) {
-            Vector4f texColor = texture.sample2d(frag.texCoord);
+            Vector4f texColor = sample2d(texture, frag);
             frag.color.multLocal(texColor);
         }
         
         return true;
     }
 
+    @Override
+    public boolean isUseDerivatives() {
+        // 根据纹理坐标的导数选择Mipmap
+        return material.getDiffuseMap() != null;
+    }
+
+    @Override
+    public boolean isModifyDepth() {
+        return false;
+    }
+
+    @Override
+    public boolean isDiscard() {
+        return false;
+    }
+
 }
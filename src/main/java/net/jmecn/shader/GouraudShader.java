@@ -37,12 +37,27 @@ public class GouraudShader extends Shader {
     
     private Vector3f color = new Vector3f();
     
+    @Override
+    public GouraudShader clone() {
+        GouraudShader shader = (GouraudShader) super.clone();
+        // 临时变量不能在副本之间共享
+        shader.position = new Vector3f();
+        shader.normal = new Vector3f();
+        shader.lightVector = new Vector3f();
+        shader.eyeVector = new Vector3f();
+        shader.halfVector = new Vector3f();
+        shader.ambient = new Vector4f();
+        shader.diffuse = new Vector4f();
+        shader.specular = new Vector4f();
+        shader.color = new Vector3f();
+        return shader;
+    }
+    
     /**
-     * 计算光照
-     * @param vert
+     * 计算光照，顶点的位置和法线保存在position、normal中。
      * @param light
      */
-    private Vector3f lighting(RasterizationVertex vert, Light light) {
+    private Vector3f lighting(Light light) {
         color.set(0, 0, 0);
 
         if (light instanceof AmbientLight) {
@@ -53,11 +68,6 @@ public class GouraudShader extends Shader {
         } else if (light instanceof DirectionalLight) {
             DirectionalLight dl = (DirectionalLight) light;
             
-            // 顶点位置
-            position.set(vert.position.x, vert.position.y, vert.position.z);
-            // 顶点法线
-            normal.set(vert.normal);
-            
             // 计算顶点到光源的方向向量
             lightVector.set(dl.getDirection());
             lightVector.negateLocal();
@@ -108,10 +118,13 @@ public class GouraudShader extends Shader {
         
         out.color.set(0, 0, 0, 1);
         
+        position.set(out.position.x, out.position.y, out.position.z);
+        normal.set(out.normal);
+        
         // 计算光照
         for(int i=0; i < lights.size(); i++) {
             Light l = lights.get(i);
-            Vector3f color = lighting(out, l);
+            Vector3f color = lighting(l);
             out.color.x += color.x;
             out.color.y += color.y;
             out.color.z += color.z;
@@ -123,15 +136,65 @@ public class GouraudShader extends Shader {
         return out;
     }
 
+    @Override
+    public void vertexShader(Vertex vertex, float[] out, int offset) {
+        copy(vertex, out, offset);
+        
+        // 顶点法线
+        int n = offset + RasterizationVertex.NORMAL;
+        transformNormal(out, n);
+        normal.set(out[n], out[n + 1], out[n + 2]);
+        
+        // 顶点位置
+        int p = offset + RasterizationVertex.POSITION;
+        transform(worldMatrix, out, p);
+        position.set(out[p], out[p + 1], out[p + 2]);
+        
+        // 计算光照
+        float r = 0, g = 0, b = 0;
+        for(int i=0; i < lights.size(); i++) {
+            Light l = lights.get(i);
+            Vector3f color = lighting(l);
+            r += color.x;
+            g += color.y;
+            b += color.z;
+        }
+        
+        int c = offset + RasterizationVertex.COLOR;
+        out[c] = r;
+        out[c + 1] = g;
+        out[c + 2] = b;
+        out[c + 3] = 1f;
+        
+        // 模型-观察-透视 变换
+        transform(viewProjectionMatrix, out, p);
+    }
+
     @Override
     public boolean fragmentShader(RasterizationVertex frag) {
         Texture texture = material.getDiffuseMap();
         if (texture != null) {
-            Vector4f texColor = texture.sample2d(frag.texCoord);
+            Vector4f texColor = sample2d(texture, frag);
             frag.color.multLocal(texColor);
         }
         
         return true;
     }
 
+    @Override
+    public boolean isUseDerivatives() {
+        // 根据纹理坐标的导数选择Mipmap
+        return material.getDiffuseMap() != null;
+    }
+
+    @Override
+    public boolean isModifyDepth() {
+        return false;
+    }
+
+    @Override
+    public boolean isDiscard() {
+        return false;
+    }
+
 }
@@ -1,12 +1,15 @@
 package net.jmecn.shader;
 
+import java.util.HashMap;
 import java.util.List;
 
 import net.jmecn.light.Light;
 import net.jmecn.material.Material;
+import net.jmecn.material.Texture;
 import net.jmecn.math.Matrix3f;
 import net.jmecn.math.Matrix4f;
 import net.jmecn.math.Vector3f;
+import net.jmecn.math.Vector4f;
 import net.jmecn.scene.RasterizationVertex;
 import net.jmecn.scene.Vertex;
 
@@ -15,7 +18,7 @@ import net.jmecn.scene.Vertex;
  * @author yanmaoyuan
  *
  */
-public abstract class Shader {
+public abstract class Shader implements Cloneable {
 
     // uniforms
     protected Matrix4f worldMatrix;
@@ -32,6 +35,26 @@ public abstract class Shader {
     protected Material material;
     protected List<Light> lights;
     
+    // 纹理采样的结果，每个着色器副本各有一个，避免每个片段都创建对象。
+    private Vector4f texel = new Vector4f();
+    
+    // 每种着色器类型的编号，按第一次创建的顺序分配。
+    private final static HashMap<Class<?>, Integer> TYPE_IDS = new HashMap<Class<?>, Integer>();
+    
+    // 着色器类型的编号，渲染队列用它把同类着色器排在一起。
+    private final int typeId;
+    
+    public Shader() {
+        synchronized (TYPE_IDS) {
+            Integer id = TYPE_IDS.get(getClass());
+            if (id == null) {
+                id = TYPE_IDS.size();
+                TYPE_IDS.put(getClass(), id);
+            }
+            typeId = id;
+        }
+    }
+    
     /**
      * 顶点着色器
      * @param vertex
@@ -39,12 +62,71 @@ public abstract class Shader {
      */
     public abstract RasterizationVertex vertexShader(Vertex vertex);
     
+    /**
+     * 顶点着色器，把输出的顶点数据直接写入数组。
+     * 
+     * 各属性在数组中的位置由 RasterizationVertex 中定义的下标常量决定。默认实现调用
+     * vertexShader(Vertex)，再把结果写入数组；子类重写这个方法，就可以避免为每个顶点创建对象。
+     * 
+     * @param vertex
+     * @param out 输出数组
+     * @param offset 顶点数据在数组中的起始下标
+     */
+    public void vertexShader(Vertex vertex, float[] out, int offset) {
+        vertexShader(vertex).get(out, offset);
+    }
+    
     /**
      * 片段着色器
      * @param frag
      */
     public abstract boolean fragmentShader(RasterizationVertex frag);
 
+    /**
+     * 片段着色器是否会修改片段的深度(frag.position.z)。
+     * 不修改深度时，光栅器可以在执行片段着色器之前进行深度测试。
+     * @return
+     */
+    public boolean isModifyDepth() {
+        return true;
+    }
+    
+    /**
+     * 片段着色器是否会丢弃片段（fragmentShader返回false）。
+     * 不丢弃片段时，光栅器可以在执行片段着色器之前写入深度缓冲。
+     * @return
+     */
+    public boolean isDiscard() {
+        return true;
+    }
+    
+    /**
+     * 片段着色器是否使用插值属性的屏幕空间导数(frag.ddx、frag.ddy)。
+     * 需要导数时，光栅器按2x2的像素块计算导数，块中不在三角形内的像素只参与计算，不会执行片段着色器。
+     * @return
+     */
+    public boolean isUseDerivatives() {
+        return false;
+    }
+    
+    /**
+     * 使用片段的纹理坐标采样，根据纹理坐标的导数选择Mipmap。
+     * 着色器需要在isUseDerivatives()中返回true，否则只会采样原始图像。
+     * 
+     * 返回的对象在下次采样时会被覆盖，需要保留结果时应当复制一份。
+     * @param texture
+     * @param frag
+     * @return
+     */
+    protected Vector4f sample2d(Texture texture, RasterizationVertex frag) {
+        if (frag.ddx == null) {
+            return texture.sample2d(frag.texCoord, texel);
+        }
+        
+        int i = RasterizationVertex.TEXCOORD;
+        return texture.sample2d(frag.texCoord, frag.ddx[i], frag.ddx[i + 1], frag.ddy[i], frag.ddy[i + 1], texel);
+    }
+    
     /**
      * 复制顶点数据
      * @param vertex
@@ -70,7 +152,122 @@ public abstract class Shader {
         return out;
     }
     
+    /**
+     * 把顶点数据写入数组，缺少的属性使用默认值。
+     * @param vertex
+     * @param out
+     * @param offset
+     */
+    protected void copy(Vertex vertex, float[] out, int offset) {
+        // 顶点位置
+        int i = offset + RasterizationVertex.POSITION;
+        out[i] = vertex.position.x;
+        out[i + 1] = vertex.position.y;
+        out[i + 2] = vertex.position.z;
+        out[i + 3] = 1f;
+        
+        // 顶点颜色
+        i = offset + RasterizationVertex.COLOR;
+        if (vertex.color != null) {
+            out[i] = vertex.color.x;
+            out[i + 1] = vertex.color.y;
+            out[i + 2] = vertex.color.z;
+            out[i + 3] = vertex.color.w;
+        } else {
+            out[i] = out[i + 1] = out[i + 2] = out[i + 3] = 1f;
+        }
+        
+        // 顶点法线
+        i = offset + RasterizationVertex.NORMAL;
+        if (vertex.normal != null) {
+            out[i] = vertex.normal.x;
+            out[i + 1] = vertex.normal.y;
+            out[i + 2] = vertex.normal.z;
+        } else {
+            out[i] = out[i + 1] = out[i + 2] = 0f;
+        }
+        
+        // 纹理坐标
+        i = offset + RasterizationVertex.TEXCOORD;
+        if (vertex.texCoord != null) {
+            out[i] = vertex.texCoord.x;
+            out[i + 1] = vertex.texCoord.y;
+        } else {
+            out[i] = out[i + 1] = 0f;
+        }
+        
+        // 世界空间坐标
+        i = offset + RasterizationVertex.WORLD_SPACE_POSITION;
+        out[i] = out[i + 1] = out[i + 2] = 0f;
+    }
+    
+    /**
+     * 使用矩阵变换数组中的齐次坐标
+     * @param mat
+     * @param data
+     * @param offset 坐标在数组中的起始下标
+     */
+    protected void transform(Matrix4f mat, float[] data, int offset) {
+        mat.mult(data[offset], data[offset + 1], data[offset + 2], data[offset + 3], data, offset);
+    }
+    
+    /**
+     * 使用法向量变换矩阵变换数组中的法线，并将其单位化。
+     * @param data
+     * @param offset 法线在数组中的起始下标
+     */
+    protected void transformNormal(float[] data, int offset) {
+        normalMatrix.mult(data[offset], data[offset + 1], data[offset + 2], data, offset);
+        
+        float x = data[offset], y = data[offset + 1], z = data[offset + 2];
+        float length = x * x + y * y + z * z;
+        if (length != 1f && length != 0f) {
+            length = (float) (1.0 / Math.sqrt(length));
+            data[offset] = x * length;
+            data[offset + 1] = y * length;
+            data[offset + 2] = z * length;
+        }
+    }
+    
+    /**
+     * 复制着色器
+     * 
+     * 多线程光栅化时，每个线程使用各自的副本执行片段着色器。副本与原着色器共享uniform变量。
+     * 如果子类使用成员变量保存计算过程中的临时结果，应当重写这个方法，为副本创建新的临时变量。
+     */
+    @Override
+    public Shader clone() {
+        try {
+            Shader shader = (Shader) super.clone();
+            shader.texel = new Vector4f();
+            return shader;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    /**
+     * 从原着色器复制uniform变量，使副本可以在绘制下一个物体时继续使用。
+     * @param source 创建这个副本的着色器
+     */
+    public void copyUniforms(Shader source) {
+        this.worldMatrix = source.worldMatrix;
+        this.viewMatrix = source.viewMatrix;
+        this.projectionMatrix = source.projectionMatrix;
+        this.viewProjectionMatrix = source.viewProjectionMatrix;
+        this.worldViewMatrix = source.worldViewMatrix;
+        this.worldViewProjectionMatrix = source.worldViewProjectionMatrix;
+        this.normalMatrix = source.normalMatrix;
+        this.cameraPosition = source.cameraPosition;
+        this.material = source.material;
+        this.lights = source.lights;
+    }
+    
     // getter/setters
+    public int getTypeId() {
+        return typeId;
+    }
+    
     public void setWorldMatrix(Matrix4f worldMatrix) {
         this.worldMatrix = worldMatrix;
     }
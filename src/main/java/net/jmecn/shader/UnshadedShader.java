@@ -28,15 +28,53 @@ public class UnshadedShader extends Shader {
         return out;
     }
 
+    @Override
+    public void vertexShader(Vertex vertex, float[] out, int offset) {
+        copy(vertex, out, offset);
+        
+        Vector4f diffuse = material.getDiffuse();
+        int i = offset + RasterizationVertex.COLOR;
+        if (material.isUseVertexColor()) {
+            out[i] *= diffuse.x;
+            out[i + 1] *= diffuse.y;
+            out[i + 2] *= diffuse.z;
+            out[i + 3] *= diffuse.w;
+        } else {
+            out[i] = diffuse.x;
+            out[i + 1] = diffuse.y;
+            out[i + 2] = diffuse.z;
+            out[i + 3] = diffuse.w;
+        }
+        
+        // 模型-观察-透视 变换
+        transform(worldViewProjectionMatrix, out, offset + RasterizationVertex.POSITION);
+    }
+
     @Override
     public boolean fragmentShader(RasterizationVertex frag) {
         Texture texture = material.getDiffuseMap();
         if (texture != null) {
-            Vector4f texColor = texture.sample2d(frag.texCoord);
+            Vector4f texColor = sample2d(texture, frag);
             frag.color.multLocal(texColor);
         }
         
         return true;
     }
 
+    @Override
+    public boolean isUseDerivatives() {
+        // 根据纹理坐标的导数选择Mipmap
+        return material.getDiffuseMap() != null;
+    }
+
+    @Override
+    public boolean isModifyDepth() {
+        return false;
+    }
+
+    @Override
+    public boolean isDiscard() {
+        return false;
+    }
+
 }
@@ -0,0 +1,91 @@
+package net.jmecn.asset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import net.jmecn.material.Material;
+import net.jmecn.material.Texture;
+import net.jmecn.material.Texture.MagFilter;
+import net.jmecn.renderer.Image;
+
+/**
+ * 资源管理器的缓存、LRU淘汰和软引用的测试
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class AssetManagerTest {
+
+    private final static String[] PATHS = {
+            "res/earth.jpg",
+            "res/Crate.png",
+            "res/grass.png",
+            "res/blending_transparent_window.png"
+    };
+
+    @Test
+    public void testSharedTextures() throws IOException {
+        AssetManager assetManager = new AssetManager();
+
+        // 几百个材质引用同一组纹理，每个纹理只加载一次。
+        Texture first = null;
+        for (int i = 0; i < 400; i++) {
+            Material material = new Material();
+            material.setDiffuseMap(assetManager.loadTexture(PATHS[i % PATHS.length]));
+            if (i == 0) {
+                first = material.getDiffuseMap();
+            }
+        }
+        assertSame(first, assetManager.loadTexture(PATHS[0]));
+        assertEquals(PATHS.length, assetManager.getMisses());
+    }
+
+    @Test
+    public void testTextureKey() throws IOException {
+        AssetManager assetManager = new AssetManager();
+        Texture texture = assetManager.loadTexture(PATHS[0]);
+
+        // 采样参数不同的纹理分别缓存
+        TextureKey key = new TextureKey(PATHS[0]);
+        key.setMagFilter(MagFilter.NEAREST);
+        Texture nearest = assetManager.loadTexture(key);
+        assertNotSame(texture, nearest);
+        assertSame(nearest, assetManager.loadTexture(key));
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        AssetManager assetManager = new AssetManager();
+
+        // 预算只能容纳一张图像时，加载新图像会淘汰最久没有使用的图像。
+        Image earth = assetManager.loadImage(PATHS[0]);
+        assetManager.setBudget(earth.getSize());
+        assertTrue(assetManager.getUsage() <= assetManager.getBudget());
+
+        long evictions = assetManager.getEvictions();
+        Image crate = assetManager.loadImage(PATHS[1]);
+        assertEquals(evictions + 1, assetManager.getEvictions());
+        assertNotSame(earth, assetManager.loadImage(PATHS[0]));
+        assertNotSame(crate, assetManager.loadImage(PATHS[1]));
+    }
+
+    @Test
+    public void testSoftReferences() throws IOException {
+        AssetManager assetManager = new AssetManager();
+        Image earth = assetManager.loadImage(PATHS[0]);
+        assetManager.setBudget(earth.getSize());
+
+        // 使用软引用时，内存充足的情况下可以取回被淘汰的资源。
+        assetManager.setUseSoftReferences(true);
+        assetManager.loadImage(PATHS[1]);
+        long softHits = assetManager.getSoftHits();
+        assertSame(earth, assetManager.loadImage(PATHS[0]));
+        assertEquals(softHits + 1, assetManager.getSoftHits());
+    }
+}
@@ -0,0 +1,127 @@
+package net.jmecn.asset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jmecn.material.Texture;
+import net.jmecn.material.Texture.Layout;
+import net.jmecn.renderer.Image;
+
+/**
+ * 未压缩纹理文件的测试
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class RawTextureFileTest {
+
+    // 文件头中各个字段的位置
+    private final static int WIDTH = 8;
+    private final static int LEVELS = 20;
+    private final static int LEVEL_HEADER = 24;
+    private final static int LEVEL_HEADER_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        for (Layout layout : Layout.values()) {
+            Texture texture = createTexture(layout);
+            File file = folder.newFile(layout + RawTextureFile.EXTENSION);
+            RawTextureFile.write(texture, file);
+
+            Texture loaded = RawTextureFile.load(file);
+            assertEquals(layout, loaded.getLayout());
+            assertEquals(texture.getMipLevels(), loaded.getMipLevels());
+            for (int level = 0; level < texture.getMipLevels(); level++) {
+                assertEquals(texture.getMipWidth(level), loaded.getMipWidth(level));
+                assertEquals(texture.getMipHeight(level), loaded.getMipHeight(level));
+                assertEquals(texture.getMipData(level), loaded.getMipData(level));
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptedHeader() throws IOException {
+        // 宽度为0
+        assertCorrupted(WIDTH, 0);
+        // 层数过多
+        assertCorrupted(LEVELS, 1000);
+        // 第1层的尺寸与第0层不一致
+        assertCorrupted(LEVEL_HEADER + LEVEL_HEADER_SIZE, 3);
+        // 数据没有对齐
+        assertCorrupted(LEVEL_HEADER + 8, 68);
+        // 数据与文件头重叠
+        assertCorrupted(LEVEL_HEADER + 8, 0);
+        // 纹素数量少于尺寸的要求
+        assertCorrupted(LEVEL_HEADER + 12, 16);
+        // 纹素数量超出文件
+        assertCorrupted(LEVEL_HEADER + 12, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        File file = writeTexture();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 64);
+        } finally {
+            raf.close();
+        }
+        assertLoadFails(file);
+    }
+
+    /**
+     * 修改文件中的一个int之后，加载应该失败。
+     * @param position
+     * @param value
+     * @throws IOException
+     */
+    private void assertCorrupted(int position, int value) throws IOException {
+        File file = writeTexture();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            // 小端字节序
+            raf.writeInt(Integer.reverseBytes(value));
+        } finally {
+            raf.close();
+        }
+        assertLoadFails(file);
+    }
+
+    private void assertLoadFails(File file) {
+        try {
+            RawTextureFile.load(file);
+            fail("Loaded a corrupted texture file");
+        } catch (IOException e) {
+            // 预期的结果
+        }
+    }
+
+    private File writeTexture() throws IOException {
+        File file = folder.newFile();
+        RawTextureFile.write(createTexture(Layout.LINEAR), file);
+        return file;
+    }
+
+    private Texture createTexture(Layout layout) {
+        Image image = new Image(16, 8);
+        byte[] components = image.getComponents();
+        for (int i = 0; i < components.length; i++) {
+            components[i] = (byte) (i * 7);
+        }
+        Texture texture = new Texture(image);
+        texture.setLayout(layout);
+        return texture;
+    }
+}
@@ -0,0 +1,327 @@
+package net.jmecn.material;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.material.Texture.Compression;
+import net.jmecn.material.Texture.Layout;
+import net.jmecn.material.Texture.MagFilter;
+import net.jmecn.material.Texture.MinFilter;
+import net.jmecn.material.Texture.WarpMode;
+import net.jmecn.renderer.Image;
+import net.jmecn.renderer.Image.Format;
+
+/**
+ * 纹理采样的测试
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TextureTest {
+
+    private final static int SIZE = 8;
+
+    // 远大于纹理尺寸的坐标，转换为定点数时会超出int的范围。
+    private final static float FAR = 1 << 20;
+
+    @Test
+    public void testLayoutsSampleIdentically() {
+        // 2的幂纹理，以及宽高都不是图块尺寸整数倍的纹理
+        int[][] sizes = { { 64, 64 }, { 37, 23 } };
+        Random random = new Random(0);
+        for (int[] size : sizes) {
+            Texture linear = createTexture(size[0], size[1]);
+            Texture tiled = createTexture(size[0], size[1]);
+            tiled.setLayout(Layout.TILED);
+            assertEquals(Layout.LINEAR, linear.getLayout());
+
+            for (MinFilter minFilter : MinFilter.values()) {
+                for (MagFilter magFilter : MagFilter.values()) {
+                    linear.setMinFilter(minFilter);
+                    linear.setMagFilter(magFilter);
+                    tiled.setMinFilter(minFilter);
+                    tiled.setMagFilter(magFilter);
+
+                    for (int i = 0; i < 1000; i++) {
+                        float s = random.nextFloat() * 3 - 1;
+                        float t = random.nextFloat() * 3 - 1;
+                        float lod = random.nextFloat() * 8 - 1;
+                        assertEquals(linear.sample2d(s, t, lod), tiled.sample2d(s, t, lod));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 压缩后的纹理占用更少的内存，与未压缩纹理的峰值信噪比（PSNR）不低于30dB。
+     * BC1只有1位透明度，不检查半透明的图片。
+     */
+    @Test
+    public void testCompression() throws IOException {
+        String[] paths = { "res/earth.jpg", "res/Crate.png", "res/blending_transparent_window.png" };
+        for (String path : paths) {
+            Image image = new Image(path);
+            Texture reference = new Texture(image);
+            boolean opaque = isOpaque(image);
+
+            for (Compression compression : Compression.values()) {
+                Texture texture = new Texture(image);
+                texture.setCompression(compression);
+                assertEquals(compression, texture.getCompression());
+                if (compression == Compression.NONE) {
+                    assertEquals(reference.getSize(), texture.getSize());
+                    continue;
+                }
+
+                assertTrue(texture.getSize() < reference.getSize());
+                if (compression != Compression.BC1 || opaque) {
+                    double psnr = psnr(reference, texture, image.getWidth(), image.getHeight());
+                    assertTrue(path + " " + compression + " " + psnr, psnr >= 30);
+                }
+            }
+        }
+    }
+
+    /**
+     * 2的幂纹理的快速采样与通用的采样方式结果相同
+     */
+    @Test
+    public void testFastRepeatMatchesGeneric() {
+        int[][] sizes = { { SIZE, SIZE }, { 64, 16 } };
+        Random random = new Random(0);
+        for (int[] size : sizes) {
+            Texture fast = createTexture(size[0], size[1]);
+            Texture generic = createTexture(size[0], size[1]);
+            generic.setFastRepeat(false);
+            assertTrue(fast.isPowerOfTwoRepeat());
+            assertFalse(generic.isPowerOfTwoRepeat());
+
+            for (MinFilter minFilter : MinFilter.values()) {
+                for (MagFilter magFilter : MagFilter.values()) {
+                    fast.setMinFilter(minFilter);
+                    fast.setMagFilter(magFilter);
+                    generic.setMinFilter(minFilter);
+                    generic.setMagFilter(magFilter);
+
+                    for (int i = 0; i < 1000; i++) {
+                        float s = random.nextFloat() * 8 - 4;
+                        float t = random.nextFloat() * 8 - 4;
+                        // 包括纹理的边界和整数坐标
+                        if (i % 10 == 0) {
+                            s = Math.round(s * 2) * 0.5f;
+                            t = Math.round(t);
+                        }
+                        float lod = random.nextFloat() * 6 - 1;
+                        assertEquals(minFilter + " " + magFilter + " " + s + ", " + t + ", " + lod,
+                                generic.sample2d(s, t, lod), fast.sample2d(s, t, lod));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIntArgbImage() {
+        Texture expected = createTexture();
+
+        // 同样的图像，使用0xAARRGGBB格式保存。
+        Image image = new Image(SIZE, SIZE, Format.INT_ARGB);
+        int[] pixels = image.getPixels();
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                pixels[x + y * SIZE] = 0xFF000000 | (x * 32) << 16 | (y * 32) << 8 | (x + y) * 16;
+            }
+        }
+        Texture texture = new Texture(image);
+
+        assertEquals(expected.getMipLevels(), texture.getMipLevels());
+        for (int level = 0; level < expected.getMipLevels(); level++) {
+            assertArrayEquals(getTexels(expected, level), getTexels(texture, level));
+        }
+
+        // 纹理保存了图像的副本
+        pixels[0] = 0;
+        assertEquals(expected.sample2d(0f, 1f, 0), texture.sample2d(0f, 1f, 0));
+    }
+
+    @Test
+    public void testNearestRepeatWithLargeCoordinates() {
+        Texture texture = createTexture();
+        texture.setMagFilter(MagFilter.NEAREST);
+        assertTrue(texture.isPowerOfTwoRepeat());
+
+        for (float s = 0; s < 1; s += 0.125f) {
+            int expected = texture.sample2d(s, 0.25f, 0);
+            assertEquals(expected, texture.sample2d(s + FAR, 0.25f, 0));
+            assertEquals(expected, texture.sample2d(s - FAR, 0.25f + FAR, 0));
+        }
+    }
+
+    @Test
+    public void testBilinearRepeatWithLargeCoordinates() {
+        Texture texture = createTexture();
+        texture.setMagFilter(MagFilter.BILINEAR);
+
+        for (float s = 0; s < 1; s += 0.125f) {
+            int expected = texture.sample2d(s, 0.5f, 0);
+            assertEquals(expected, texture.sample2d(s + FAR, 0.5f, 0));
+            assertEquals(expected, texture.sample2d(s - FAR, 0.5f - FAR, 0));
+        }
+    }
+
+    @Test
+    public void testSummedAreaRepeat() {
+        Texture texture = createTexture();
+        texture.setMinFilter(MinFilter.SUMMED_AREA);
+        assertTrue(texture.isPowerOfTwoRepeat());
+
+        for (float s = 0.125f; s < 1; s += 0.25f) {
+            int expected = texture.sample2d(s, 0.375f, 1f);
+            assertEquals(expected, texture.sample2d(s + 1, 0.375f, 1f));
+            assertEquals(expected, texture.sample2d(s - 3, 0.375f + 2, 1f));
+        }
+    }
+
+    /**
+     * 在随机图像上选取随机的矩形区域，SUMMED_AREA过滤的结果与逐个纹素求平均的结果应该完全相同。
+     * 3200x3200的图像中纹素都比较亮，整幅图像的累加值会超出int的范围，用来检查溢出的处理。
+     */
+    @Test
+    public void testSummedAreaTable() {
+        for (int size : new int[] { 300, 3200 }) {
+            Image image = new Image(size, size);
+            byte[] components = image.getComponents();
+            new Random(size).nextBytes(components);
+            for (int i = 0; i < components.length; i++) {
+                components[i] |= 0xC0;
+            }
+            Texture texture = new Texture(image);
+            texture.setMinFilter(MinFilter.SUMMED_AREA);
+
+            Random random = new Random(size);
+            for (int i = 0; i < 200; i++) {
+                int x0 = random.nextInt(size);
+                int y0 = random.nextInt(size);
+                int x1 = x0 + 2 + random.nextInt(size - x0 + 1);
+                int y1 = y0 + 2 + random.nextInt(size - y0 + 1);
+                if (i == 0) {
+                    // 整幅图像
+                    x0 = y0 = 0;
+                    x1 = y1 = size;
+                }
+                x1 = Math.min(x1, size);
+                y1 = Math.min(y1, size);
+                if (x1 - x0 < 2 || y1 - y0 < 2) {
+                    continue;
+                }
+
+                float s = (x0 + x1) * 0.5f / size;
+                float t = 1 - (y0 + y1) * 0.5f / size;
+                assertEquals(average(image, x0, y0, x1, y1), texture.sampleBox(s, t, x1 - x0, y1 - y0));
+            }
+        }
+    }
+
+    @Test
+    public void testSummedAreaClampToEdge() {
+        Texture texture = createTexture();
+        texture.setMinFilter(MinFilter.SUMMED_AREA);
+        texture.setWarpMode(WarpMode.CLAMP_TO_EDGE);
+
+        assertEquals(texture.sample2d(1f, 0.5f, 1f), texture.sample2d(1.5f, 0.5f, 1f));
+    }
+
+    /**
+     * 逐个纹素计算[x0, x1) x [y0, y1)的平均值
+     */
+    private int average(Image image, int x0, int y0, int x1, int y1) {
+        byte[] components = image.getComponents();
+        long[] sum = new long[4];
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = (x + y * image.getWidth()) * 4;
+                for (int c = 0; c < 4; c++) {
+                    sum[c] += components[index + c] & 0xFF;
+                }
+            }
+        }
+
+        long area = (long) (x1 - x0) * (y1 - y0);
+        int r = (int) ((sum[0] + area / 2) / area);
+        int g = (int) ((sum[1] + area / 2) / area);
+        int b = (int) ((sum[2] + area / 2) / area);
+        int a = (int) ((sum[3] + area / 2) / area);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private boolean isOpaque(Image image) {
+        byte[] components = image.getComponents();
+        for (int i = 3; i < components.length; i += 4) {
+            if (components[i] != (byte) 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算第0层所有纹素的峰值信噪比。颜色先乘以透明度再比较，完全透明的纹素不论颜色都是相同的。
+     */
+    private double psnr(Texture reference, Texture texture, int width, int height) {
+        double error = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int c0 = reference.sample2d((x + 0.5f) / width, 1 - (y + 0.5f) / height, 0);
+                int c1 = texture.sample2d((x + 0.5f) / width, 1 - (y + 0.5f) / height, 0);
+                int a0 = c0 >>> 24;
+                int a1 = c1 >>> 24;
+                error += (a0 - a1) * (a0 - a1);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int d = ((c0 >>> shift & 0xFF) * a0 - (c1 >>> shift & 0xFF) * a1) / 255;
+                    error += d * d;
+                }
+            }
+        }
+        double mse = error / (width * height * 4.0);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    private int[] getTexels(Texture texture, int level) {
+        IntBuffer buffer = texture.getMipData(level);
+        int[] texels = new int[buffer.remaining()];
+        buffer.get(texels);
+        return texels;
+    }
+
+    /**
+     * 每个纹素的颜色都不相同
+     * @return
+     */
+    private Texture createTexture() {
+        return createTexture(SIZE, SIZE);
+    }
+
+    private Texture createTexture(int width, int height) {
+        Image image = new Image(width, height);
+        byte[] components = image.getComponents();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = (x + y * width) * 4;
+                components[index] = (byte) (x * 32);
+                components[index + 1] = (byte) (y * 32);
+                components[index + 2] = (byte) ((x + y) * 16);
+                components[index + 3] = (byte) 0xFF;
+            }
+        }
+        return new Texture(image);
+    }
+}
@@ -0,0 +1,255 @@
+package net.jmecn.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.material.Material;
+import net.jmecn.math.Quaternion;
+import net.jmecn.math.Vector3f;
+import net.jmecn.scene.Geometry;
+import net.jmecn.scene.Mesh;
+import net.jmecn.scene.Node;
+import net.jmecn.scene.shape.Box;
+import net.jmecn.scene.shape.Sphere;
+
+/**
+ * 视锥体剔除的测试
+ *
+ * 分别开启和关闭视锥体剔除绘制同一个场景，渲染结果应该完全一致。
+ * 场景图中移动、添加和移除物体之后，按层次剔除的结果也应该与直接绘制物体列表一致。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class FrustumCullingTest {
+
+    private final static int WIDTH = 320;
+    private final static int HEIGHT = 240;
+
+    private final static int COUNT = 1000;
+    private final static float RANGE = 100f;
+
+    // 场景图的层次：根节点下有若干区块，每个区块下有若干组，每组包含几个物体。
+    private final static int BLOCKS = 8;
+    private final static int GROUPS = 5;
+    private final static int OBJECTS = 20;
+    private final static float BLOCK_SIZE = 30f;
+
+    @Test
+    public void testCullingMatchesUnculled() {
+        List<Geometry> scene = createScene();
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 5, 0), new Vector3f(10, 0, -30), Vector3f.UNIT_Y);
+
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setFrustumCulling(false);
+        renderer.clear();
+        renderer.render(scene, camera);
+        int[] reference = renderer.getRenderContext().getPixels().clone();
+
+        renderer.setFrustumCulling(true);
+        renderer.clear();
+        renderer.render(scene, camera);
+        assertArrayEquals(reference, renderer.getRenderContext().getPixels());
+        assertTrue(renderer.getCulledGeometries() > 0);
+    }
+
+    @Test
+    public void testSceneGraphCulling() {
+        Node rootNode = createSceneGraph();
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 5, 0), new Vector3f(10, 0, -30), Vector3f.UNIT_Y);
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+
+        assertSameAsList(renderer, rootNode, camera);
+        assertTrue(renderer.getCulledNodes() > 0);
+
+        // 把一个区块移动到摄像机前方
+        Node block = (Node) rootNode.getChildren().get(BLOCKS * BLOCKS - 1);
+        block.setLocalTranslation(0, 0, -20);
+        assertSameAsList(renderer, rootNode, camera);
+
+        // 直接修改相对变换
+        Node group = (Node) block.getChildren().get(0);
+        group.getLocalTransform().setTranslation(-5, 2, 0);
+        assertSameAsList(renderer, rootNode, camera);
+
+        // 添加和移除物体
+        Geometry geom = new Geometry(new Box(), new Material());
+        geom.setLocalTranslation(3, 0, -10);
+        group.attachChild(geom);
+        assertSameAsList(renderer, rootNode, camera);
+
+        block.detachChild(group);
+        assertSameAsList(renderer, rootNode, camera);
+
+        // 不剔除时直接使用节点保存的物体列表
+        renderer.setFrustumCulling(false);
+        assertSameAsList(renderer, rootNode, camera);
+    }
+
+    @Test
+    public void testMeshUpdateBound() {
+        // 网格在摄像机的背后
+        Vector3f[] positions = {
+                new Vector3f(-1, -1, 10), new Vector3f(1, -1, 10), new Vector3f(1, 1, 10), new Vector3f(-1, 1, 10)
+        };
+        Mesh mesh = new Mesh(positions, new int[] { 0, 1, 2, 0, 2, 3 });
+        Geometry geom = new Geometry(mesh, new Material());
+        Node rootNode = new Node();
+        Node node = new Node();
+        node.attachChild(geom);
+        rootNode.attachChild(node);
+
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 0, 5), Vector3f.ZERO, Vector3f.UNIT_Y);
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.render(rootNode, camera);
+        assertEquals(0, renderer.getRenderedGeometries());
+
+        // 把顶点移动到摄像机前方，只更新网格的包围体。
+        for (Vector3f position : positions) {
+            position.z = 0;
+        }
+        mesh.updateBound();
+
+        // 渲染器在剔除之前检查网格的包围体
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        assertEquals(1, renderer.getRenderedGeometries());
+        assertEquals(0, rootNode.getWorldBound().getCenter().z, 1e-6f);
+        assertEquals(0, geom.getWorldBound().getCenter().z, 1e-6f);
+    }
+
+    @Test
+    public void testMeshUpdateBoundIsLocal() {
+        Vector3f[] positions = {
+                new Vector3f(-1, -1, 0), new Vector3f(1, -1, 0), new Vector3f(1, 1, 0), new Vector3f(-1, 1, 0)
+        };
+        Mesh mesh = new Mesh(positions, new int[] { 0, 1, 2, 0, 2, 3 });
+
+        CountingNode edited = new CountingNode();
+        edited.attachChild(new Geometry(mesh, new Material()));
+        CountingNode unrelated = new CountingNode();
+        unrelated.attachChild(new Geometry(new Box(), new Material()));
+        Node rootNode = new Node();
+        rootNode.attachChild(edited);
+        rootNode.attachChild(unrelated);
+
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 0, 5), Vector3f.ZERO, Vector3f.UNIT_Y);
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.render(rootNode, camera);
+        int editedCount = edited.updates;
+        int unrelatedCount = unrelated.updates;
+
+        // 只有使用这个网格的子树需要重新计算包围盒
+        positions[0].set(-2, -2, 0);
+        mesh.updateBound();
+        renderer.render(rootNode, camera);
+        assertEquals(editedCount + 1, edited.updates);
+        assertEquals(unrelatedCount, unrelated.updates);
+        assertEquals(-2, edited.getWorldBound().getMin(null).x, 1e-6f);
+
+        // 网格没有变化时不再重新计算
+        renderer.render(rootNode, camera);
+        assertEquals(editedCount + 1, edited.updates);
+    }
+
+    /**
+     * 统计重新计算包围盒次数的节点
+     */
+    private static class CountingNode extends Node {
+        int updates;
+
+        @Override
+        protected boolean updateWorldBound() {
+            updates++;
+            return super.updateWorldBound();
+        }
+    }
+
+    /**
+     * 分别用物体列表和场景图绘制，渲染结果和绘制的物体数量应该相同。
+     */
+    private void assertSameAsList(Renderer renderer, Node rootNode, Camera camera) {
+        renderer.clear();
+        renderer.render(rootNode.getGeometryList(null), camera);
+        int[] reference = renderer.getRenderContext().getPixels().clone();
+        int rendered = renderer.getRenderedGeometries();
+
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        assertArrayEquals(reference, renderer.getRenderContext().getPixels());
+        assertEquals(rendered, renderer.getRenderedGeometries());
+    }
+
+    /**
+     * 区块排列成网格，每个区块中的组和物体随机摆放。
+     * @return
+     */
+    private Node createSceneGraph() {
+        Mesh box = new Box();
+        Mesh sphere = new Sphere(1f, 12, 8);
+        Material material = new Material();
+
+        Random random = new Random(0);
+        Node rootNode = new Node();
+        for (int i = 0; i < BLOCKS * BLOCKS; i++) {
+            Node block = new Node();
+            block.setLocalTranslation((i % BLOCKS - BLOCKS / 2 + 0.5f) * BLOCK_SIZE, 0,
+                    (i / BLOCKS - BLOCKS / 2 + 0.5f) * BLOCK_SIZE);
+            rootNode.attachChild(block);
+
+            for (int j = 0; j < GROUPS; j++) {
+                Node group = new Node();
+                group.setLocalTranslation((random.nextFloat() - 0.5f) * BLOCK_SIZE * 0.6f, 0,
+                        (random.nextFloat() - 0.5f) * BLOCK_SIZE * 0.6f);
+                group.setLocalRotation(new Quaternion().fromAngles(0, random.nextFloat() * 6.28f, 0));
+                block.attachChild(group);
+
+                for (int k = 0; k < OBJECTS; k++) {
+                    Geometry geom = new Geometry(k % 2 == 0 ? box : sphere, material);
+                    geom.setLocalTranslation((random.nextFloat() - 0.5f) * 6, (random.nextFloat() - 0.5f) * 6,
+                            (random.nextFloat() - 0.5f) * 6);
+                    geom.setLocalScale(0.3f + random.nextFloat() * 0.5f);
+                    group.attachChild(geom);
+                }
+            }
+        }
+        return rootNode;
+    }
+
+    /**
+     * 随机摆放的立方体和球体
+     * @return
+     */
+    private List<Geometry> createScene() {
+        Mesh box = new Box();
+        Mesh sphere = new Sphere(1f, 12, 8);
+        Material material = new Material();
+
+        Random random = new Random(0);
+        List<Geometry> scene = new ArrayList<Geometry>();
+        for (int i = 0; i < COUNT; i++) {
+            Geometry geom = new Geometry(i % 2 == 0 ? box : sphere, material);
+            geom.getLocalTransform().setTranslation(
+                    (random.nextFloat() * 2 - 1) * RANGE,
+                    (random.nextFloat() * 2 - 1) * 10,
+                    (random.nextFloat() * 2 - 1) * RANGE);
+            geom.getLocalTransform().setRotation(new Quaternion().fromAngles(
+                    random.nextFloat() * 6.28f, random.nextFloat() * 6.28f, random.nextFloat() * 6.28f));
+            geom.getLocalTransform().setScale(0.5f + random.nextFloat() * 2, 0.5f + random.nextFloat(),
+                    0.5f + random.nextFloat() * 2);
+            scene.add(geom);
+        }
+        return scene;
+    }
+}
@@ -0,0 +1,229 @@
+package net.jmecn.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.material.Material;
+import net.jmecn.material.RenderState.BlendMode;
+import net.jmecn.material.RenderState.DepthFunc;
+import net.jmecn.math.Quaternion;
+import net.jmecn.math.Vector3f;
+import net.jmecn.math.Vector4f;
+import net.jmecn.renderer.RenderQueue.Bucket;
+import net.jmecn.scene.Geometry;
+import net.jmecn.scene.Mesh;
+import net.jmecn.scene.Node;
+import net.jmecn.scene.shape.Box;
+import net.jmecn.scene.shape.Quad;
+import net.jmecn.shader.DefaultShader;
+import net.jmecn.shader.UnshadedShader;
+
+/**
+ * 渲染队列的测试
+ *
+ * 开启排序后，渲染结果应该与按正确的顺序绘制完全一致。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class RenderQueueTest {
+
+    private final static int WIDTH = 320;
+    private final static int HEIGHT = 240;
+
+    private final static int LAYERS = 4;
+
+    private final static int BOXES = 1000;
+    private final static int MATERIALS = 8;
+
+    @Test
+    public void testBuckets() {
+        Mesh quad = new Quad();
+        assertEquals(Bucket.OPAQUE, RenderQueue.getBucket(new Geometry(quad, new Material())));
+
+        Material alphaTest = new Material();
+        alphaTest.getRenderState().setAlphaTest(true);
+        assertEquals(Bucket.ALPHA_TEST, RenderQueue.getBucket(new Geometry(quad, alphaTest)));
+
+        Material blend = new Material();
+        blend.getRenderState().setBlendMode(BlendMode.ALPHA_BLEND);
+        assertEquals(Bucket.TRANSPARENT, RenderQueue.getBucket(new Geometry(quad, blend)));
+
+        // 绘制顺序影响结果的不透明物体
+        Material noDepthWrite = new Material();
+        noDepthWrite.getRenderState().setDepthWrite(false);
+        assertEquals(Bucket.ORDERED, RenderQueue.getBucket(new Geometry(quad, noDepthWrite)));
+
+        Material greater = new Material();
+        greater.getRenderState().setDepthFunc(DepthFunc.GREATER);
+        assertEquals(Bucket.ORDERED, RenderQueue.getBucket(new Geometry(quad, greater)));
+
+        // 指定的渲染桶优先
+        Geometry overlay = new Geometry(quad, blend);
+        overlay.setQueueBucket(Bucket.OVERLAY);
+        assertEquals(Bucket.OVERLAY, RenderQueue.getBucket(overlay));
+    }
+
+    /**
+     * 几个互相重叠的半透明矩形按从前往后的顺序加入场景，开启排序后，结果应该与手动按从后往前的顺序绘制完全一致。
+     */
+    @Test
+    public void testTransparentOrder() {
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 0, 10), Vector3f.ZERO, Vector3f.UNIT_Y);
+
+        // 从前往后加入场景
+        Mesh quad = new Quad();
+        Node rootNode = new Node();
+        for (int i = 0; i < LAYERS; i++) {
+            Material material = createMaterial(new Vector4f(i % 2, 0.5f, (i + 1) % 2, 0.5f));
+            material.getRenderState().setBlendMode(BlendMode.ALPHA_BLEND);
+
+            Geometry geom = new Geometry(quad, material);
+            geom.setLocalTranslation(i * 0.5f - 1, i * 0.3f - 0.5f, -i);
+            geom.setLocalScale(2);
+            rootNode.attachChild(geom);
+        }
+
+        // 在它们前面放一个不透明物体，应该最先绘制。
+        Geometry front = new Geometry(quad, createMaterial(new Vector4f(0.2f, 0.8f, 0.2f, 1)));
+        front.setLocalTranslation(2, 1, 1);
+        rootNode.attachChild(front);
+
+        // 最后绘制的矩形，不做深度测试。
+        Material overlay = createMaterial(new Vector4f(1, 1, 0, 1));
+        overlay.getRenderState().setDepthTest(false);
+        Geometry hud = new Geometry(quad, overlay);
+        hud.setLocalTranslation(-3, -2, -5);
+        hud.setQueueBucket(Bucket.OVERLAY);
+        rootNode.attachChild(hud);
+
+        // 手动按正确的顺序绘制
+        List<Geometry> expectedOrder = new ArrayList<Geometry>();
+        expectedOrder.add(front);
+        for (int i = LAYERS - 1; i >= 0; i--) {
+            expectedOrder.add(rootNode.getGeometries().get(i));
+        }
+        expectedOrder.add(hud);
+
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setQueueSorting(false);
+        renderer.clear();
+        renderer.render(expectedOrder, camera);
+        int[] reference = renderer.getRenderContext().getPixels().clone();
+
+        renderer.setQueueSorting(true);
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        assertArrayEquals(reference, renderer.getRenderContext().getPixels());
+    }
+
+    /**
+     * 大量互相遮挡的不透明立方体按从后往前的顺序加入场景，开启排序后画面不变，但执行片段着色器的次数和切换材质的次数应该减少。
+     */
+    @Test
+    public void testOpaqueSorting() {
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 5, 20), new Vector3f(0, 0, -30), Vector3f.UNIT_Y);
+
+        Material[] materials = new Material[MATERIALS];
+        for (int i = 0; i < MATERIALS; i++) {
+            materials[i] = new Material();
+            materials[i].setShader(i % 2 == 0 ? new UnshadedShader() : new DefaultShader());
+            materials[i].setDiffuse(new Vector4f((i & 1) * 0.5f + 0.3f, (i >> 1 & 1) * 0.5f + 0.3f,
+                    (i >> 2 & 1) * 0.5f + 0.3f, 1));
+        }
+
+        // 从后往前加入场景，物体的材质随机。
+        Mesh box = new Box();
+        Random random = new Random(0);
+        Node rootNode = new Node();
+        for (int i = 0; i < BOXES; i++) {
+            Geometry geom = new Geometry(box, materials[random.nextInt(MATERIALS)]);
+            float z = -60 + 70f * i / BOXES;
+            geom.setLocalTranslation((random.nextFloat() * 2 - 1) * 15, (random.nextFloat() * 2 - 1) * 6, z);
+            geom.setLocalRotation(new Quaternion().fromAngles(random.nextFloat() * 6.28f,
+                    random.nextFloat() * 6.28f, 0));
+            geom.setLocalScale(0.5f + random.nextFloat());
+            rootNode.attachChild(geom);
+        }
+
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setQueueSorting(false);
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        int[] reference = renderer.getRenderContext().getPixels().clone();
+        long shaded = renderer.getShadedFragments();
+        int switches = renderer.getMaterialSwitches();
+
+        renderer.setQueueSorting(true);
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        assertArrayEquals(reference, renderer.getRenderContext().getPixels());
+        assertTrue(renderer.getShadedFragments() < shaded);
+        assertTrue(renderer.getMaterialSwitches() < switches);
+    }
+
+    /**
+     * 关闭了深度写入或者使用GREATER比较深度的物体，结果依赖绘制顺序。
+     * 它们和之后加入的不透明物体都不能被重新排列，排序后的结果应该与不排序时一致。
+     */
+    @Test
+    public void testOrderDependentDepth() {
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 0, 10), Vector3f.ZERO, Vector3f.UNIT_Y);
+
+        Mesh box = new Box();
+        Node rootNode = new Node();
+
+        Geometry far = new Geometry(box, createMaterial(new Vector4f(1, 0, 0, 1)));
+        far.setLocalTranslation(0, 0, -4);
+        far.setLocalScale(3);
+        rootNode.attachChild(far);
+
+        // 只在被遮挡的地方绘制
+        Material greater = createMaterial(new Vector4f(0, 1, 0, 1));
+        greater.getRenderState().setDepthFunc(DepthFunc.GREATER);
+        Geometry hidden = new Geometry(box, greater);
+        hidden.setLocalTranslation(1, 1, -6);
+        hidden.setLocalScale(2);
+        rootNode.attachChild(hidden);
+
+        // 不写入深度，之后绘制的物体会覆盖它。
+        Material noDepthWrite = createMaterial(new Vector4f(0, 0, 1, 1));
+        noDepthWrite.getRenderState().setDepthWrite(false);
+        Geometry decal = new Geometry(box, noDepthWrite);
+        decal.setLocalTranslation(-1, -1, 1);
+        rootNode.attachChild(decal);
+
+        // 最后加入的普通物体，比前面的物体都近。
+        Geometry near = new Geometry(box, createMaterial(new Vector4f(1, 1, 0, 1)));
+        near.setLocalTranslation(0.5f, 0, 2);
+        rootNode.attachChild(near);
+
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setQueueSorting(false);
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        int[] reference = renderer.getRenderContext().getPixels().clone();
+
+        renderer.setQueueSorting(true);
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        assertArrayEquals(reference, renderer.getRenderContext().getPixels());
+    }
+
+    private Material createMaterial(Vector4f diffuse) {
+        Material material = new Material();
+        material.setShader(new UnshadedShader());
+        material.setDiffuse(diffuse);
+        return material;
+    }
+}
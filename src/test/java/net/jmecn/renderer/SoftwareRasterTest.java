@@ -0,0 +1,626 @@
+package net.jmecn.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.material.Material;
+import net.jmecn.material.RenderState;
+import net.jmecn.material.RenderState.BlendMode;
+import net.jmecn.material.RenderState.DepthFunc;
+import net.jmecn.material.RenderState.FillMode;
+import net.jmecn.material.RenderState.RasterMode;
+import net.jmecn.material.Texture;
+import net.jmecn.math.ColorRGBA;
+import net.jmecn.renderer.Image.Format;
+import net.jmecn.scene.RasterizationVertex;
+import net.jmecn.scene.Vertex;
+import net.jmecn.shader.Shader;
+
+/**
+ * 软件光栅器的测试
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class SoftwareRasterTest {
+
+    private final static int SIZE = 16;
+
+    // 填充规则测试中网格的尺寸
+    private final static int GRID = 24;
+
+    // 整数混合与浮点数混合的最大误差
+    private final static int MAX_BLEND_ERROR = 2;
+
+    // 深度测试场景的尺寸，不是图块尺寸的整数倍。
+    private final static int DEPTH_WIDTH = 60;
+    private final static int DEPTH_HEIGHT = 45;
+    // 深度测试场景中每一层三角形的数量
+    private final static int LAYER_TRIANGLES = 60;
+
+    private final static com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * 直接输出插值颜色的着色器
+     */
+    private static class ColorShader extends Shader {
+        @Override
+        public RasterizationVertex vertexShader(Vertex vertex) {
+            RasterizationVertex out = new RasterizationVertex();
+            out.position.set(vertex.position.x, vertex.position.y, vertex.position.z, 1);
+            out.color.set(vertex.color);
+            return out;
+        }
+
+        @Override
+        public boolean fragmentShader(RasterizationVertex frag) {
+            return true;
+        }
+
+        @Override
+        public boolean isModifyDepth() {
+            return false;
+        }
+
+        @Override
+        public boolean isDiscard() {
+            return false;
+        }
+    }
+
+    /**
+     * 丢弃绿色分量较小的片段的着色器
+     */
+    private static class DiscardShader extends ColorShader {
+        @Override
+        public boolean fragmentShader(RasterizationVertex frag) {
+            return frag.color.y >= 0.5f;
+        }
+
+        @Override
+        public boolean isDiscard() {
+            return true;
+        }
+    }
+
+    /**
+     * 把绿色分量作为Alpha输出的着色器，配合Alpha测试使用。
+     */
+    private static class AlphaShader extends ColorShader {
+        @Override
+        public boolean fragmentShader(RasterizationVertex frag) {
+            frag.color.w = frag.color.y;
+            return true;
+        }
+    }
+
+    /**
+     * 光栅化阶段不应该为每个片段创建对象，预热之后分配量应该为0。
+     * 纹理坐标的范围远大于屏幕上的纹理尺寸，使纹理被缩小，这样采样时会用到三线性过滤。
+     */
+    @Test
+    public void testNoAllocationPerFragment() {
+        Renderer renderer = new Renderer(640, 480);
+        SoftwareRaster raster = new SoftwareRaster(renderer, renderer.getRenderContext());
+
+        Material material = new Material();
+        material.setDiffuseMap(new Texture());
+        raster.setShader(material.getShader());
+
+        // 铺满屏幕的两个三角形，坐标位于裁剪空间中。
+        RasterizationVertex v0 = vertex(-1, -1, 0, 0);
+        RasterizationVertex v1 = vertex(1, -1, 64, 0);
+        RasterizationVertex v2 = vertex(1, 1, 64, 64);
+        RasterizationVertex v3 = vertex(-1, 1, 0, 64);
+
+        // 统计本身也会分配少量内存，先测出这部分开销。
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        for (FillMode fillMode : FillMode.values()) {
+            for (RasterMode rasterMode : RasterMode.values()) {
+                RenderState renderState = new RenderState();
+                renderState.setFillMode(fillMode);
+                renderState.setRasterMode(rasterMode);
+                // 关闭深度测试，保证每一次都会绘制所有片段。
+                renderState.setDepthTest(false);
+                raster.setRenderState(renderState);
+
+                // 预热，让JIT完成编译。
+                for (int i = 0; i < 20; i++) {
+                    raster.rasterizeTriangle(v0, v1, v2);
+                    raster.rasterizeTriangle(v0, v2, v3);
+                }
+
+                long before = allocatedBytes();
+                for (int i = 0; i < 10; i++) {
+                    raster.rasterizeTriangle(v0, v1, v2);
+                    raster.rasterizeTriangle(v0, v2, v3);
+                }
+                long bytes = allocatedBytes() - before - overhead;
+                assertEquals(fillMode + " " + rasterMode, 0, bytes);
+            }
+        }
+    }
+
+    /**
+     * 把一个正方形划分为网格，随机移动网格内部的顶点后，拆分为大量共享边的三角形，使用ADD模式叠加绘制。
+     * 半空间算法使用定点数和严格的填充规则，正方形内的每个像素都只会被绘制一次，也不会出现裂缝。
+     */
+    @Test
+    public void testFillRule() {
+        int width = 400;
+        int height = 300;
+        Renderer renderer = new Renderer(width, height);
+        Image image = new Image(width, height, Format.INT_ARGB);
+        SoftwareRaster raster = new SoftwareRaster(renderer, image);
+        raster.setShader(new ColorShader());
+
+        RenderState renderState = new RenderState();
+        renderState.setRasterMode(RasterMode.HALF_SPACE);
+        renderState.setBlendMode(BlendMode.ADD);
+        renderState.setDepthTest(false);
+        raster.setRenderState(renderState);
+
+        RasterizationVertex[] grid = createGrid();
+        raster.fill(ColorRGBA.BLACK);
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                RasterizationVertex v0 = grid[x + y * (GRID + 1)];
+                RasterizationVertex v1 = grid[x + 1 + y * (GRID + 1)];
+                RasterizationVertex v2 = grid[x + 1 + (y + 1) * (GRID + 1)];
+                RasterizationVertex v3 = grid[x + (y + 1) * (GRID + 1)];
+                raster.rasterizeTriangle(v0, v1, v2);
+                raster.rasterizeTriangle(v0, v2, v3);
+            }
+        }
+        int[] gridPixels = image.getPixels().clone();
+
+        // 直接绘制整个正方形作为参考
+        raster.fill(ColorRGBA.BLACK);
+        RasterizationVertex v0 = grid[0];
+        RasterizationVertex v1 = grid[GRID];
+        RasterizationVertex v2 = grid[grid.length - 1];
+        RasterizationVertex v3 = grid[grid.length - 1 - GRID];
+        raster.rasterizeTriangle(v0, v1, v2);
+        raster.rasterizeTriangle(v0, v2, v3);
+
+        assertArrayEquals(image.getPixels(), gridPixels);
+    }
+
+    /**
+     * INT_ARGB格式的颜色缓冲使用8位定点数混合，RGBA8格式仍然使用浮点数混合，以它作为参考。
+     * 浮点数混合在写入时直接截断，整数混合先把源颜色截断为8位再四舍五入，两者最多相差2。
+     */
+    @Test
+    public void testIntegerBlending() {
+        Renderer renderer = new Renderer(SIZE, SIZE);
+        Image argbImage = new Image(1, 1, Format.INT_ARGB);
+        Image rgbaImage = new Image(1, 1, Format.RGBA8);
+        SoftwareRaster argb = new SoftwareRaster(renderer, argbImage);
+        SoftwareRaster rgba = new SoftwareRaster(renderer, rgbaImage);
+
+        Shader shader = new ColorShader();
+        argb.setShader(shader);
+        rgba.setShader(shader);
+
+        RasterizationVertex frag = new RasterizationVertex();
+        Random random = new Random(0);
+        for (BlendMode blendMode : BlendMode.values()) {
+            RenderState renderState = new RenderState();
+            renderState.setDepthTest(false);
+            renderState.setDepthWrite(false);
+            renderState.setBlendMode(blendMode);
+            argb.setRenderState(renderState);
+            rgba.setRenderState(renderState);
+
+            for (int i = 0; i < 100000; i++) {
+                int dst = random.nextInt();
+                float a = random.nextFloat();
+                float r = random.nextFloat();
+                float g = random.nextFloat();
+                float b = random.nextFloat();
+                if (blendMode == BlendMode.PREMULTIPLIED_ALPHA) {
+                    r *= a;
+                    g *= a;
+                    b *= a;
+                    // 目标颜色也是预乘的
+                    dst = premultiply(dst);
+                }
+
+                argbImage.getPixels()[0] = dst;
+                byte[] components = rgbaImage.getComponents();
+                components[0] = (byte) (dst >> 16);
+                components[1] = (byte) (dst >> 8);
+                components[2] = (byte) dst;
+                components[3] = (byte) (dst >>> 24);
+
+                frag.position.set(0, 0, 0, 1);
+                frag.color.set(r, g, b, a);
+                argb.rasterizePixel(0, 0, frag);
+                frag.position.set(0, 0, 0, 1);
+                frag.color.set(r, g, b, a);
+                rgba.rasterizePixel(0, 0, frag);
+
+                int result = argbImage.getPixels()[0];
+                int expected = (components[3] & 0xFF) << 24 | (components[0] & 0xFF) << 16
+                        | (components[1] & 0xFF) << 8 | (components[2] & 0xFF);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int error = Math.abs((result >>> shift & 0xFF) - (expected >>> shift & 0xFF));
+                    assertTrue(blendMode + " " + Integer.toHexString(dst), error <= MAX_BLEND_ERROR);
+                }
+            }
+        }
+    }
+
+    /**
+     * 层次深度测试可以跳过整段或整块像素，但不能改变结果。
+     * 对每种深度测试模式和光栅化模式，分别使用后期深度测试、不使用图块剔除的提前深度测试、使用图块剔除的提前深度测试，
+     * 颜色缓冲和深度缓冲都应该完全一致。
+     */
+    @Test
+    public void testTileDepthRejection() {
+        for (RasterMode rasterMode : RasterMode.values()) {
+            for (DepthFunc func : DepthFunc.values()) {
+                DepthScene late = new DepthScene(rasterMode, func, false, false);
+                DepthScene early = new DepthScene(rasterMode, func, true, false);
+                DepthScene tiled = new DepthScene(rasterMode, func, true, true);
+
+                String message = rasterMode + " " + func;
+                assertArrayEquals(message, late.pixels, early.pixels);
+                assertArrayEquals(message, late.depth, early.depth, 0f);
+                assertArrayEquals(message, late.pixels, tiled.pixels);
+                assertArrayEquals(message, late.depth, tiled.depth, 0f);
+
+                // 图块剔除跳过的片段不再逐个测试
+                if (func == DepthFunc.LESS) {
+                    assertTrue(message, tiled.earlyDepthRejected < early.earlyDepthRejected);
+                }
+            }
+        }
+    }
+
+    /**
+     * 提前深度测试只能减少执行片段着色器的次数，不能改变结果。
+     * 场景中包括会丢弃片段的着色器和Alpha测试，它们只能提前测试深度，着色之后才能写入深度。
+     * 最后绘制一层完全被遮挡的三角形，提前深度测试时它们不应该执行片段着色器。
+     */
+    @Test
+    public void testEarlyDepthTest() {
+        for (RasterMode rasterMode : RasterMode.values()) {
+            EarlyDepthScene late = new EarlyDepthScene(rasterMode, false);
+            EarlyDepthScene early = new EarlyDepthScene(rasterMode, true);
+
+            String message = rasterMode.toString();
+            assertArrayEquals(message, late.pixels, early.pixels);
+            assertArrayEquals(message, late.depth, early.depth, 0f);
+
+            assertEquals(message, 0, late.earlyDepthRejected);
+            assertTrue(message, early.earlyDepthRejected > 0);
+            assertTrue(message, late.occludedShaded > 0);
+            assertTrue(message, early.occludedShaded < late.occludedShaded);
+        }
+    }
+
+    /**
+     * 用于比较提前深度测试和后期深度测试的场景
+     *
+     * 1. 绘制铺满屏幕的背景和一层随机的三角形。
+     * 2. 分别用丢弃片段的着色器和Alpha测试绘制一层随机的三角形，它们会写入深度。
+     * 3. 保存颜色缓冲和深度缓冲。
+     * 4. 在所有三角形前方绘制铺满屏幕的三角形，再绘制一层被它完全遮挡的三角形。
+     */
+    private class EarlyDepthScene {
+        int[] pixels;
+        float[] depth;
+        long earlyDepthRejected;
+        // 被遮挡的三角形执行片段着色器的次数
+        long occludedShaded;
+
+        EarlyDepthScene(RasterMode rasterMode, boolean isEarlyDepthTest) {
+            Renderer renderer = new Renderer(DEPTH_WIDTH, DEPTH_HEIGHT);
+            Image image = new Image(DEPTH_WIDTH, DEPTH_HEIGHT, Format.INT_ARGB);
+            SoftwareRaster raster = new SoftwareRaster(renderer, image);
+            raster.setShader(new ColorShader());
+            raster.fill(ColorRGBA.BLACK);
+            raster.clearDepthBuffer();
+
+            RenderState renderState = new RenderState();
+            renderState.setRasterMode(rasterMode);
+            renderState.setEarlyDepthTest(isEarlyDepthTest);
+            raster.setRenderState(renderState);
+
+            Random random = new Random(0);
+            drawTriangles(raster, screenTriangle(0.92f), 0.1f);
+            drawTriangles(raster, randomTriangles(random, LAYER_TRIANGLES, 0.6f), 0.2f);
+
+            raster.setShader(new DiscardShader());
+            drawTriangles(raster, randomTriangles(random, LAYER_TRIANGLES, 0.6f), 0.4f);
+
+            raster.setShader(new AlphaShader());
+            renderState.setAlphaTest(true);
+            renderState.setAlphaFalloff(0.5f);
+            drawTriangles(raster, randomTriangles(random, LAYER_TRIANGLES, 0.6f), 0.6f);
+            renderState.setAlphaTest(false);
+
+            // 遮挡物会覆盖整个屏幕，在它之前保存结果。
+            pixels = image.getPixels().clone();
+            depth = raster.getDepthBuffer().getData().clone();
+            earlyDepthRejected = raster.getEarlyDepthRejected();
+
+            raster.setShader(new ColorShader());
+            drawTriangles(raster, screenTriangle(-0.95f), 0.8f);
+
+            long shaded = raster.getShadedFragments();
+            drawTriangles(raster, randomTriangles(random, LAYER_TRIANGLES, 0.6f), 1f);
+            occludedShaded = raster.getShadedFragments() - shaded;
+        }
+    }
+
+    /**
+     * 用于比较深度测试的场景
+     *
+     * 1. 用LESS绘制铺满屏幕的背景和一层随机的三角形，得到起伏的深度。
+     * 2. 用ALWAYS覆盖一些小三角形，图块的深度范围变得过于宽松，成为“脏”图块。
+     * 3. 用要测试的深度测试模式再次绘制第一层三角形（深度完全相等）、另一层随机的三角形，
+     *    以及位于背景后方、铺满屏幕的三角形。
+     */
+    private class DepthScene {
+        int[] pixels;
+        float[] depth;
+        long earlyDepthRejected;
+
+        DepthScene(RasterMode rasterMode, DepthFunc func, boolean isEarlyDepthTest, boolean isTileDepthTest) {
+            Renderer renderer = new Renderer(DEPTH_WIDTH, DEPTH_HEIGHT);
+            Image image = new Image(DEPTH_WIDTH, DEPTH_HEIGHT, Format.INT_ARGB);
+            SoftwareRaster raster = new SoftwareRaster(renderer, image);
+            raster.setShader(new ColorShader());
+            raster.setTileDepthTest(isTileDepthTest);
+            raster.fill(ColorRGBA.BLACK);
+            raster.clearDepthBuffer();
+
+            RenderState renderState = new RenderState();
+            renderState.setRasterMode(rasterMode);
+            renderState.setEarlyDepthTest(isEarlyDepthTest);
+            raster.setRenderState(renderState);
+
+            Random random = new Random(0);
+            float[] base = randomTriangles(random, LAYER_TRIANGLES, 0.6f);
+            drawTriangles(raster, screenTriangle(0.92f), 0.1f);
+            drawTriangles(raster, base, 0.2f);
+
+            renderState.setDepthFunc(DepthFunc.ALWAYS);
+            drawTriangles(raster, randomTriangles(random, LAYER_TRIANGLES / 2, 0.1f), 0.4f);
+
+            renderState.setDepthFunc(func);
+            drawTriangles(raster, base, 0.6f);
+            drawTriangles(raster, randomTriangles(random, LAYER_TRIANGLES, 0.6f), 0.8f);
+            drawTriangles(raster, screenTriangle(0.95f), 1f);
+
+            pixels = image.getPixels().clone();
+            depth = raster.getDepthBuffer().getData().clone();
+            earlyDepthRejected = raster.getEarlyDepthRejected();
+        }
+    }
+
+    /**
+     * 随机生成三角形，每个顶点保存x、y、z以及颜色的绿色分量。
+     * @param random
+     * @param count 三角形的数量
+     * @param size 三角形的大致尺寸
+     * @return
+     */
+    private float[] randomTriangles(Random random, int count, float size) {
+        float[] data = new float[count * 12];
+        for (int i = 0; i < count; i++) {
+            float cx = random.nextFloat() * 2 - 1;
+            float cy = random.nextFloat() * 2 - 1;
+            for (int j = 0; j < 3; j++) {
+                int offset = i * 12 + j * 4;
+                data[offset] = cx + (random.nextFloat() * 2 - 1) * size;
+                data[offset + 1] = cy + (random.nextFloat() * 2 - 1) * size;
+                data[offset + 2] = random.nextFloat() * 1.8f - 0.9f;
+                data[offset + 3] = random.nextFloat();
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 覆盖整个屏幕、深度不变的三角形
+     * @param z
+     * @return
+     */
+    private float[] screenTriangle(float z) {
+        return new float[] { -1, -1, z, 0.5f, 3, -1, z, 0.5f, -1, 3, z, 0.5f };
+    }
+
+    /**
+     * 绘制随机生成的三角形
+     * @param raster
+     * @param data
+     * @param red 颜色的红色分量，用来区分不同的绘制批次
+     */
+    private void drawTriangles(SoftwareRaster raster, float[] data, float red) {
+        RasterizationVertex[] v = new RasterizationVertex[3];
+        for (int i = 0; i < data.length; i += 12) {
+            for (int j = 0; j < 3; j++) {
+                int offset = i + j * 4;
+                v[j] = new RasterizationVertex();
+                v[j].position.set(data[offset], data[offset + 1], data[offset + 2], 1);
+                v[j].color.set(red, data[offset + 3], 0.5f, 1f);
+            }
+            raster.rasterizeTriangle(v[0], v[1], v[2]);
+        }
+    }
+
+    @Test
+    public void testRenderStateChangeAfterSet() {
+        Renderer renderer = new Renderer(SIZE, SIZE);
+        Image image = new Image(SIZE, SIZE, Format.INT_ARGB);
+        SoftwareRaster raster = new SoftwareRaster(renderer, image);
+        raster.setShader(new ColorShader());
+
+        RenderState renderState = new RenderState();
+        renderState.setDepthTest(false);
+        raster.setRenderState(renderState);
+
+        drawScreen(raster, 0.25f);
+        int[] opaque = image.getPixels().clone();
+
+        // 修改渲染状态，不再调用setRenderState
+        renderState.setBlendMode(BlendMode.ADD);
+        drawScreen(raster, 0.25f);
+
+        int[] pixels = image.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(add(opaque[i], opaque[i]), pixels[i]);
+        }
+    }
+
+    /**
+     * Alpha测试的阈值不属于状态组合，修改阈值后仍然使用同一个片段输出流程，但要用新的阈值测试。
+     */
+    @Test
+    public void testAlphaFalloffChange() {
+        Renderer renderer = new Renderer(SIZE, SIZE);
+        Image image = new Image(SIZE, SIZE, Format.INT_ARGB);
+        SoftwareRaster raster = new SoftwareRaster(renderer, image);
+        // 片段的Alpha等于绿色分量0.1
+        raster.setShader(new AlphaShader());
+
+        RenderState renderState = new RenderState();
+        renderState.setDepthTest(false);
+        renderState.setAlphaTest(true);
+        raster.setRenderState(renderState);
+
+        float[] falloffs = { 0.05f, 0.2f, 0.05f, 0.5f };
+        for (float falloff : falloffs) {
+            renderState.setAlphaFalloff(falloff);
+            raster.fill(ColorRGBA.BLACK);
+            int black = image.getPixels()[0];
+            drawScreen(raster, 0.25f);
+
+            for (int pixel : image.getPixels()) {
+                assertEquals(falloff < 0.1f, pixel != black);
+            }
+        }
+    }
+
+    @Test
+    public void testRenderStateChangeBeforeDraw() {
+        Renderer renderer = new Renderer(SIZE, SIZE);
+        RenderState renderState = new RenderState();
+
+        // 第一次绘制写入深度
+        Image image = new Image(SIZE, SIZE, Format.INT_ARGB);
+        SoftwareRaster raster = new SoftwareRaster(renderer, image);
+        raster.setShader(new ColorShader());
+        raster.setRenderState(renderState);
+        drawScreen(raster, 0.25f);
+        renderState.setDepthFunc(DepthFunc.GREATER);
+        drawScreen(raster, 0.5f);
+
+        // 使用新的渲染状态对象作为参考
+        Image expected = new Image(SIZE, SIZE, Format.INT_ARGB);
+        SoftwareRaster reference = new SoftwareRaster(renderer, expected);
+        reference.setShader(new ColorShader());
+        reference.setRenderState(new RenderState());
+        drawScreen(reference, 0.25f);
+        RenderState greater = new RenderState();
+        greater.setDepthFunc(DepthFunc.GREATER);
+        reference.setRenderState(greater);
+        drawScreen(reference, 0.5f);
+
+        assertArrayEquals(expected.getPixels(), image.getPixels());
+    }
+
+    /**
+     * 绘制一个覆盖整个屏幕的三角形，每个像素只绘制一次。
+     * @param raster
+     * @param red 颜色的红色分量
+     */
+    private void drawScreen(SoftwareRaster raster, float red) {
+        raster.rasterizeTriangle(vertex(-1, -1, red), vertex(3, -1, red), vertex(-1, 3, red));
+    }
+
+    /**
+     * 裁剪空间中的顶点，深度随x增大。
+     */
+    private RasterizationVertex vertex(float x, float y, float red) {
+        RasterizationVertex v = new RasterizationVertex();
+        v.position.set(x, y, x * 0.5f, 1);
+        v.color.set(red, 0.1f, 0.2f, 1f);
+        return v;
+    }
+
+    private RasterizationVertex vertex(float x, float y, float s, float t) {
+        RasterizationVertex v = new RasterizationVertex();
+        v.position.set(x, y, 0, 1);
+        v.texCoord.set(s, t);
+        return v;
+    }
+
+    /**
+     * 创建网格顶点，边界上的顶点保持不动，内部的顶点随机偏移。
+     * @return
+     */
+    private RasterizationVertex[] createGrid() {
+        Random random = new Random(1234);
+        float size = 1.8f / GRID;
+
+        RasterizationVertex[] grid = new RasterizationVertex[(GRID + 1) * (GRID + 1)];
+        for (int y = 0; y <= GRID; y++) {
+            for (int x = 0; x <= GRID; x++) {
+                float px = -0.9f + x * size;
+                float py = -0.9f + y * size;
+                if (x > 0 && x < GRID && y > 0 && y < GRID) {
+                    px += (random.nextFloat() - 0.5f) * size * 0.4f;
+                    py += (random.nextFloat() - 0.5f) * size * 0.4f;
+                }
+
+                RasterizationVertex v = new RasterizationVertex();
+                v.position.set(px, py, 0, 1);
+                // 每次绘制增加0.25，重复绘制的像素会更亮。
+                v.color.set(0.25f, 0.25f, 0.25f, 1f);
+                grid[x + y * (GRID + 1)] = v;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * 当前线程已分配的字节数
+     * @return
+     */
+    private long allocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private int premultiply(int argb) {
+        int a = argb >>> 24;
+        int r = ((argb >> 16 & 0xFF) * a + 127) / 255;
+        int g = ((argb >> 8 & 0xFF) * a + 127) / 255;
+        int b = ((argb & 0xFF) * a + 127) / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * 每个通道相加，结果不超过255。
+     */
+    private int add(int c0, int c1) {
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = (c0 >>> shift & 0xFF) + (c1 >>> shift & 0xFF);
+            color |= Math.min(sum, 0xFF) << shift;
+        }
+        return color;
+    }
+}
@@ -0,0 +1,134 @@
+package net.jmecn.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.light.AmbientLight;
+import net.jmecn.light.DirectionalLight;
+import net.jmecn.light.Light;
+import net.jmecn.material.Material;
+import net.jmecn.material.RenderState.BlendMode;
+import net.jmecn.math.Quaternion;
+import net.jmecn.math.Vector3f;
+import net.jmecn.math.Vector4f;
+import net.jmecn.scene.Geometry;
+import net.jmecn.scene.Mesh;
+import net.jmecn.scene.Node;
+import net.jmecn.scene.shape.Box;
+import net.jmecn.scene.shape.Sphere;
+import net.jmecn.shader.BlinnPhongShader;
+import net.jmecn.shader.GouraudShader;
+import net.jmecn.shader.Shader;
+import net.jmecn.shader.UnshadedShader;
+
+/**
+ * 分块光栅器的测试
+ * 
+ * 分块绘制的结果应该与单线程绘制完全一致。
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public class TileRasterizerTest {
+
+    // 不是图块尺寸的整数倍，边缘的图块只有一部分在屏幕内。
+    private final static int WIDTH = 300;
+    private final static int HEIGHT = 200;
+
+    private final static int OBJECTS = 60;
+
+    @Test
+    public void testTiledMatchesUntiled() {
+        Node rootNode = createScene();
+        Camera camera = new Camera(WIDTH, HEIGHT);
+        camera.lookAt(new Vector3f(0, 3, 12), Vector3f.ZERO, Vector3f.UNIT_Y);
+
+        int[] expected = render(rootNode, camera, false);
+        int[] actual = render(rootNode, camera, true);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testTiledMatchesUntiledAcrossFrames() {
+        Node rootNode = createScene();
+        Camera camera = new Camera(WIDTH, HEIGHT);
+
+        Renderer untiled = createRenderer(false);
+        Renderer tiled = createRenderer(true);
+
+        // 图块会继续使用上一帧的着色器副本，它们的uniform变量必须跟着更新。
+        for (int i = 0; i < 3; i++) {
+            camera.lookAt(new Vector3f(i * 2 - 2, 3, 12 - i), Vector3f.ZERO, Vector3f.UNIT_Y);
+            rootNode.getChildren().get(i).setLocalTranslation(i, 1, 2);
+
+            untiled.clear();
+            untiled.render(rootNode, camera);
+            tiled.clear();
+            tiled.render(rootNode, camera);
+            assertArrayEquals(untiled.getRenderContext().getPixels(), tiled.getRenderContext().getPixels());
+        }
+    }
+
+    private int[] render(Node rootNode, Camera camera, boolean isTiled) {
+        Renderer renderer = createRenderer(isTiled);
+        renderer.clear();
+        renderer.render(rootNode, camera);
+        return renderer.getRenderContext().getPixels().clone();
+    }
+
+    private Renderer createRenderer(boolean isTiled) {
+        List<Light> lights = new ArrayList<Light>();
+        lights.add(new AmbientLight(new Vector4f(0.2f, 0.2f, 0.2f, 1)));
+        lights.add(new DirectionalLight(new Vector3f(-1, -2, -3)));
+
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setLights(lights);
+        renderer.setTiled(isTiled);
+        return renderer;
+    }
+
+    /**
+     * 使用不同着色器的物体，其中一部分是半透明的，互相重叠。
+     * @return
+     */
+    private Node createScene() {
+        Mesh box = new Box();
+        Mesh sphere = new Sphere(1f, 16, 12);
+
+        Material[] materials = new Material[4];
+        for (int i = 0; i < materials.length; i++) {
+            materials[i] = new Material();
+            materials[i].setShader(createShader(i));
+            materials[i].setDiffuse(new Vector4f(0.3f + 0.2f * i, 0.8f - 0.2f * i, 0.5f, i == 3 ? 0.5f : 1f));
+        }
+        materials[3].getRenderState().setBlendMode(BlendMode.ALPHA_BLEND);
+
+        Random random = new Random(0);
+        Node rootNode = new Node();
+        for (int i = 0; i < OBJECTS; i++) {
+            Geometry geom = new Geometry(i % 2 == 0 ? box : sphere, materials[random.nextInt(materials.length)]);
+            geom.setLocalTranslation((random.nextFloat() * 2 - 1) * 6, (random.nextFloat() * 2 - 1) * 3,
+                    (random.nextFloat() * 2 - 1) * 4);
+            geom.setLocalRotation(new Quaternion().fromAngles(random.nextFloat() * 6.28f, random.nextFloat() * 6.28f, 0));
+            geom.setLocalScale(0.5f + random.nextFloat());
+            rootNode.attachChild(geom);
+        }
+        return rootNode;
+    }
+
+    private Shader createShader(int i) {
+        switch (i) {
+        case 0:
+            return new UnshadedShader();
+        case 1:
+            return new GouraudShader();
+        default:
+            return new BlinnPhongShader();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.jmecn.scene;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.material.Material;
+import net.jmecn.scene.shape.Box;
+
+/**
+ * 节点保存的物体列表的测试
+ *
+ * 构造一个多层的场景图，随机添加、移除和移动子树，每次修改后把节点保存的物体列表与遍历场景图的结果比较。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class NodeTest {
+
+    private final static int DEPTH = 4;
+    private final static int BRANCHES = 8;
+
+    private final static int ROUNDS = 200;
+
+    @Test
+    public void testGeometryList() {
+        Mesh mesh = new Box();
+        Material material = new Material();
+
+        List<Node> nodes = new ArrayList<Node>();
+        Node rootNode = new Node();
+        nodes.add(rootNode);
+        createTree(rootNode, 1, mesh, material, nodes);
+        assertGeometryList(rootNode);
+
+        Random random = new Random(0);
+        for (int i = 0; i < ROUNDS; i++) {
+            Node node = nodes.get(random.nextInt(nodes.size()));
+            List<Spatial> children = node.getChildren();
+            switch (random.nextInt(3)) {
+            case 0:
+                node.attachChild(new Geometry(mesh, material));
+                break;
+            case 1:
+                if (children.size() > 0) {
+                    node.detachChild(children.get(random.nextInt(children.size())));
+                }
+                break;
+            default:
+                // 把一棵子树移动到另一个节点下
+                Node target = nodes.get(random.nextInt(nodes.size()));
+                if (children.size() > 0 && !isAncestor(children.get(0), target)) {
+                    target.attachChild(children.get(0));
+                }
+            }
+
+            // 检查一部分修改后的结果，其余的留给后面的修改一起检查。
+            if (random.nextInt(4) == 0) {
+                assertGeometryList(rootNode);
+                assertGeometryList(node);
+            }
+        }
+        assertGeometryList(rootNode);
+    }
+
+    /**
+     * 比较节点保存的物体列表与遍历场景图的结果
+     * @param node
+     */
+    private void assertGeometryList(Node node) {
+        assertEquals(walk(node, new ArrayList<Geometry>()), node.getGeometries());
+    }
+
+    /**
+     * 递归遍历场景图
+     */
+    private List<Geometry> walk(Node node, List<Geometry> list) {
+        List<Spatial> children = node.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            Spatial spatial = children.get(i);
+            if (spatial instanceof Geometry) {
+                list.add((Geometry) spatial);
+            } else {
+                walk((Node) spatial, list);
+            }
+        }
+        return list;
+    }
+
+    private boolean isAncestor(Spatial spatial, Node node) {
+        for (Node parent = node; parent != null; parent = parent.getParent()) {
+            if (parent == spatial) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 每个节点有若干个子节点，最底层是物体。
+     */
+    private void createTree(Node node, int depth, Mesh mesh, Material material, List<Node> nodes) {
+        for (int i = 0; i < BRANCHES; i++) {
+            if (depth == DEPTH) {
+                node.attachChild(new Geometry(mesh, material));
+            } else {
+                Node child = new Node();
+                createTree(child, depth + 1, mesh, material, nodes);
+                node.attachChild(child);
+                nodes.add(child);
+            }
+        }
+    }
+}
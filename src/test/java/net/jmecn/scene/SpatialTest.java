@@ -0,0 +1,140 @@
+package net.jmecn.scene;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jmecn.material.Material;
+import net.jmecn.math.Matrix4f;
+import net.jmecn.math.Quaternion;
+import net.jmecn.math.Transform;
+import net.jmecn.scene.shape.Box;
+
+/**
+ * 世界空间变换缓存的测试
+ *
+ * 构造一个多层的场景图，反复随机修改一些节点的相对变换，再把缓存的世界变换与沿父节点链重新计算的结果比较，两者应该完全一致。
+ * getLocalTransform() 会把缓存标记为过期，因此测试另外保存一份相对变换，用来计算参考结果。
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class SpatialTest {
+
+    private final static int DEPTH = 6;
+    private final static int BRANCHES = 3;
+
+    private final static int ROUNDS = 100;
+    private final static int CHANGES = 5;
+
+    // 测试保存的相对变换
+    private Map<Spatial, Transform> localTransforms = new HashMap<Spatial, Transform>();
+
+    @Test
+    public void testWorldTransformCache() {
+        List<Spatial> spatials = new ArrayList<Spatial>();
+        Node rootNode = new Node();
+        spatials.add(rootNode);
+        createTree(rootNode, 1, new Box(), new Material(), spatials);
+        for (Spatial spatial : spatials) {
+            Transform local = new Transform();
+            local.set(spatial.getLocalTransform());
+            localTransforms.put(spatial, local);
+        }
+
+        Random random = new Random(0);
+        for (int i = 0; i < ROUNDS; i++) {
+            for (int j = 0; j < CHANGES; j++) {
+                Spatial spatial = spatials.get(random.nextInt(spatials.size()));
+                Transform local = localTransforms.get(spatial);
+                switch (random.nextInt(3)) {
+                case 0:
+                    local.setTranslation(random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2,
+                            random.nextFloat() * 4 - 2);
+                    spatial.setLocalTranslation(local.getTranslation());
+                    break;
+                case 1:
+                    local.setRotation(new Quaternion().fromAngles(random.nextFloat(), random.nextFloat(),
+                            random.nextFloat()));
+                    spatial.setLocalRotation(local.getRotation());
+                    break;
+                default:
+                    // 直接修改相对变换
+                    local.setScale(0.5f + random.nextFloat());
+                    spatial.getLocalTransform().setScale(local.getScale());
+                }
+            }
+
+            // 只检查一部分物体，让其余物体的缓存保持过期状态。
+            for (int j = 0; j < spatials.size(); j += 1 + random.nextInt(4)) {
+                assertWorldTransform(spatials.get(j));
+            }
+        }
+    }
+
+    /**
+     * 沿父节点链重新计算世界变换，与缓存的结果比较。
+     * @param spatial
+     */
+    private void assertWorldTransform(Spatial spatial) {
+        Transform expected = computeWorldTransform(spatial);
+        Transform actual = spatial.getWorldTransform();
+        assertEquals(expected.getTranslation().x, actual.getTranslation().x, 0f);
+        assertEquals(expected.getTranslation().y, actual.getTranslation().y, 0f);
+        assertEquals(expected.getTranslation().z, actual.getTranslation().z, 0f);
+        assertEquals(expected.getScale().x, actual.getScale().x, 0f);
+        assertEquals(expected.getScale().y, actual.getScale().y, 0f);
+        assertEquals(expected.getScale().z, actual.getScale().z, 0f);
+        assertEquals(expected.getRotation().x, actual.getRotation().x, 0f);
+        assertEquals(expected.getRotation().y, actual.getRotation().y, 0f);
+        assertEquals(expected.getRotation().z, actual.getRotation().z, 0f);
+        assertEquals(expected.getRotation().w, actual.getRotation().w, 0f);
+
+        Matrix4f expectedMatrix = expected.toTransformMatrix();
+        Matrix4f actualMatrix = spatial.getWorldMatrix();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(expectedMatrix.get(i, j), actualMatrix.get(i, j), 0f);
+            }
+        }
+    }
+
+    /**
+     * 从根节点开始逐层合并相对变换
+     * @param spatial
+     * @return
+     */
+    private Transform computeWorldTransform(Spatial spatial) {
+        Transform world = new Transform();
+        world.set(localTransforms.get(spatial));
+        if (spatial.getParent() != null) {
+            world.combineWithParent(computeWorldTransform(spatial.getParent()));
+        }
+        return world;
+    }
+
+    /**
+     * 每个节点有若干个子节点，最底层是物体。
+     */
+    private void createTree(Node node, int depth, Box box, Material material, List<Spatial> spatials) {
+        for (int i = 0; i < BRANCHES; i++) {
+            Spatial child;
+            if (depth == DEPTH) {
+                child = new Geometry(box, material);
+            } else {
+                Node childNode = new Node();
+                createTree(childNode, depth + 1, box, material, spatials);
+                child = childNode;
+            }
+            child.setLocalTranslation(i - 1, 1, 0);
+            node.attachChild(child);
+            spatials.add(child);
+        }
+    }
+}